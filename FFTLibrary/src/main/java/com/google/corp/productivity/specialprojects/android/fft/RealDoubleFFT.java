@@ -34,28 +34,39 @@ public class RealDoubleFFT extends RealDoubleFFT_Mixed {
    * (<em>bt</em>) will multiply the input sequence by <em>norm_factor</em>.
    */
   public double norm_factor;
-  private double wavetable[];
-  private double[] ch;	// reusable work array
+  private final RealDoubleFFTPlan plan;  // shared, immutable
+  private final double[] ch;             // reusable work array, private to this instance
   private int ndim;
 
   /**
    * Construct a wavenumber table with size <em>n</em>.
    * The sequences with the same size can share a wavenumber table. The prime
    * factorization of <em>n</em> together with a tabulation of the trigonometric functions
-   * are computed and stored.
+   * are computed once per size and cached, see {@link RealDoubleFFTPlan}.
    *
    * @param  n  the size of a real data sequence. When <em>n</em> is a multiplication of small
    * numbers (4, 2, 3, 5), this FFT transform is very efficient.
    */
   public RealDoubleFFT(int n)
   {
-    ndim = n;
-    norm_factor = n;
-    if(wavetable == null || wavetable.length !=(2*ndim+15)) {
-      wavetable = new double[2*ndim + 15];
-    }
-    rffti(ndim, wavetable);
-    ch = new double[n];
+    this(RealDoubleFFTPlan.get(n));
+  }
+
+  /**
+   * Construct a transform that uses a (possibly shared) plan.
+   * Only the work array is allocated, so this is cheap. One instance should be
+   * used by one thread at a time; create one instance per thread for concurrent use.
+   */
+  public RealDoubleFFT(RealDoubleFFTPlan plan)
+  {
+    this.plan = plan;
+    ndim = plan.size();
+    norm_factor = ndim;
+    ch = new double[ndim];
+  }
+
+  public RealDoubleFFTPlan getPlan() {
+    return plan;
   }
 
   /**
@@ -80,8 +91,6 @@ public class RealDoubleFFT extends RealDoubleFFT_Mixed {
    *
    */
   public void ft(double x[]) {
-    if(x.length != ndim)
-      throw new IllegalArgumentException("The length of data can not match that of the wavetable");
-    rfftf(ndim, x, wavetable, ch);
+    plan.ft(x, ch);
   }
 }
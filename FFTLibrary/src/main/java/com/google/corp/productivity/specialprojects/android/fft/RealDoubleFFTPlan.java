@@ -0,0 +1,116 @@
+/* Copyright 2011 Google Inc.
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+ *
+ * Derived from jffpack, by suhler@google.com.
+ * 
+ * jfftpack is a Java version of fftpack. jfftpack is based
+ * on Paul N. Swarztraubre's Fortran code and Pekka Janhuen's
+ * C code. It is developed as part of my official duties as
+ * lead software engineer for SCUBA-2 FTS projects
+ * (www.roe.ac.uk/ukatc/projects/scubatwo/)
+ * 
+ * The original fftpack was public domain, so jfftpack is public domain too.
+ * @author Baoshe Zhang
+ * @author Astronomical Instrument Group of University of Lethbridge.
+ */
+
+package com.google.corp.productivity.specialprojects.android.fft;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Precomputed data (wavenumber table and factorization) of real FFT of size <em>n</em>.
+ * A plan is immutable once constructed, so one instance can be shared by any number of
+ * transforms and threads. Each thread supplies its own work array, see {@link RealDoubleFFT}.
+ * Use {@link #get(int)} to obtain the cached plan of a size.
+ * For power of 2 sizes a dedicated kernel ({@link RealDoubleFFT_Pow2}) is used
+ * by default, the generic mixed radix kernel can still be selected by {@link #get(int, boolean)}.
+ */
+public final class RealDoubleFFTPlan {
+  private static final ConcurrentHashMap<Integer, RealDoubleFFTPlan> cache =
+      new ConcurrentHashMap<Integer, RealDoubleFFTPlan>();
+  private static final ConcurrentHashMap<Integer, RealDoubleFFTPlan> cacheMixed =
+      new ConcurrentHashMap<Integer, RealDoubleFFTPlan>();
+  private static final RealDoubleFFT_Mixed kernel = new RealDoubleFFT_Mixed();  // stateless
+
+  private final int ndim;
+  private final double[] wavetable;  // read only after construction, null if pow2 is used
+  private final RealDoubleFFT_Pow2 pow2;
+
+  private RealDoubleFFTPlan(int n, boolean usePow2) {
+    if (n <= 0)
+      throw new IllegalArgumentException("FFT size should be positive: " + n);
+    ndim = n;
+    if (usePow2) {
+      wavetable = null;
+      pow2 = new RealDoubleFFT_Pow2(n);
+    } else {
+      wavetable = new double[2*n + 15];
+      kernel.rffti(n, wavetable);
+      pow2 = null;
+    }
+  }
+
+  /**
+   * Get the plan of size <em>n</em>, compute it on first use.
+   */
+  public static RealDoubleFFTPlan get(int n) {
+    return get(n, true);
+  }
+
+  /**
+   * Get the plan of size <em>n</em>, compute it on first use.
+   *
+   * @param allowPow2 use the dedicated kernel if <em>n</em> is power of 2,
+   *                  otherwise always use the mixed radix kernel
+   */
+  public static RealDoubleFFTPlan get(int n, boolean allowPow2) {
+    boolean usePow2 = allowPow2 && RealDoubleFFT_Pow2.isPowerOf2(n);
+    ConcurrentHashMap<Integer, RealDoubleFFTPlan> c = usePow2 ? cache : cacheMixed;
+    RealDoubleFFTPlan plan = c.get(n);
+    if (plan == null) {
+      plan = new RealDoubleFFTPlan(n, usePow2);
+      RealDoubleFFTPlan old = c.putIfAbsent(n, plan);
+      if (old != null) plan = old;
+    }
+    return plan;
+  }
+
+  public int size() {
+    return ndim;
+  }
+
+  public boolean isPow2Kernel() {
+    return pow2 != null;
+  }
+
+  /**
+   * Forward real FFT, same output layout as {@link RealDoubleFFT#ft(double[])}.
+   * Thread safe as long as <em>work</em> is not shared between threads.
+   *
+   * @param x    data of length n, transformed in place
+   * @param work work array of length at least n
+   */
+  public void ft(double x[], double work[]) {
+    if (x.length != ndim)
+      throw new IllegalArgumentException("The length of data can not match that of the wavetable");
+    if (work.length < ndim)
+      throw new IllegalArgumentException("Work array too short");
+    if (pow2 != null) {
+      pow2.rfftf(x, work);
+    } else {
+      kernel.rfftf(ndim, x, wavetable, work);
+    }
+  }
+}
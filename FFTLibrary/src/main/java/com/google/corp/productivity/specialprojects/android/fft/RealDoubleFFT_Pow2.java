@@ -0,0 +1,166 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.corp.productivity.specialprojects.android.fft;
+
+/**
+ * Real FFT specialized for sizes that are power of 2.
+ * The n real inputs are treated as n/2 complex numbers, transformed by an
+ * iterative radix-4 (plus at most one radix-2 pass) complex FFT, then split
+ * into the spectrum of the real sequence.
+ * Output layout is the same as {@link RealDoubleFFT_Mixed#rfftf}.
+ * All tables are computed in the constructor and never modified afterwards.
+ */
+class RealDoubleFFT_Pow2 {
+  private final int n;
+  private final int m;            // n/2, size of the complex FFT
+  private final int[] bitrev;     // bit reversal permutation of 0..m-1
+  private final double[] twStage; // twiddles of radix-4 passes, (w1, w2, w3) interleaved re/im, stage by stage
+  private final double[] twSplit; // exp(-2*pi*i*k/n), k = 0..m/2, re/im interleaved
+  private final boolean oddLog;   // log2(m) is odd, first pass is radix-2 instead of radix-4
+
+  static boolean isPowerOf2(int n) {
+    return n > 0 && (n & (n-1)) == 0;
+  }
+
+  RealDoubleFFT_Pow2(int n) {
+    if (!isPowerOf2(n))
+      throw new IllegalArgumentException("RealDoubleFFT_Pow2: n should be power of 2: " + n);
+    this.n = n;
+    m = n / 2;
+    int logm = 0;
+    while ((1 << logm) < m) logm++;
+    oddLog = (logm & 1) == 1;
+
+    bitrev = new int[m];
+    for (int j = 0; j < m; j++) {
+      int r = 0;
+      for (int b = 0; b < logm; b++) {
+        r |= ((j >> b) & 1) << (logm - 1 - b);
+      }
+      bitrev[j] = r;
+    }
+
+    // Twiddles are stored contiguously in the order they are used by the passes.
+    // The first pass (l = 1) needs no twiddle.
+    int len = 0;
+    for (int l = oddLog ? 2 : 4; l < m; l *= 4) len += 6 * l;
+    twStage = new double[len];
+    int p = 0;
+    for (int l = oddLog ? 2 : 4; l < m; l *= 4) {
+      for (int j = 0; j < l; j++) {
+        for (int q = 1; q <= 3; q++) {
+          double a = -2 * Math.PI * q * j / (4.0 * l);
+          twStage[p++] = Math.cos(a);
+          twStage[p++] = Math.sin(a);
+        }
+      }
+    }
+
+    twSplit = new double[2 * (m/2 + 1)];
+    for (int k = 0; k <= m/2; k++) {
+      double a = -2 * Math.PI * k / n;
+      twSplit[2*k  ] = Math.cos(a);
+      twSplit[2*k+1] = Math.sin(a);
+    }
+  }
+
+  /**
+   * Forward real FFT of r[0..n-1] in place, ch is a work array of length at least n.
+   */
+  void rfftf(double r[], double ch[]) {
+    if (n == 1) return;
+    if (n == 2) {
+      double a = r[0], b = r[1];
+      r[0] = a + b;
+      r[1] = a - b;
+      return;
+    }
+    // First pass, merged with the bit reversal copy. r is viewed as m complex numbers.
+    int l;
+    if (oddLog) {
+      for (int s = 0, b = 0; s < 2*m; s += 4, b += 2) {
+        int k0 = 2*bitrev[b], k1 = 2*bitrev[b+1];
+        double xr = r[k0], xi = r[k0+1];
+        double yr = r[k1], yi = r[k1+1];
+        ch[s  ] = xr + yr;  ch[s+1] = xi + yi;
+        ch[s+2] = xr - yr;  ch[s+3] = xi - yi;
+      }
+      l = 2;
+    } else {
+      for (int s = 0, b = 0; s < 2*m; s += 8, b += 4) {
+        int k0 = 2*bitrev[b], k1 = 2*bitrev[b+1], k2 = 2*bitrev[b+2], k3 = 2*bitrev[b+3];
+        double t0r = r[k0] + r[k1], t0i = r[k0+1] + r[k1+1];
+        double t1r = r[k0] - r[k1], t1i = r[k0+1] - r[k1+1];
+        double t2r = r[k2] + r[k3], t2i = r[k2+1] + r[k3+1];
+        double t3r = r[k2] - r[k3], t3i = r[k2+1] - r[k3+1];
+        ch[s  ] = t0r + t2r;  ch[s+1] = t0i + t2i;
+        ch[s+2] = t1r + t3i;  ch[s+3] = t1i - t3r;
+        ch[s+4] = t0r - t2r;  ch[s+5] = t0i - t2i;
+        ch[s+6] = t1r - t3i;  ch[s+7] = t1i + t3r;
+      }
+      l = 4;
+    }
+
+    int tw = 0;
+    for (; l < m; l *= 4) {
+      int l2 = 2*l;               // stride of one sub-DFT in doubles
+      for (int s = 0; s < 2*m; s += 4*l2) {
+        int t = tw;
+        for (int j = 0; j < l2; j += 2, t += 6) {
+          int i0 = s + j, i1 = i0 + l2, i2 = i1 + l2, i3 = i2 + l2;
+          double w1r = twStage[t  ], w1i = twStage[t+1];
+          double w2r = twStage[t+2], w2i = twStage[t+3];
+          double w3r = twStage[t+4], w3i = twStage[t+5];
+          // i1 holds the sub-DFT of residue 2 (mod 4), i2 that of residue 1, due to bit reversal
+          double a0r = ch[i0], a0i = ch[i0+1];
+          double a1r = w2r*ch[i1] - w2i*ch[i1+1], a1i = w2r*ch[i1+1] + w2i*ch[i1];
+          double a2r = w1r*ch[i2] - w1i*ch[i2+1], a2i = w1r*ch[i2+1] + w1i*ch[i2];
+          double a3r = w3r*ch[i3] - w3i*ch[i3+1], a3i = w3r*ch[i3+1] + w3i*ch[i3];
+          double t0r = a0r + a1r, t0i = a0i + a1i;
+          double t1r = a0r - a1r, t1i = a0i - a1i;
+          double t2r = a2r + a3r, t2i = a2i + a3i;
+          double t3r = a2r - a3r, t3i = a2i - a3i;
+          ch[i0] = t0r + t2r;  ch[i0+1] = t0i + t2i;
+          ch[i1] = t1r + t3i;  ch[i1+1] = t1i - t3r;
+          ch[i2] = t0r - t2r;  ch[i2+1] = t0i - t2i;
+          ch[i3] = t1r - t3i;  ch[i3+1] = t1i + t3r;
+        }
+      }
+      tw += 3 * l2;
+    }
+
+    // Split the complex spectrum Z into the spectrum X of the real sequence:
+    //   X[k] = E + W^k O,  E = (Z[k] + conj(Z[m-k]))/2,  O = (Z[k] - conj(Z[m-k]))/(2i)
+    //   X[m-k] = conj(E - W^k O)
+    r[0]   = ch[0] + ch[1];
+    r[n-1] = ch[0] - ch[1];
+    for (int k = 1; k < m - k; k++) {
+      int j = m - k;
+      double zkr = ch[2*k], zki = ch[2*k+1];
+      double zjr = ch[2*j], zji = ch[2*j+1];
+      double er = 0.5 * (zkr + zjr), ei = 0.5 * (zki - zji);
+      double or = 0.5 * (zki + zji), oi = -0.5 * (zkr - zjr);
+      double wr = twSplit[2*k], wi = twSplit[2*k+1];
+      double pr = wr*or - wi*oi, pi = wr*oi + wi*or;
+      r[2*k-1] = er + pr;
+      r[2*k  ] = ei + pi;
+      r[2*j-1] = er - pr;
+      r[2*j  ] = pi - ei;
+    }
+    r[m-1] =  ch[m];     // k = m/2, X = conj(Z[m/2])
+    r[m  ] = -ch[m+1];
+  }
+}
@@ -0,0 +1,85 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.corp.productivity.specialprojects.android.fft;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Single precision real FFT, same contract and output layout as {@link RealDoubleFFT}.
+ * Power of 2 sizes are computed in float by {@link RealFloatFFT_Pow2}. Other sizes
+ * fall back to the double precision mixed radix kernel through a conversion buffer.
+ * One instance should be used by one thread at a time.
+ */
+public class RealFloatFFT {
+  private static final ConcurrentHashMap<Integer, RealFloatFFT_Pow2> cache =
+      new ConcurrentHashMap<Integer, RealFloatFFT_Pow2>();
+
+  /**
+   * <em>norm_factor</em> can be used to normalize this FFT transform, see {@link RealDoubleFFT}.
+   */
+  public double norm_factor;
+  private final RealFloatFFT_Pow2 pow2;  // shared, immutable; null for non power of 2 sizes
+  private final float[] ch;              // work array for pow2
+  private final RealDoubleFFT fallback;
+  private final double[] xd;             // work array for fallback
+  private final int ndim;
+
+  /**
+   * @param  n  the size of a real data sequence. Power of 2 is the fast case.
+   */
+  public RealFloatFFT(int n) {
+    if (n <= 0)
+      throw new IllegalArgumentException("FFT size should be positive: " + n);
+    ndim = n;
+    norm_factor = n;
+    if (RealDoubleFFT_Pow2.isPowerOf2(n)) {
+      RealFloatFFT_Pow2 k = cache.get(n);
+      if (k == null) {
+        k = new RealFloatFFT_Pow2(n);
+        RealFloatFFT_Pow2 old = cache.putIfAbsent(n, k);
+        if (old != null) k = old;
+      }
+      pow2 = k;
+      ch = new float[n];
+      fallback = null;
+      xd = null;
+    } else {
+      pow2 = null;
+      ch = null;
+      fallback = new RealDoubleFFT(n);
+      xd = new double[n];
+    }
+  }
+
+  public int size() {
+    return ndim;
+  }
+
+  /**
+   * Forward real FFT transform, in place. See {@link RealDoubleFFT#ft(double[])} for the layout.
+   */
+  public void ft(float x[]) {
+    if (x.length != ndim)
+      throw new IllegalArgumentException("The length of data can not match that of the wavetable");
+    if (pow2 != null) {
+      pow2.rfftf(x, ch);
+    } else {
+      for (int i = 0; i < ndim; i++) xd[i] = x[i];
+      fallback.ft(xd);
+      for (int i = 0; i < ndim; i++) x[i] = (float) xd[i];
+    }
+  }
+}
@@ -0,0 +1,141 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.corp.productivity.specialprojects.android.fft;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The power of 2 kernels (RealDoubleFFT_Pow2, RealFloatFFT) against the mixed radix kernel,
+ * and the mixed radix kernel against a direct DFT.
+ */
+public class RealFFTTest {
+
+  private static double[] randomData(int n, long seed) {
+    Random rnd = new Random(seed);
+    double[] x = new double[n];
+    for (int i = 0; i < n; i++) {
+      x[i] = rnd.nextGaussian();
+    }
+    return x;
+  }
+
+  private static double[] ftMixed(double[] x) {
+    double[] y = x.clone();
+    new RealDoubleFFT(RealDoubleFFTPlan.get(x.length, false)).ft(y);
+    return y;
+  }
+
+  // max |a - b| / max |b|
+  private static double relDiff(double[] a, double[] b) {
+    double d = 0, m = 0;
+    for (int i = 0; i < b.length; i++) {
+      d = Math.max(d, Math.abs(a[i] - b[i]));
+      m = Math.max(m, Math.abs(b[i]));
+    }
+    return m == 0 ? d : d / m;
+  }
+
+  @Test
+  public void mixedRadixMatchesDirectDFT() {
+    for (int n : new int[] {1, 2, 3, 8, 12, 15, 30, 64, 97}) {
+      double[] x = randomData(n, n);
+      double[] y = ftMixed(x);
+      // Layout: y[0] = X0, (re, im) of X1 ~ X(m-1) at 2k-1, 2k, and X(n/2) at n-1 if n is even.
+      double[] ref = new double[n];
+      for (int k = 0; k <= n / 2; k++) {
+        double re = 0, im = 0;
+        for (int t = 0; t < n; t++) {
+          re += x[t] * Math.cos(2 * Math.PI * k * t / n);
+          im -= x[t] * Math.sin(2 * Math.PI * k * t / n);
+        }
+        if (k == 0) {
+          ref[0] = re;
+        } else if (2 * k == n) {
+          ref[n - 1] = re;
+        } else {
+          ref[2 * k - 1] = re;
+          ref[2 * k]     = im;
+        }
+      }
+      assertTrue("n = " + n, relDiff(y, ref) < 1e-12);
+    }
+  }
+
+  @Test
+  public void pow2KernelMatchesMixedRadix() {
+    for (int n = 1; n <= 65536; n *= 2) {
+      RealDoubleFFTPlan plan = RealDoubleFFTPlan.get(n);
+      assertTrue(plan.isPow2Kernel());
+      double[] x = randomData(n, n);
+      double[] y = x.clone();
+      new RealDoubleFFT(plan).ft(y);
+      double d = relDiff(y, ftMixed(x));
+      assertTrue("n = " + n + ", relative difference " + d, d < 1e-15);
+    }
+  }
+
+  @Test
+  public void nonPow2SizeUsesMixedRadix() {
+    assertFalse(RealDoubleFFTPlan.get(1000).isPow2Kernel());
+    assertFalse(RealDoubleFFTPlan.get(1024, false).isPow2Kernel());
+    assertSame(RealDoubleFFTPlan.get(1024), RealDoubleFFTPlan.get(1024));
+  }
+
+  @Test
+  public void floatMatchesDouble() {
+    for (int n : new int[] {2, 4, 16, 256, 1000, 4096, 32768}) {
+      double[] x = randomData(n, 3 * n);
+      float[] xf = new float[n];
+      double[] xd = new double[n];
+      for (int i = 0; i < n; i++) {
+        xf[i] = (float) x[i];
+        xd[i] = xf[i];              // same input as the float transform
+      }
+      new RealFloatFFT(n).ft(xf);
+      double[] ref = ftMixed(xd);
+      double[] y = new double[n];
+      for (int i = 0; i < n; i++) {
+        y[i] = xf[i];
+      }
+      double d = relDiff(y, ref);
+      assertTrue("n = " + n + ", relative difference " + d, d < 1e-5);
+    }
+  }
+
+  @Test
+  public void transformsAreReusable() {
+    int n = 512;
+    double[] x = randomData(n, 7);
+    RealDoubleFFT fft = new RealDoubleFFT(n);
+    double[] y1 = x.clone();
+    double[] y2 = x.clone();
+    fft.ft(y1);
+    fft.ft(y2);
+    assertEquals(0, relDiff(y1, y2), 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void wrongLengthIsRejected() {
+    new RealDoubleFFT(256).ft(new double[128]);
+  }
+}
@@ -26,6 +26,7 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.os.Bundle;
+import android.os.Environment;
 import android.os.Handler;
 import android.os.SystemClock;
 import android.preference.PreferenceManager;
@@ -45,6 +46,7 @@ import android.widget.Button;
 import android.widget.AdapterView.OnItemClickListener;
 import android.widget.AdapterView;
 import android.widget.TextView;
+import android.widget.Toast;
 
 /**
  * Audio "FFT" analyzer.
@@ -68,10 +70,6 @@ public class AnalyzerActivity extends Activity
 
   AnalyzerParameters analyzerParam = null;
 
-  double dtRMS = 0;
-  double dtRMSFromFT = 0;
-  double maxAmpDB;
-  double maxAmpFreq;
 
   private boolean isLinearFreq = true;
   private boolean isMeasure = false;
@@ -84,6 +82,7 @@ public class AnalyzerActivity extends Activity
     Log.i(TAG, " max runtime mem = " + maxMemory + "k");
 
     super.onCreate(savedInstanceState);
+    AndroidDspBackend.install();
     setContentView(R.layout.main);
 
     Resources res = getResources();
@@ -132,6 +131,29 @@ public class AnalyzerActivity extends Activity
 
     analyzerParam.audioSourceId = Integer.parseInt(sharedPref.getString("audioSource", Integer.toString(analyzerParam.RECORDER_AGC_OFF)));
     analyzerParam.wndFuncName = sharedPref.getString("windowFunction", "Hanning");
+    analyzerParam.overlapPercent = Double.parseDouble(sharedPref.getString("fftOverlap", "50"));
+    analyzerParam.isSinglePrecision = sharedPref.getBoolean("singlePrecision", false);
+    analyzerParam.isRecordFlac = sharedPref.getString("recordFormat", "WAV").equals("FLAC");
+    analyzerParam.recordBitsPerSample = Integer.parseInt(sharedPref.getString("recordBits", "16"));
+    analyzerParam.recordHeaderCommitSeconds = Double.parseDouble(sharedPref.getString("recordHeaderCommit", "10"));
+    analyzerParam.isFloatCapture = sharedPref.getBoolean("floatCapture", false);
+    analyzerParam.channels = sharedPref.getBoolean("stereo", false) ? 2 : 1;
+    analyzerParam.displayChannel = Integer.parseInt(sharedPref.getString("displayChannel", "0"));
+    analyzerParam.recordSegmentMinutes = Double.parseDouble(sharedPref.getString("recordSegmentMinutes", "0"));
+    analyzerParam.recordSegmentMB      = Double.parseDouble(sharedPref.getString("recordSegmentMB", "0"));
+    analyzerParam.recordRetentionHours = Double.parseDouble(sharedPref.getString("recordRetentionHours", "0"));
+    analyzerParam.recordRetentionMB    = Double.parseDouble(sharedPref.getString("recordRetentionMB", "0"));
+    analyzerParam.preTriggerSeconds    = Double.parseDouble(sharedPref.getString("preTriggerSeconds", "0"));
+    analyzerParam.postTriggerSeconds   = Double.parseDouble(sharedPref.getString("postTriggerSeconds", "10"));
+    analyzerParam.preTriggerAutoDB     = Double.parseDouble(sharedPref.getString("preTriggerAutoDB", "0"));
+    analyzerParam.spectrogramRecordBytes = Integer.parseInt(sharedPref.getString("spectrogramRecord", "0"));
+    analyzerParam.isBenchmark = sharedPref.getBoolean("benchmark", false);
+    analyzerParam.isZeroCopyCapture = sharedPref.getBoolean("zeroCopyCapture", true);
+    analyzerParam.replayFile = sharedPref.getString("replayFile", "");
+    if (analyzerParam.replayFile.length() == 0) {
+      analyzerParam.replayFile = Environment.getExternalStorageDirectory().getPath() + "/Recorder/replay.wav";
+    }
+    analyzerParam.pcmSocketAddress = sharedPref.getString("pcmSocketAddress", "127.0.0.1:5555");
     analyzerParam.timeDurationPref = Double.parseDouble(sharedPref.getString("spectrogramDuration",
             Double.toString(6.0)));
 
@@ -200,10 +222,11 @@ public class AnalyzerActivity extends Activity
 
   @Override
   public void onSaveInstanceState(Bundle savedInstanceState) {
-    savedInstanceState.putDouble("dtRMS",       dtRMS);
-    savedInstanceState.putDouble("dtRMSFromFT", dtRMSFromFT);
-    savedInstanceState.putDouble("maxAmpDB",    maxAmpDB);
-    savedInstanceState.putDouble("maxAmpFreq",  maxAmpFreq);
+    SpectrumSnapshot s = analyzerViews.graphView.getSpectrumSnapshot();
+    savedInstanceState.putDouble("dtRMS",       s.dtRMS);
+    savedInstanceState.putDouble("dtRMSFromFT", s.dtRMSFromFT);
+    savedInstanceState.putDouble("maxAmpDB",    s.maxAmpDB);
+    savedInstanceState.putDouble("maxAmpFreq",  s.maxAmpFreq);
 
     super.onSaveInstanceState(savedInstanceState);
   }
@@ -213,10 +236,11 @@ public class AnalyzerActivity extends Activity
     // will be calls after the onStart()
     super.onRestoreInstanceState(savedInstanceState);
 
-    dtRMS       = savedInstanceState.getDouble("dtRMS");
-    dtRMSFromFT = savedInstanceState.getDouble("dtRMSFromFT");
-    maxAmpDB    = savedInstanceState.getDouble("maxAmpDB");
-    maxAmpFreq  = savedInstanceState.getDouble("maxAmpFreq");
+    SpectrumSnapshot s = analyzerViews.graphView.restoreSpectrumSnapshot();
+    s.dtRMS       = savedInstanceState.getDouble("dtRMS");
+    s.dtRMSFromFT = savedInstanceState.getDouble("dtRMSFromFT");
+    s.maxAmpDB    = savedInstanceState.getDouble("maxAmpDB");
+    s.maxAmpFreq  = savedInstanceState.getDouble("maxAmpFreq");
   }
   
   @Override
@@ -250,6 +274,11 @@ public class AnalyzerActivity extends Activity
         case R.id.view_range_setting:
           rangeViewDialogC.ShowRangeViewDialog();
           return true;
+        case R.id.pre_trigger_save:
+          if (samplingThread == null || !samplingThread.triggerPreRecord()) {
+            Toast.makeText(this, "Set \"Pre-trigger length\" in preferences first.", Toast.LENGTH_SHORT).show();
+          }
+          return true;
       default:
           return super.onOptionsItemSelected(item);
       }
@@ -39,7 +39,8 @@ public class AnalyzerGraphic extends View {
   private final String TAG = "AnalyzerGraphic:";
   private float xZoom, yZoom;     // horizontal and vertical scaling
   private float xShift, yShift;   // horizontal and vertical translation, in unit 1 unit
-  private double[] savedDBSpectrum = new double[0];
+  private final SpectrumPublisher spectrumPublisher = new SpectrumPublisher();  // SamplingLoop -> UI
+  private SpectrumSnapshot restoredSnapshot = null;  // UI thread only, see restoreSpectrumSnapshot()
   static final float minDB = -144f;    // hard lower bound for dB
   static final float maxDB = 12f;      // hard upper bound for dB
 
@@ -103,7 +104,7 @@ public class AnalyzerGraphic extends View {
   }
 
   // Call this when settings changed.
-  void setupPlot(int sampleRate, int fftLen, double timeDurationE, int nAve) {
+  void setupPlot(int sampleRate, int fftLen, int hopLen, double timeDurationE, int nAve) {
     freq_lower_bound_for_log = (float)sampleRate/fftLen;
 
     float freq_lower_bound_local = 0;
@@ -126,7 +127,7 @@ public class AnalyzerGraphic extends View {
       axisBounds = new RectF(0.0f, sampleRate/2.0f, (float)timeDurationE * nAve, freq_lower_bound_local);
     }
     spectrogramPlot.setCanvas(canvasWidth, canvasHeight, axisBounds);
-    spectrogramPlot.setupSpectrogram(sampleRate, fftLen, timeDurationE, nAve);
+    spectrogramPlot.setupSpectrogram(sampleRate, fftLen, hopLen, timeDurationE, nAve);
   }
 
   void setAxisModeLinear(boolean b) {
@@ -301,7 +302,7 @@ public class AnalyzerGraphic extends View {
     fpsCounter.inc();
     isBusy = true;
     if (showMode == PlotMode.SPECTRUM) {
-      spectrumPlot.drawSpectrumPlot(c, savedDBSpectrum);
+      spectrumPlot.drawSpectrumPlot(c, spectrumPublisher.acquire().spectrumDB);
     } else {
       spectrogramPlot.drawSpectrogramPlot(c);
     }
@@ -310,17 +311,43 @@ public class AnalyzerGraphic extends View {
 
   // All FFT data will enter this view through this interface
   // Will be called in another thread (SamplingLoop)
-  public void saveSpectrum(double[] db) {
-    synchronized (savedDBSpectrum) {  // TODO: need lock on savedDBSpectrum, but how?
-      if (savedDBSpectrum == null || savedDBSpectrum.length != db.length) {
-        savedDBSpectrum = new double[db.length];
-      }
-      System.arraycopy(db, 0, savedDBSpectrum, 0, db.length);  // TODO: sync?
-    }
+  public void saveSpectrum(SpectrumAnalyzer spectrumAnalyzer) {
+    SpectrumSnapshot s = spectrumPublisher.beginWrite();  // owned by this thread until publish()
+    spectrumAnalyzer.fillSnapshot(s);
     // TODO: Should run on another thread? Or lock on data Or CompletionService?
     if (showMode == PlotMode.SPECTROGRAM) {
-      spectrogramPlot.saveRowSpectrumAsColor(savedDBSpectrum);
+      spectrogramPlot.saveRowSpectrumAsColor(s.spectrumDB);
     }
+    spectrumPublisher.publish();
+  }
+
+  // Latest spectrum and measurements. Call from UI thread only.
+  // The returned frame is not modified until next call.
+  SpectrumSnapshot getSpectrumSnapshot() {
+    SpectrumSnapshot s = spectrumPublisher.acquire();
+    if (restoredSnapshot != null) {
+      if (s.seq <= restoredSnapshot.seq) {
+        return restoredSnapshot;
+      }
+      restoredSnapshot = null;  // superseded by a new frame
+    }
+    return s;
+  }
+
+  // Private copy of the latest frame, for the caller to fill in saved measurements.
+  // Returned by getSpectrumSnapshot() until the next frame is published.
+  // The published frame itself is shared with the publisher, so it is not modified.
+  SpectrumSnapshot restoreSpectrumSnapshot() {
+    SpectrumSnapshot s = spectrumPublisher.acquire();
+    SpectrumSnapshot r = new SpectrumSnapshot();
+    r.spectrumDB  = s.spectrumDB.clone();
+    r.maxAmpFreq  = s.maxAmpFreq;
+    r.maxAmpDB    = s.maxAmpDB;
+    r.dtRMS       = s.dtRMS;
+    r.dtRMSFromFT = s.dtRMSFromFT;
+    r.seq         = s.seq;
+    restoredSnapshot = r;
+    return r;
   }
 
   void setSpectrumDBLowerBound(float b) {
@@ -328,7 +355,7 @@ public class AnalyzerGraphic extends View {
   }
 
   void setSpectrogramDBLowerBound(float b) {
-    spectrogramPlot.dBLowerBound = b;
+    spectrogramPlot.setDBLowerBound(b);
   }
 
   public void setShowLines(boolean b) {
@@ -548,8 +575,9 @@ public class AnalyzerGraphic extends View {
     state.bounds = new RectF(spectrumPlot.axisX.vLowerBound, spectrumPlot.axisY.vLowerBound,
                              spectrumPlot.axisX.vUpperBound, spectrumPlot.axisY.vUpperBound);
 
-    state.nfq = savedDBSpectrum.length;
-    state.tmpS = savedDBSpectrum;
+    float[] db = spectrumPublisher.acquire().spectrumDB;
+    state.nfq = db.length;
+    state.tmpS = db.clone();  // may be written to parcel later, when the buffer is reused
 
     state.nsc = spectrogramPlot.spectrogramColors.length;
     state.nFP = spectrogramPlot.nFreqPoints;
@@ -580,7 +608,7 @@ public class AnalyzerGraphic extends View {
       spectrumPlot.axisX.vUpperBound = sb.right;
       spectrumPlot.axisY.vUpperBound = sb.bottom;
 
-      this.savedDBSpectrum = s.tmpS;
+      spectrumPublisher.acquire().spectrumDB = s.tmpS;
 
       this.spectrogramPlot.nFreqPoints = s.nFP;
       this.spectrogramPlot.spectrogramColorsPt = s.nSCP;
@@ -606,7 +634,7 @@ public class AnalyzerGraphic extends View {
     float xS, yS, OyS;
     RectF bounds;
     int nfq;
-    double[] tmpS;
+    float[] tmpS;
     int nsc;  // size of tmpSC
     int nFP;
     int nSCP;
@@ -630,7 +658,7 @@ public class AnalyzerGraphic extends View {
       bounds.writeToParcel(out, flags);
 
       out.writeInt(nfq);
-      out.writeDoubleArray(tmpS);
+      out.writeFloatArray(tmpS);
 
       out.writeInt(nsc);
       out.writeInt(nFP);
@@ -664,8 +692,8 @@ public class AnalyzerGraphic extends View {
       bounds = RectF.CREATOR.createFromParcel(in);
 
       nfq = in.readInt();
-      tmpS = new double[nfq];
-      in.readDoubleArray(tmpS);
+      tmpS = new float[nfq];
+      in.readFloatArray(tmpS);
 
       nsc = in.readInt();
       nFP = in.readInt();
@@ -25,16 +25,48 @@ import android.util.Log;
 
 class AnalyzerParameters {
     final int RECORDER_AGC_OFF = MediaRecorder.AudioSource.VOICE_RECOGNITION;
+    // Audio sources other than AudioRecord, besides test signals 1000 ~ 1002
+    static final int SOURCE_WAV_FILE   = 1003;
+    static final int SOURCE_PCM_SOCKET = 1004;
     int fftLen = 2048;
     int sampleRate = 16000;
     int nFFTAverage = 2;
+    double overlapPercent = 50.0;  // overlap of consecutive FFT windows, in percent
     String wndFuncName;
     int audioSourceId = RECORDER_AGC_OFF;
     boolean isAWeighting = false;
+    boolean isSinglePrecision = false;  // float32 STFT, enough for 16-bit input
+    boolean isRecordFlac = false;       // record to FLAC instead of WAV
+    int recordBitsPerSample = 16;       // of WAV recording: 16, 24, or 32 (float)
+    double recordHeaderCommitSeconds = 10;  // WAV sizes made durable this often, 0: only at stop
+    boolean isFloatCapture = false;     // AudioRecord in ENCODING_PCM_FLOAT, if supported
+    int channels = 1;                   // of the microphone, 1 or 2 (stereo)
+    int displayChannel = 0;             // channel shown when stereo, 0: left, 1: right
+    // Segmented recording, 0 means no limit
+    double recordSegmentMinutes = 0;    // start new file after this long
+    double recordSegmentMB = 0;         // or after the file reaches this size
+    double recordRetentionHours = 0;    // delete segments older than this
+    double recordRetentionMB = 0;       // delete oldest segments when they sum up more than this
+    // Pre-trigger recording: keep last preTriggerSeconds of audio, save it with the
+    // following postTriggerSeconds on trigger. 0 to disable.
+    double preTriggerSeconds = 0;
+    double postTriggerSeconds = 10;
+    double preTriggerAutoDB = 0;        // trigger when RMS (dB) reaches this, >= 0 for manual only
+    int spectrogramRecordBytes = 0;     // record spectrogram in 1 or 2 bytes per value, 0 to disable
+    boolean isBenchmark = false;        // test signals (audioSourceId >= 1000) not paced to real time
+    String replayFile = "";             // for SOURCE_WAV_FILE
+    String pcmSocketAddress = "";       // "host:port" for SOURCE_PCM_SOCKET
+    boolean isZeroCopyCapture = true;   // read the recorder into direct buffers shared by analysis and recording
     final int BYTE_OF_SAMPLE = 2;
     final double SAMPLE_VALUE_MAX = 32767.0;   // Maximum signal value
     double timeDurationPref = 4.0;
 
+    // Number of samples between starts of consecutive FFT windows, in [1, fftLen]
+    int getHopLen() {
+        int hopLen = (int)Math.round(fftLen * (1 - overlapPercent / 100.0));
+        return Math.min(Math.max(hopLen, 1), fftLen);
+    }
+
     AnalyzerParameters(Resources res) {
         getAudioSourceNameFromIdPrepare(res);
     }
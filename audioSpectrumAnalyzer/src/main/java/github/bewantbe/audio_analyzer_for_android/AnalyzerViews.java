@@ -79,7 +79,8 @@ class AnalyzerViews {
 
         textRMSChar  = new char[res.getString(R.string.textview_RMS_text).length()];
         textCurChar  = new char[res.getString(R.string.textview_cur_text).length()];
-        textRecChar  = new char[res.getString(R.string.textview_rec_text).length()];
+        textRecChar  = new char[res.getString(R.string.textview_rec_text).length()
+                              + res.getString(R.string.textview_rec_flac_text).length()];
         textPeakChar = new char[res.getString(R.string.textview_peak_text).length()];
 
         /// initialize pop up window items list
@@ -125,15 +126,23 @@ class AnalyzerViews {
     // Prepare the spectrum and spectrogram plot (from scratch or full reset)
     // Currently called by SamplingLoop::run(), maybe move to main thread?
     void setupView(AnalyzerParameters analyzerParam) {
-        graphView.setupPlot(analyzerParam.sampleRate, analyzerParam.fftLen, analyzerParam.timeDurationPref, analyzerParam.nFFTAverage);
+        graphView.setupPlot(analyzerParam.sampleRate, analyzerParam.fftLen, analyzerParam.getHopLen(),
+                analyzerParam.timeDurationPref, analyzerParam.nFFTAverage);
     }
 
+    private volatile boolean isUpdatePending = false;
+
     // Will be called by SamplingLoop (in another thread)
-    void update(final double[] spectrumDBcopy) {
-        graphView.saveSpectrum(spectrumDBcopy);
+    void update(SpectrumAnalyzer spectrumAnalyzer) {
+        graphView.saveSpectrum(spectrumAnalyzer);
+        if (isUpdatePending) {
+            return;  // the pending redraw will show this spectrum too, e.g. in benchmark mode
+        }
+        isUpdatePending = true;
         activity.runOnUiThread(new Runnable() {
             @Override
             public void run() {
+                isUpdatePending = false;
                 // data will get out of synchronize here
                 invalidateGraphView();
             }
@@ -170,6 +179,29 @@ class AnalyzerViews {
         });
     }
 
+    void notifyRecordFailed(final String path) {
+        activity.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                Context context = activity.getApplicationContext();
+                String text = "Can not record to " + path + ", recording is off.";
+                Toast toast = Toast.makeText(context, text, Toast.LENGTH_LONG);
+                toast.show();
+            }
+        });
+    }
+
+    void notifyBenchmark(final String result) {
+        activity.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                Context context = activity.getApplicationContext();
+                Toast toast = Toast.makeText(context, result, Toast.LENGTH_LONG);
+                toast.show();
+            }
+        });
+    }
+
     private long lastTimeNotifyOverrun = 0;
     void notifyOverrun() {
         if (!bWarnOverrun) {
@@ -380,13 +412,21 @@ class AnalyzerViews {
         tv.invalidate();
     }
 
-    private void refreshRecTimeLable(double wavSec, double wavSecRemain) {
-        // consist with @string/textview_rec_text
+    private void refreshRecTimeLable(double wavSec, double wavSecRemain,
+                                     double compressionRatio, double encodeSpeed) {
+        // consist with @string/textview_rec_text and @string/textview_rec_flac_text
         textRec.setLength(0);
         textRec.append("Rec: ");
         SBNumFormat.fillTime(textRec, wavSec, 1);
         textRec.append(", Remain: ");
         SBNumFormat.fillTime(textRec, wavSecRemain, 0);
+        if (compressionRatio > 0) {
+            textRec.append(", FLAC: ");
+            SBNumFormat.fillInInt(textRec, (int) Math.round(100 * compressionRatio));
+            textRec.append("%, ");
+            SBNumFormat.fillInInt(textRec, (int) Math.min(Math.round(encodeSpeed), 9999));
+            textRec.append("x");
+        }
         textRec.getChars(0, Math.min(textRec.length(), textRecChar.length), textRecChar, 0);
         ((TextView) activity.findViewById(R.id.textview_rec))
                 .setText(textRecChar, 0, Math.min(textRec.length(), textRecChar.length));
@@ -429,16 +469,18 @@ class AnalyzerViews {
             // and then just do invalidate() here.
             if ((viewMask & VIEW_MASK_graphView) != 0)
                 graphView.invalidate();
+            SpectrumSnapshot snapshot = graphView.getSpectrumSnapshot();
             // RMS
             if ((viewMask & VIEW_MASK_textview_RMS) != 0)
-                refreshRMSLabel(activity.dtRMSFromFT);
+                refreshRMSLabel(snapshot.dtRMSFromFT);
             // peak frequency
             if ((viewMask & VIEW_MASK_textview_peak) != 0)
-                refreshPeakLabel(activity.maxAmpFreq, activity.maxAmpDB);
+                refreshPeakLabel(snapshot.maxAmpFreq, snapshot.maxAmpDB);
             if ((viewMask & VIEW_MASK_CursorLabel) != 0)
                 refreshCursorLabel();
             if ((viewMask & VIEW_MASK_RecTimeLable) != 0)
-                refreshRecTimeLable(activity.samplingThread.wavSec, activity.samplingThread.wavSecRemain);
+                refreshRecTimeLable(activity.samplingThread.wavSec, activity.samplingThread.wavSecRemain,
+                        activity.samplingThread.recCompressionRatio, activity.samplingThread.recEncodeSpeed);
         } else {
             if (idPaddingInvalidate == false) {
                 idPaddingInvalidate = true;
@@ -0,0 +1,41 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Route logging and clock of the DSP core (dsp-core module) to Android.
+ */
+
+class AndroidDspBackend implements DspLog.Backend, DspClock.Source {
+    static void install() {
+        AndroidDspBackend b = new AndroidDspBackend();
+        DspLog.setBackend(b);
+        DspClock.setSource(b);
+    }
+
+    @Override public void d(String tag, String msg) { Log.d(tag, msg); }
+    @Override public void i(String tag, String msg) { Log.i(tag, msg); }
+    @Override public void w(String tag, String msg) { Log.w(tag, msg); }
+    @Override public void e(String tag, String msg) { Log.e(tag, msg); }
+
+    @Override
+    public long uptimeMillis() {
+        return SystemClock.uptimeMillis();
+    }
+}
@@ -0,0 +1,266 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import android.util.Log;
+
+/**
+ * Write audio file (WAV or FLAC) in a background thread, so that storage hiccups do not block sampling.
+ * Samples are handed over in blocks from a fixed pool, so memory use is bounded:
+ * when the writer falls behind and the pool runs out, new blocks are dropped and counted.
+ * Usage (sampling thread): b = obtainBlock(); fill b.data; b.size = n; submitBlock(b).
+ * Or, without copy, submitBuffer(buffer) with a buffer from an AudioBufferPool.
+ * Or, with a SampleRing given at construction, the writer thread reads the ring
+ * by itself: the sampling thread only writes to the ring, and does nothing here.
+ */
+
+class AsyncWavWriter {
+  static final String TAG = "AsyncWavWriter";
+
+  static class Block {
+    final short[] data;
+    int size;
+    AudioBufferPool.Buffer buffer;   // if not null, write this instead of data
+    Block(int n) {
+      data = new short[n];
+    }
+  }
+
+  private final AudioFileWriter wavWriter;
+  private final ArrayBlockingQueue<Block> freeBlocks;
+  private final ArrayBlockingQueue<Block> fullBlocks;
+  private final Block spareBlock;    // handed out when pool is empty, never written
+  private final int sampleRate;
+  private final int channels;        // block sizes count samples of all channels
+  private final SampleRing ring;     // if not null, samples come from here, not from blocks
+  private final short[] ringData;    // writer thread only
+  private Thread writerThread;
+  private volatile boolean isWriting = false;
+
+  private volatile long framesSubmitted = 0;  // sampling thread, or writer thread if reading ring
+  private volatile long droppedBlocks = 0;    // sampling thread only
+  private volatile int  maxQueueDepth = 0;    // sampling thread only
+  private volatile long lastWriteNs = 0;      // writer thread only
+  private volatile long maxWriteNs  = 0;      // writer thread only
+  private volatile long totalWriteNs = 0;     // writer thread only
+  private volatile long blocksWritten = 0;    // writer thread only
+
+  AsyncWavWriter(AudioFileWriter wavWriter, int sampleRate, int channels, int blockSize, int nBlocks) {
+    this(wavWriter, sampleRate, channels, null, blockSize, nBlocks);
+  }
+
+  // Write all samples that the sampling thread puts into ring, read blockSize at most at a time.
+  // The ring should be large enough to hold the samples during a storage hiccup.
+  AsyncWavWriter(AudioFileWriter wavWriter, int sampleRate, int channels, SampleRing ring, int blockSize) {
+    this(wavWriter, sampleRate, channels, ring, blockSize, 1);
+  }
+
+  private AsyncWavWriter(AudioFileWriter wavWriter, int sampleRate, int channels, SampleRing ring,
+                         int blockSize, int nBlocks) {
+    if (blockSize <= 0 || nBlocks <= 0) {
+      throw new IllegalArgumentException("AsyncWavWriter(): blockSize and nBlocks must be positive.");
+    }
+    this.wavWriter = wavWriter;
+    this.sampleRate = sampleRate;
+    this.channels = channels;
+    this.ring = ring;
+    ringData = ring == null ? null : new short[blockSize];
+    freeBlocks = new ArrayBlockingQueue<Block>(nBlocks);
+    fullBlocks = new ArrayBlockingQueue<Block>(nBlocks);
+    for (int i = 0; i < nBlocks; i++) {
+      freeBlocks.add(new Block(blockSize));
+    }
+    spareBlock = new Block(blockSize);
+  }
+
+  boolean start() {
+    if (!wavWriter.start()) {
+      return false;
+    }
+    isWriting = true;
+    writerThread = new Thread("WavWriterThread") {
+      @Override
+      public void run() {
+        writeLoop();
+      }
+    };
+    writerThread.start();
+    return true;
+  }
+
+  // Write out all pending blocks, then finish the file.
+  void stop() {
+    if (writerThread == null) {
+      return;
+    }
+    isWriting = false;
+    boolean interrupted = Thread.interrupted();  // so that join() really waits
+    try {
+      writerThread.join();
+    } catch (InterruptedException e) {
+      interrupted = true;
+    }
+    writerThread = null;
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    wavWriter.stop();
+    Log.i(TAG, "stop(): blocks written " + blocksWritten + ", dropped " + droppedBlocks
+        + ", max queue depth " + maxQueueDepth
+        + String.format(", write latency mean %.2f ms max %.2f ms",
+            blocksWritten == 0 ? 0 : totalWriteNs / 1e6 / blocksWritten, maxWriteNs / 1e6));
+  }
+
+  // Sampling thread: get an empty block. Never null, but if the pool is
+  // exhausted the block returned will be dropped by submitBlock().
+  Block obtainBlock() {
+    Block b = freeBlocks.poll();
+    if (b == null) {
+      b = spareBlock;
+    }
+    b.size = 0;
+    return b;
+  }
+
+  // Sampling thread: queue the block for writing.
+  void submitBlock(Block b) {
+    if (b == spareBlock) {
+      droppedBlocks++;
+      return;
+    }
+    fullBlocks.add(b);  // never full, since blocks come from the pool
+    framesSubmitted += b.size;
+    int depth = fullBlocks.size();
+    if (depth > maxQueueDepth) maxQueueDepth = depth;
+  }
+
+  // Sampling thread: queue a pooled buffer for writing as it is. The buffer is
+  // released after written, or immediately if dropped.
+  void submitBuffer(AudioBufferPool.Buffer buffer) {
+    Block b = freeBlocks.poll();
+    if (b == null) {
+      droppedBlocks++;
+      buffer.release();
+      return;
+    }
+    b.buffer = buffer;
+    b.size = buffer.size;
+    submitBlock(b);
+  }
+
+  private void writeLoop() {
+    if (ring != null) {
+      writeRingLoop();
+      return;
+    }
+    while (true) {
+      boolean lastRound = !isWriting;
+      Block b;
+      try {
+        b = fullBlocks.poll(100, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        continue;
+      }
+      if (b == null) {
+        if (lastRound) break;
+        continue;
+      }
+      long t0 = System.nanoTime();
+      if (b.buffer != null) {
+        if (b.buffer.isFloat) {
+          wavWriter.pushAudioFloat(b.buffer.bytes);
+        } else {
+          wavWriter.pushAudioBuffer(b.buffer.bytes);
+        }
+        b.buffer.release();
+        b.buffer = null;
+      } else {
+        wavWriter.pushAudioShort(b.data, b.size);
+      }
+      long dt = System.nanoTime() - t0;
+      freeBlocks.add(b);
+      lastWriteNs = dt;
+      totalWriteNs += dt;
+      if (dt > maxWriteNs) maxWriteNs = dt;
+      blocksWritten++;
+    }
+  }
+
+  // Same as writeLoop(), reading the ring. At stop(), the samples left in it are written.
+  private void writeRingLoop() {
+    while (true) {
+      boolean lastRound = !isWriting;
+      int n = ring.read(ringData, 0, ringData.length, lastRound ? 0 : 100);
+      if (n == 0) {
+        if (lastRound) break;
+        continue;
+      }
+      long t0 = System.nanoTime();
+      wavWriter.pushAudioShort(ringData, n);
+      long dt = System.nanoTime() - t0;
+      framesSubmitted += n;
+      lastWriteNs = dt;
+      totalWriteNs += dt;
+      if (dt > maxWriteNs) maxWriteNs = dt;
+      blocksWritten++;
+    }
+  }
+
+  double secondsLeft() {
+    return wavWriter.secondsLeft();
+  }
+
+  // Seconds of audio accepted for writing (dropped blocks excluded).
+  double secondsWritten() {
+    return (double) framesSubmitted / channels / sampleRate;
+  }
+
+  String getPath() {
+    return wavWriter.getPath();
+  }
+
+  AudioFileWriter getFileWriter() {
+    return wavWriter;
+  }
+
+  int getQueueDepth() {
+    return fullBlocks.size();
+  }
+
+  int getMaxQueueDepth() {
+    return maxQueueDepth;
+  }
+
+  long getDroppedBlocks() {
+    return droppedBlocks;
+  }
+
+  long getBlocksWritten() {
+    return blocksWritten;
+  }
+
+  // Time spent in the last block write, in nanoseconds.
+  long getLastWriteLatencyNs() {
+    return lastWriteNs;
+  }
+
+  long getMaxWriteLatencyNs() {
+    return maxWriteNs;
+  }
+}
@@ -0,0 +1,43 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Recording output, e.g. WavWriter or FlacWriter.
+ * Samples are mono, pushed as 16-bit or as float (float capture), and converted
+ * to the sample format of the file if needed.
+ */
+
+interface AudioFileWriter {
+  // Create the file under getRelativeDir() of external storage, false if storage not available.
+  boolean start();
+  // Finish and close the file.
+  void stop();
+  void pushAudioShort(short[] ss, int numOfReadShort);
+  // Samples (16-bit, native byte order) between position and limit of buf, buf is not modified.
+  void pushAudioBuffer(ByteBuffer buf);
+  // Same as pushAudioBuffer(), samples are 32-bit float in [-1, 1].
+  void pushAudioFloat(ByteBuffer buf);
+  // Estimated recording time left with the free storage.
+  double secondsLeft();
+  double secondsWritten();
+  // Size of the file so far, including data still buffered in the writer.
+  long bytesWritten();
+  String getPath();
+  String getRelativeDir();
+}
@@ -0,0 +1,188 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+import android.annotation.TargetApi;
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The microphone (or other android.media.MediaRecorder.AudioSource) as an AudioSource.
+ * Supports reading into direct buffers (AudioRecord.read(ByteBuffer, int)), and
+ * float capture (ENCODING_PCM_FLOAT) on Android 6.0+, which keeps more than 16 bits
+ * of the device's dynamic range. Mono or stereo (interleaved L R).
+ * (ENCODING_PCM_24BIT_PACKED needs a newer SDK than this app is built with.)
+ */
+
+class AudioRecordSource implements DirectAudioSource {
+  private static final String TAG = "AudioRecordSource";
+  private final int audioSourceId;
+  private final int sampleRate;
+  private final int bufferSampleSize;
+  private final String name;
+  private final boolean isFloatRequested;
+  private final int channels;
+  private boolean isFloat = false;
+  private float[] floatTmp = new float[0];   // read(short[], ...) in float mode
+  private AudioRecord record;
+  private long framePosition;
+  private long timestampNanos;
+
+  /**
+   * @param bufferSampleSize  size of the AudioRecord buffer, in samples (per channel).
+   * @param isFloat  capture in float if the device supports it, see isFloat().
+   * @param channels  1 or 2.
+   */
+  AudioRecordSource(int audioSourceId, int sampleRate, int bufferSampleSize, String name,
+                    boolean isFloat, int channels) {
+    if (channels != 1 && channels != 2) {
+      throw new IllegalArgumentException("AudioRecordSource(): channels should be 1 or 2.");
+    }
+    this.audioSourceId = audioSourceId;
+    this.sampleRate = sampleRate;
+    this.bufferSampleSize = bufferSampleSize;
+    this.name = name;
+    this.isFloatRequested = isFloat;
+    this.channels = channels;
+  }
+
+  AudioRecordSource(int audioSourceId, int sampleRate, int bufferSampleSize, String name) {
+    this(audioSourceId, sampleRate, bufferSampleSize, name, false, 1);
+  }
+
+  private int channelMask() {
+    return channels == 2 ? AudioFormat.CHANNEL_IN_STEREO : AudioFormat.CHANNEL_IN_MONO;
+  }
+
+  // In bytes, or AudioRecord.ERROR_BAD_VALUE if the sample rate is not supported.
+  static int getMinBufferSize(int sampleRate) {
+    return AudioRecord.getMinBufferSize(sampleRate, AudioFormat.CHANNEL_IN_MONO,
+        AudioFormat.ENCODING_PCM_16BIT);
+  }
+
+  @Override
+  public void open() throws IOException {
+    isFloat = false;
+    if (isFloatRequested) {
+      if (Build.VERSION.SDK_INT >= 23) {
+        record = newFloatRecord();
+        if (record.getState() == AudioRecord.STATE_UNINITIALIZED) {
+          Log.w(TAG, "open(): Float capture not supported, use 16-bit.");
+          record.release();
+        } else {
+          isFloat = true;
+        }
+      } else {
+        Log.w(TAG, "open(): Float capture needs Android 6.0, use 16-bit.");
+      }
+    }
+    if (!isFloat) {
+      record = new AudioRecord(audioSourceId, sampleRate, channelMask(),
+          AudioFormat.ENCODING_PCM_16BIT, 2 * channels * bufferSampleSize);
+    }
+    if (record.getState() == AudioRecord.STATE_UNINITIALIZED) {
+      record.release();
+      record = null;
+      throw new IOException("AudioRecordSource::open(): Fail to initialize AudioRecord()");
+    }
+    framePosition = 0;
+    record.startRecording();
+  }
+
+  @TargetApi(23)
+  private AudioRecord newFloatRecord() {
+    return new AudioRecord(audioSourceId, sampleRate, channelMask(),
+        AudioFormat.ENCODING_PCM_FLOAT, 4 * channels * bufferSampleSize);
+  }
+
+  @TargetApi(23)
+  private int readFloat(short[] buf, int off, int len) {
+    if (floatTmp.length < len) {
+      floatTmp = new float[len];
+    }
+    int n = record.read(floatTmp, 0, len, AudioRecord.READ_BLOCKING);
+    for (int i = 0; i < n; i++) {
+      buf[off + i] = WavWriter.toShort(floatTmp[i]);
+    }
+    return n;
+  }
+
+  @Override
+  public int read(short[] buf, int off, int len) {
+    int n = isFloat ? readFloat(buf, off, len)
+                    : record.read(buf, off, len);   // pulling
+    if (n > 0) {
+      framePosition += n / channels;
+      timestampNanos = System.nanoTime();
+    }
+    return n;
+  }
+
+  @Override
+  public int read(ByteBuffer buf, int sizeInBytes) {
+    int n = record.read(buf, sizeInBytes);   // pulling, straight into buf
+    if (n > 0) {
+      framePosition += n / ((isFloat ? 4 : 2) * channels);
+      timestampNanos = System.nanoTime();
+    }
+    return n;
+  }
+
+  @Override
+  public int getChannels() {
+    return channels;
+  }
+
+  @Override
+  public boolean isFloat() {
+    return isFloat;
+  }
+
+  @Override
+  public int getSampleRate() {
+    return record == null ? sampleRate : record.getSampleRate();
+  }
+
+  @Override
+  public long getFramePosition() {
+    return framePosition;
+  }
+
+  @Override
+  public long getTimestampNanos() {
+    return timestampNanos;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public void close() {
+    if (record == null) {
+      return;
+    }
+    record.stop();
+    record.release();
+    record = null;
+  }
+}
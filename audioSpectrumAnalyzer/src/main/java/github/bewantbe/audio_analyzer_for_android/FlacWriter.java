@@ -0,0 +1,259 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+import android.os.Environment;
+import android.util.Log;
+
+/**
+ * Record to FLAC file, lossless and about half the size of WAV for usual sound.
+ * Encoding is done in pushAudioShort(), so call it from a background thread (see AsyncWavWriter).
+ * The STREAMINFO (total samples, MD5) is written in stop(); a file not stopped
+ * properly is still decodable, with unknown length.
+ */
+
+public class FlacWriter implements AudioFileWriter {
+  static final String TAG = "FlacWriter";
+  final String relativeDir = "/Recorder";
+  private final int sampleRate;
+  private final int channels;
+  private final FlacEncoder encoder;
+  private final short[] block;     // samples (interleaved) waiting for a full FLAC block
+  private int blockFill = 0;
+  private File outPath;
+  private FileChannel out;
+  private final ByteBuffer byteBuffer = ByteBuffer.allocateDirect(WavWriter.WRITE_BATCH_BYTES);
+
+  private volatile long framesWrited = 0;   // sample frames pushed
+  private volatile long framesEncoded = 0;
+  private volatile long bytesEncoded = 0;
+  private int headerLen = 0;
+  private volatile long encodeNs = 0;
+
+  public FlacWriter(int sampleRate) {
+    this(sampleRate, 1);
+  }
+
+  // channels: samples pushed are interleaved, e.g. L R L R ... for 2 channels.
+  public FlacWriter(int sampleRate, int channels) {
+    this.sampleRate = sampleRate;
+    this.channels = channels;
+    encoder = new FlacEncoder(sampleRate, channels, 16);
+    block = new short[encoder.getBlockSize() * channels];
+  }
+
+  public boolean start() {
+    if (!WavWriter.isExternalStorageWritable()) {
+      return false;
+    }
+    File path = new File(Environment.getExternalStorageDirectory().getPath() + relativeDir);
+    path.mkdirs();
+    outPath = new File(path, WavWriter.timeStampedName(".flac"));
+    try {
+      out = new RandomAccessFile(outPath, "rw").getChannel();
+      out.truncate(0);
+      byte[] header = encoder.getHeader();
+      headerLen = header.length;
+      writeFully(ByteBuffer.wrap(header));
+      byteBuffer.clear();
+    } catch (IOException e) {
+      Log.w(TAG, "start(): Error writing " + outPath, e);
+      closeQuietly();
+      return false;
+    }
+    return true;
+  }
+
+  public void stop() {
+    if (out == null) {
+      Log.w(TAG, "stop(): Error closing " + outPath + "  null pointer");
+      return;
+    }
+    try {
+      if (blockFill > 0) {
+        encodeBlock();
+      }
+      flushBuffer();
+      encoder.finish();
+      ByteBuffer h = ByteBuffer.wrap(encoder.getHeader());
+      while (h.hasRemaining()) {
+        out.write(h, h.position());
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "stop(): Error modifying " + outPath, e);
+    }
+    closeQuietly();
+    Log.i(TAG, String.format("stop(): compression ratio %.3f, encode speed %.1f x realtime",
+        getCompressionRatio(), getEncodeSpeed()));
+  }
+
+  public void pushAudioShort(short[] ss, int numOfReadShort) {
+    if (out == null) {
+      Log.w(TAG, "pushAudioShort(): Error writing " + outPath + "  null pointer");
+      return;
+    }
+    try {
+      int i = 0;
+      while (i < numOfReadShort) {
+        int n = Math.min(numOfReadShort - i, block.length - blockFill);
+        System.arraycopy(ss, i, block, blockFill, n);
+        blockFill += n;
+        i += n;
+        if (blockFill == block.length) {
+          encodeBlock();
+        }
+      }
+      framesWrited += numOfReadShort / channels;
+    } catch (IOException e) {
+      Log.w(TAG, "pushAudioShort(): Error writing " + outPath, e);
+      closeQuietly();
+    }
+  }
+
+  public void pushAudioBuffer(ByteBuffer buf) {
+    if (out == null) {
+      Log.w(TAG, "pushAudioBuffer(): Error writing " + outPath + "  null pointer");
+      return;
+    }
+    try {
+      ShortBuffer s = buf.asShortBuffer();   // shares byte order of buf
+      int numOfReadShort = s.remaining();
+      while (s.hasRemaining()) {
+        int n = Math.min(s.remaining(), block.length - blockFill);
+        s.get(block, blockFill, n);
+        blockFill += n;
+        if (blockFill == block.length) {
+          encodeBlock();
+        }
+      }
+      framesWrited += numOfReadShort / channels;
+    } catch (IOException e) {
+      Log.w(TAG, "pushAudioBuffer(): Error writing " + outPath, e);
+      closeQuietly();
+    }
+  }
+
+  // Rounded to 16 bits, the only sample size of FlacEncoder.
+  public void pushAudioFloat(ByteBuffer buf) {
+    if (out == null) {
+      Log.w(TAG, "pushAudioFloat(): Error writing " + outPath + "  null pointer");
+      return;
+    }
+    try {
+      FloatBuffer f = buf.asFloatBuffer();   // shares byte order of buf
+      int numOfSamples = f.remaining();
+      while (f.hasRemaining()) {
+        int n = Math.min(f.remaining(), block.length - blockFill);
+        for (int i = 0; i < n; i++) {
+          block[blockFill + i] = WavWriter.toShort(f.get());
+        }
+        blockFill += n;
+        if (blockFill == block.length) {
+          encodeBlock();
+        }
+      }
+      framesWrited += numOfSamples / channels;
+    } catch (IOException e) {
+      Log.w(TAG, "pushAudioFloat(): Error writing " + outPath, e);
+      closeQuietly();
+    }
+  }
+
+  private void encodeBlock() throws IOException {
+    long t0 = System.nanoTime();
+    int len = encoder.encodeFrame(block, 0, blockFill / channels);
+    encodeNs += System.nanoTime() - t0;
+    if (byteBuffer.remaining() < len) {
+      flushBuffer();
+    }
+    if (byteBuffer.remaining() < len) {
+      writeFully(ByteBuffer.wrap(encoder.getFrameBuffer(), 0, len));
+    } else {
+      byteBuffer.put(encoder.getFrameBuffer(), 0, len);
+    }
+    framesEncoded += blockFill / channels;
+    bytesEncoded += len;
+    blockFill = 0;
+  }
+
+  private void flushBuffer() throws IOException {
+    byteBuffer.flip();
+    writeFully(byteBuffer);
+    byteBuffer.clear();
+  }
+
+  private void writeFully(ByteBuffer b) throws IOException {
+    while (b.hasRemaining()) {
+      out.write(b);
+    }
+  }
+
+  private void closeQuietly() {
+    if (out == null) return;
+    try {
+      out.close();
+    } catch (IOException e) {
+      Log.w(TAG, "Error closing " + outPath, e);
+    }
+    out = null;
+  }
+
+  // Size of FLAC frames over size of the same 16-bit PCM. 0 if nothing encoded yet.
+  public double getCompressionRatio() {
+    long n = framesEncoded;
+    return n == 0 ? 0 : bytesEncoded / (2.0 * channels * n);
+  }
+
+  // Seconds of audio encoded per second of encoding time.
+  public double getEncodeSpeed() {
+    long t = encodeNs;
+    return t == 0 ? 0 : framesEncoded / (double) sampleRate / (t / 1e9);
+  }
+
+  public double secondsLeft() {
+    long byteLeft = WavWriter.bytesFree(outPath);
+    double ratio = getCompressionRatio();
+    if (ratio == 0) {
+      ratio = 1;
+    }
+    return byteLeft / (2.0 * channels * sampleRate * ratio);
+  }
+
+  public double secondsWritten() {
+    return (double) framesWrited / sampleRate;
+  }
+
+  // Not counting samples waiting for a full FLAC block.
+  public long bytesWritten() {
+    return headerLen + bytesEncoded;
+  }
+
+  public String getPath() {
+    return outPath.getPath();
+  }
+
+  public String getRelativeDir() {
+    return relativeDir;
+  }
+}
@@ -0,0 +1,274 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import android.util.Log;
+
+/**
+ * Keep the last preSeconds of audio in memory, and on trigger() save them
+ * plus the following postSeconds to a WAV file.
+ * The history is a queue of blocks from a fixed pool; on trigger the blocks are
+ * handed to a writer thread as they are, so no copy and no allocation after construction.
+ * A trigger during an event extends it by postSeconds.
+ * push() is called from the sampling thread, trigger() from any thread.
+ */
+
+class PreTriggerRecorder {
+  static final String TAG = "PreTriggerRecorder";
+
+  private static class Block {
+    final short[] data;
+    int size;
+    boolean isFirst;   // open a new file before writing this block
+    boolean isLast;    // close the file after writing this block
+    Block(int n) {
+      data = new short[n];
+    }
+  }
+
+  private final WavWriter wavWriter;
+  private final int blockSize;
+  private final int nHistoryBlocks;
+  private final long postFrames;
+  private final ArrayBlockingQueue<Block> freeBlocks;
+  private final ArrayBlockingQueue<Block> fullBlocks;
+  private final Block[] history;              // circular, sampling thread only
+  private int historyHead = 0;                // oldest
+  private int historyCount = 0;
+  private final Block spareBlock;             // used when pool is empty, never written
+  private Block cur;                          // block being filled
+  private boolean isRecording = false;        // sampling thread only
+  private boolean endPending = false;         // an event ended in a dropped block
+  private long postRemain = 0;
+  private volatile boolean triggerRequested = false;
+
+  private Thread writerThread;
+  private volatile boolean isRunning = false;
+  private volatile long droppedBlocks = 0;
+  private volatile int eventsSaved = 0;
+
+  PreTriggerRecorder(int sampleRate, double preSeconds, double postSeconds, int blockSize) {
+    if (preSeconds < 0 || postSeconds < 0 || blockSize <= 0) {
+      throw new IllegalArgumentException("PreTriggerRecorder(): invalid parameter.");
+    }
+    this.blockSize = blockSize;
+    nHistoryBlocks = (int) Math.ceil(preSeconds * sampleRate / blockSize);
+    postFrames = (long) (postSeconds * sampleRate);
+    // history + block being filled + ~4 sec for the writer to catch up
+    int nBlocks = nHistoryBlocks + 2 + (int) Math.ceil(4.0 * sampleRate / blockSize);
+    freeBlocks = new ArrayBlockingQueue<Block>(nBlocks);
+    fullBlocks = new ArrayBlockingQueue<Block>(nBlocks);
+    for (int i = 0; i < nBlocks; i++) {
+      freeBlocks.add(new Block(blockSize));
+    }
+    history = new Block[nHistoryBlocks + 1];
+    spareBlock = new Block(blockSize);
+    wavWriter = new WavWriter(sampleRate);
+    cur = obtainBlock();
+  }
+
+  void start() {
+    isRunning = true;
+    writerThread = new Thread("PreTriggerWriter") {
+      @Override
+      public void run() {
+        writeLoop();
+      }
+    };
+    writerThread.start();
+  }
+
+  // Sampling thread. Close the event in progress, if any, and wait for the writer.
+  void stop() {
+    if (writerThread == null) {
+      return;
+    }
+    if (isRecording && cur != spareBlock) {
+      cur.isLast = true;
+      fullBlocks.add(cur);
+      cur = obtainBlock();
+    }
+    isRecording = false;
+    isRunning = false;
+    boolean interrupted = Thread.interrupted();  // so that join() really waits
+    try {
+      writerThread.join();
+    } catch (InterruptedException e) {
+      interrupted = true;
+    }
+    writerThread = null;
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    Log.i(TAG, "stop(): events saved " + eventsSaved + ", dropped blocks " + droppedBlocks);
+  }
+
+  // Any thread: start saving at next push().
+  void trigger() {
+    triggerRequested = true;
+  }
+
+  // Sampling thread: append samples to history (or to the event being saved).
+  void push(short[] s, int n) {
+    if (triggerRequested) {
+      triggerRequested = false;
+      startEvent();
+    }
+    int i = 0;
+    while (i < n) {
+      int m = Math.min(n - i, blockSize - cur.size);
+      System.arraycopy(s, i, cur.data, cur.size, m);
+      cur.size += m;
+      i += m;
+      if (cur.size == blockSize) {
+        completeBlock();
+      }
+    }
+  }
+
+  private void startEvent() {
+    // Count post-trigger time from the start of current block, whose samples so far are pre-trigger.
+    postRemain = postFrames + cur.size;
+    if (isRecording) {
+      return;
+    }
+    isRecording = true;
+    Block first = historyCount == 0 ? cur : history[historyHead];
+    first.isFirst = true;
+    while (historyCount > 0) {
+      fullBlocks.add(pollHistory());
+    }
+    if (first == spareBlock) {  // nothing to hold the start mark; an empty block would do
+      isRecording = false;
+      first.isFirst = false;
+    }
+  }
+
+  private void completeBlock() {
+    Block b = cur;
+    if (isRecording) {
+      postRemain -= b.size;
+      if (postRemain <= 0) {
+        b.isLast = true;
+        isRecording = false;
+      }
+      if (b == spareBlock) {
+        droppedBlocks++;
+        if (b.isLast) {
+          endPending = true;
+        }
+        b.isFirst = b.isLast = false;
+      } else {
+        fullBlocks.add(b);
+      }
+    } else if (b != spareBlock) {
+      history[(historyHead + historyCount) % history.length] = b;
+      historyCount++;
+      if (historyCount > nHistoryBlocks) {
+        recycle(pollHistory());
+      }
+    }
+    cur = obtainBlock();
+  }
+
+  private Block obtainBlock() {
+    Block b = freeBlocks.poll();
+    if (b == null && !isRecording && historyCount > 0) {
+      b = pollHistory();  // writer is slow, shorten the history
+    }
+    if (b != null && endPending) {
+      // Pass the end of the previous event to the writer.
+      endPending = false;
+      b.size = 0;
+      b.isLast = true;
+      fullBlocks.add(b);
+      return obtainBlock();
+    }
+    if (b == null) {
+      b = spareBlock;
+    }
+    b.size = 0;
+    b.isFirst = b.isLast = false;
+    return b;
+  }
+
+  private Block pollHistory() {
+    Block b = history[historyHead];
+    history[historyHead] = null;
+    historyHead = (historyHead + 1) % history.length;
+    historyCount--;
+    return b;
+  }
+
+  private void recycle(Block b) {
+    b.size = 0;
+    b.isFirst = b.isLast = false;
+    freeBlocks.add(b);
+  }
+
+  private void writeLoop() {
+    boolean isFileOpen = false;
+    while (true) {
+      boolean lastRound = !isRunning;
+      Block b;
+      try {
+        b = fullBlocks.poll(100, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        continue;
+      }
+      if (b == null) {
+        if (lastRound) break;
+        continue;
+      }
+      if (b.isFirst) {
+        if (isFileOpen) {
+          wavWriter.stop();
+        }
+        isFileOpen = wavWriter.start();
+        Log.i(TAG, "writeLoop(): saving to " + wavWriter.getPath());
+      }
+      if (isFileOpen && b.size > 0) {
+        wavWriter.pushAudioShort(b.data, b.size);
+      }
+      if (b.isLast && isFileOpen) {
+        wavWriter.stop();
+        isFileOpen = false;
+        eventsSaved++;
+      }
+      recycle(b);
+    }
+    if (isFileOpen) {
+      wavWriter.stop();
+      eventsSaved++;
+    }
+  }
+
+  // Number of events written to file so far.
+  int getEventsSaved() {
+    return eventsSaved;
+  }
+
+  long getDroppedBlocks() {
+    return droppedBlocks;
+  }
+
+  String getRelativeDir() {
+    return wavWriter.getRelativeDir();
+  }
+}
@@ -15,12 +15,17 @@
 
 package github.bewantbe.audio_analyzer_for_android;
 
-import android.media.AudioFormat;
+import android.os.Environment;
 import android.media.AudioRecord;
-import android.os.SystemClock;
+import android.os.Process;
 import android.util.Log;
 
-import java.util.Arrays;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Read a snapshot of audio data at a regular interval, and compute the FFT
@@ -32,36 +37,81 @@ class SamplingLoop extends Thread {
     private final String TAG = "SamplingLoop";
     private volatile boolean isRunning = true;
     private volatile boolean isPaused1 = false;
-    private STFT stft;   // use with care
+    private SpectrumAnalyzer spectrumAnalyzer;   // use with care
     private AnalyzerParameters analyzerParam = null;
-
-    private SineGenerator sineGen1;
-    private SineGenerator sineGen2;
-    private double[] spectrumDBcopy;   // XXX, transfers data from SamplingLoop to AnalyzerGraphic
+    private volatile SampleRing analysisRing;    // capture -> analysis
+    private volatile SampleRing recordRing;      // capture -> wav writer, null if not saving
+    // Zero-copy capture (DirectAudioSource): the capture thread reads into pooled direct
+    // buffers, and hands each to both the analysis (analysisQueue) and the wav writer.
+    // The rings above are not used then.
+    private volatile AudioBufferPool bufferPool;
+    private volatile ArrayBlockingQueue<AudioBufferPool.Buffer> analysisQueue;
+    private volatile boolean isRecordDirect;
+    private volatile long directDroppedSamples = 0;   // capture thread only
+    private volatile AsyncWavWriter asyncWavWriter;
+    private volatile PreTriggerRecorder preTriggerRecorder;   // null if disabled
+
+    // Seed of noise test signals, fixed so that every run gets the same samples.
+    static final long TEST_SIGNAL_SEED = 1;
+    private SignalGenerator[] testSignal;        // for audioSourceId >= 1000, null if not a test signal
+    // Run test signals (or WAV replay) as fast as possible, to measure the headroom versus real time.
+    private final boolean isBenchmark;
+    private final boolean isRealtime;           // source paced by a sound card
 
     private AnalyzerActivity activity;
 
     volatile double wavSecRemain;
     volatile double wavSec = 0;
+    volatile double recCompressionRatio = 0;   // FLAC only, 0 for WAV
+    volatile double recEncodeSpeed = 0;        // FLAC only, times realtime
 
     SamplingLoop(AnalyzerActivity _activity, AnalyzerParameters _analyzerParam) {
         activity = _activity;
         analyzerParam = _analyzerParam;
+        isBenchmark = analyzerParam.isBenchmark && analyzerParam.audioSourceId >= 1000
+                && analyzerParam.audioSourceId != AnalyzerParameters.SOURCE_PCM_SOCKET;
+        isRealtime = analyzerParam.audioSourceId < 1000;
 
         isPaused1 = ((SelectorText) activity.findViewById(R.id.run)).getText().toString().equals("stop");
-        // Signal sources for testing
-        double fq0 = Double.parseDouble(activity.getString(R.string.test_signal_1_freq1));
-        double amp0 = Math.pow(10, 1/20.0 * Double.parseDouble(activity.getString(R.string.test_signal_1_db1)));
-        double fq1 = Double.parseDouble(activity.getString(R.string.test_signal_2_freq1));
-        double amp1 = Math.pow(10, 1/20.0 * Double.parseDouble(activity.getString(R.string.test_signal_2_db1)));
-        double fq2 = Double.parseDouble(activity.getString(R.string.test_signal_2_freq2));
-        double amp2 = Math.pow(10, 1/20.0 * Double.parseDouble(activity.getString(R.string.test_signal_2_db2)));
-        if (analyzerParam.audioSourceId == 1000) {
-            sineGen1 = new SineGenerator(fq0, analyzerParam.sampleRate, analyzerParam.SAMPLE_VALUE_MAX * amp0);
-        } else {
-            sineGen1 = new SineGenerator(fq1, analyzerParam.sampleRate, analyzerParam.SAMPLE_VALUE_MAX * amp1);
+        testSignal = createTestSignal(analyzerParam.audioSourceId);
+    }
+
+    private double dBToAmp(double dB) {
+        return analyzerParam.SAMPLE_VALUE_MAX * Math.pow(10, 1/20.0 * dB);
+    }
+
+    private double getDoubleRes(int id) {
+        return Double.parseDouble(activity.getString(id));
+    }
+
+    // Signal sources for testing
+    private SignalGenerator[] createTestSignal(int audioSourceId) {
+        double fs = analyzerParam.sampleRate;
+        double fMax = Math.min(20000, 0.45 * fs);
+        switch (audioSourceId) {
+            case 1000:
+                return new SignalGenerator[] {
+                        new Nco(getDoubleRes(R.string.test_signal_1_freq1), fs, dBToAmp(getDoubleRes(R.string.test_signal_1_db1)))};
+            case 1001:
+                return new SignalGenerator[] {
+                        new Nco(getDoubleRes(R.string.test_signal_2_freq1), fs, dBToAmp(getDoubleRes(R.string.test_signal_2_db1))),
+                        new Nco(getDoubleRes(R.string.test_signal_2_freq2), fs, dBToAmp(getDoubleRes(R.string.test_signal_2_db2)))};
+            case 1002:
+                return new SignalGenerator[] {
+                        new NoiseGenerator(NoiseGenerator.WHITE, dBToAmp(0), TEST_SIGNAL_SEED)};
+            case 1005:
+                return new SignalGenerator[] {
+                        new NoiseGenerator(NoiseGenerator.PINK, dBToAmp(-12), TEST_SIGNAL_SEED)};
+            case 1006:
+                return new SignalGenerator[] {
+                        new NoiseGenerator(NoiseGenerator.BROWN, dBToAmp(-12), TEST_SIGNAL_SEED)};
+            case 1007:
+                return new SignalGenerator[] {new LogSweep(20, fMax, 10, fs, dBToAmp(-6))};
+            case 1008:
+                return new SignalGenerator[] {
+                        new MultiTone(MultiTone.logSpacedFreqs(31.25, fMax, 2), fs, dBToAmp(-24))};
         }
-        sineGen2 = new SineGenerator(fq2, analyzerParam.sampleRate, analyzerParam.SAMPLE_VALUE_MAX * amp2);
+        return null;
     }
 
     private void SleepWithoutInterrupt(long millis) {
@@ -72,70 +122,157 @@ class SamplingLoop extends Thread {
         }
     }
 
-    private double baseTimeMs = SystemClock.uptimeMillis();
-
-    private void LimitFrameRate(double updateMs) {
-        // Limit the frame rate by wait `delay' ms.
-        baseTimeMs += updateMs;
-        long delay = (int) (baseTimeMs - SystemClock.uptimeMillis());
-//      Log.i(TAG, "delay = " + delay);
-        if (delay > 0) {
-            try {
-                Thread.sleep(delay);
-            } catch (InterruptedException e) {
-                Log.i(TAG, "Sleep interrupted");  // seems never reached
-            }
-        } else {
-            baseTimeMs -= delay;  // get current time
-            // Log.i(TAG, "time: cmp t="+Long.toString(SystemClock.uptimeMillis())
-            //            + " v.s. t'=" + Long.toString(baseTimeMs));
+    // Pull samples from the audio source into the rings, and nothing else,
+    // so that a slow analysis or disk write does not cause recorder overrun.
+    private class CaptureThread extends Thread {
+        private final AudioSource source;
+        private final RecorderMonitor recorderMonitor;
+        private final short[] buf;
+        private volatile boolean isCapturing = true;
+
+        CaptureThread(AudioSource source, RecorderMonitor recorderMonitor, int readChunkSize) {
+            super("CaptureThread");
+            this.source = source;
+            this.recorderMonitor = recorderMonitor;
+            buf = new short[readChunkSize];
         }
-    }
 
-    private double[] mdata;
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+            if (bufferPool != null) {
+                runDirect((DirectAudioSource) source);
+                return;
+            }
+            SampleRing ringA = analysisRing;
+            SampleRing ringR = recordRing;
+            int numOfReadShort;
+            while (isCapturing) {
+                numOfReadShort = source.read(buf, 0, buf.length);
+                if (numOfReadShort < 0) {
+                    Log.i(TAG, "CaptureThread: end of " + source.getName() + " (" + numOfReadShort + ")");
+                    break;
+                }
+                if (isBenchmark) {
+                    // Not paced, so wait for the consumers instead of dropping samples.
+                    if (!waitForSpace(ringA, numOfReadShort) || !waitForSpace(ringR, numOfReadShort)) {
+                        break;
+                    }
+                } else if (isRealtime && recorderMonitor.updateState(numOfReadShort)) {  // performed a check
+                    if (recorderMonitor.getLastCheckOverrun())
+                        activity.analyzerViews.notifyOverrun();
+                }
+                if (numOfReadShort <= 0) {
+                    continue;
+                }
+                ringA.write(buf, 0, numOfReadShort);
+                if (ringR != null) {
+                    ringR.write(buf, 0, numOfReadShort);
+                }
+            }
+        }
 
-    // Generate test data.
-    private int readTestData(short[] a, int offsetInShorts, int sizeInShorts, int id) {
-        if (mdata == null || mdata.length != sizeInShorts) {
-            mdata = new double[sizeInShorts];
+        // Zero-copy version of run(): read into pooled buffers, which go to the
+        // analysis and the wav writer as they are.
+        private void runDirect(DirectAudioSource src) {
+            AudioBufferPool pool = bufferPool;
+            ArrayBlockingQueue<AudioBufferPool.Buffer> queueA = analysisQueue;
+            AsyncWavWriter writer = isRecordDirect ? asyncWavWriter : null;
+            int nUsers = writer == null ? 1 : 2;
+            int channels = src.getChannels();
+            int bytesPerSample = pool.getBytesPerSample();
+            int sizeInBytes = bytesPerSample * pool.getBufferCapacity();
+            // Samples are still read (and then dropped) when consumers are behind.
+            ByteBuffer spare = ByteBuffer.allocateDirect(sizeInBytes).order(ByteOrder.nativeOrder());
+            while (isCapturing) {
+                AudioBufferPool.Buffer b = pool.obtain(nUsers);
+                int numOfReadBytes = src.read(b == null ? spare : b.bytes, sizeInBytes);
+                if (numOfReadBytes < 0) {
+                    // Check before dividing, small error codes would become 0.
+                    Log.i(TAG, "CaptureThread: end of " + source.getName() + " (" + numOfReadBytes + ")");
+                    if (b != null) {
+                        for (int i = 0; i < nUsers; i++) {
+                            b.release();
+                        }
+                    }
+                    break;
+                }
+                int numOfReadShort = numOfReadBytes / bytesPerSample;
+                if (recorderMonitor.updateState(numOfReadShort / channels)) {  // performed a check
+                    if (recorderMonitor.getLastCheckOverrun())
+                        activity.analyzerViews.notifyOverrun();
+                }
+                if (b == null) {
+                    directDroppedSamples += numOfReadShort / channels;
+                    continue;
+                }
+                if (numOfReadShort == 0) {
+                    for (int i = 0; i < nUsers; i++) {
+                        b.release();
+                    }
+                    continue;
+                }
+                b.setSize(numOfReadShort);
+                queueA.add(b);  // never full, since it is as large as the pool
+                if (writer != null) {
+                    writer.submitBuffer(b);
+                }
+            }
         }
-        Arrays.fill(mdata, 0.0);
-        switch (id - 1000) {
-            case 1:
-                sineGen2.getSamples(mdata);
-                // No break, so values of mdata added.
-            case 0:
-                sineGen1.addSamples(mdata);
-                for (int i = 0; i < sizeInShorts; i++) {
-                    a[offsetInShorts + i] = (short) Math.round(mdata[i]);
+
+        // Return false if interrupted or finished while waiting.
+        private boolean waitForSpace(SampleRing ring, int n) {
+            while (ring != null && ring.capacity() - ring.occupancy() < n) {
+                if (!isCapturing) {
+                    return false;
                 }
-                break;
-            case 2:
-                for (int i = 0; i < sizeInShorts; i++) {
-                    a[i] = (short) (analyzerParam.SAMPLE_VALUE_MAX * (2.0*Math.random() - 1));
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return false;
                 }
-                break;
-            default:
-                Log.w(TAG, "readTestData(): No this source id = " + analyzerParam.audioSourceId);
+            }
+            return true;
+        }
+
+        void finish() {
+            isCapturing = false;
         }
-        // Block this thread, so that behave as if read from real device.
-        LimitFrameRate(1000.0*sizeInShorts / analyzerParam.sampleRate);
-        return sizeInShorts;
+    }
+
+    // The source selected by analyzerParam.audioSourceId.
+    private AudioSource createAudioSource(int bufferSampleSize) {
+        int id = analyzerParam.audioSourceId;
+        String name = analyzerParam.getAudioSourceName();
+        if (id < 1000) {
+            // Use the mic with AGC turned off. e.g. VOICE_RECOGNITION for measurement
+            // The buffer size here seems not relate to the delay.
+            // So choose a larger size (~1sec) so that overrun is unlikely.
+            return new AudioRecordSource(id, analyzerParam.sampleRate, bufferSampleSize, name,
+                    analyzerParam.isFloatCapture, analyzerParam.channels);
+        } else if (id == AnalyzerParameters.SOURCE_WAV_FILE) {
+            return new WavFileSource(new File(analyzerParam.replayFile), !isBenchmark, true);
+        } else if (id == AnalyzerParameters.SOURCE_PCM_SOCKET) {
+            return PcmSocketSource.fromAddress(analyzerParam.pcmSocketAddress, analyzerParam.sampleRate);
+        }
+        if (testSignal == null) {
+            throw new IllegalArgumentException("No this source id = " + id);
+        }
+        return new TestSignalSource(analyzerParam.sampleRate, testSignal, !isBenchmark, name);
     }
 
     @Override
     public void run() {
-        AudioRecord record;
-
-        activity.analyzerViews.setupView(analyzerParam);
         // Wait until previous instance of AudioRecord fully released.
         SleepWithoutInterrupt(500);
 
-        int minBytes = AudioRecord.getMinBufferSize(analyzerParam.sampleRate, AudioFormat.CHANNEL_IN_MONO,
-                AudioFormat.ENCODING_PCM_16BIT);
+        int minBytes = AudioRecordSource.getMinBufferSize(analyzerParam.sampleRate);
         if (minBytes == AudioRecord.ERROR_BAD_VALUE) {
-            Log.e(TAG, "SamplingLoop::run(): Invalid AudioRecord parameter.\n");
-            return;
+            if (isRealtime) {
+                Log.e(TAG, "SamplingLoop::run(): Invalid AudioRecord parameter.\n");
+                return;
+            }
+            minBytes = 0;
         }
 
         /**
@@ -144,125 +281,375 @@ class SamplingLoop extends Thread {
          *    inferior to the total recording buffer size.
          */
         // Determine size of buffers for AudioRecord and AudioRecord::read()
-        int readChunkSize    = analyzerParam.fftLen/2;  // /2 due to overlapped analyze window
+        int hopLen           = analyzerParam.getHopLen();
+        int readChunkSize    = hopLen;  // one new FFT per read
         readChunkSize        = Math.min(readChunkSize, 2048);  // read in a smaller chunk, hopefully smaller delay
-        int bufferSampleSize = Math.max(minBytes / analyzerParam.BYTE_OF_SAMPLE, analyzerParam.fftLen/2) * 2;
+        int bufferSampleSize = Math.max(minBytes / analyzerParam.BYTE_OF_SAMPLE, hopLen) * 2;
         // tolerate up to about 1 sec.
         bufferSampleSize = (int)Math.ceil(1.0 * analyzerParam.sampleRate / bufferSampleSize) * bufferSampleSize;
 
-        // Use the mic with AGC turned off. e.g. VOICE_RECOGNITION for measurement
-        // The buffer size here seems not relate to the delay.
-        // So choose a larger size (~1sec) so that overrun is unlikely.
-        if (analyzerParam.audioSourceId < 1000) {
-            record = new AudioRecord(analyzerParam.audioSourceId, analyzerParam.sampleRate, AudioFormat.CHANNEL_IN_MONO,
-                    AudioFormat.ENCODING_PCM_16BIT, analyzerParam.BYTE_OF_SAMPLE * bufferSampleSize);
-        } else {
-            record = new AudioRecord(analyzerParam.RECORDER_AGC_OFF, analyzerParam.sampleRate, AudioFormat.CHANNEL_IN_MONO,
-                    AudioFormat.ENCODING_PCM_16BIT, analyzerParam.BYTE_OF_SAMPLE * bufferSampleSize);
+        AudioSource source;
+        try {
+            source = createAudioSource(bufferSampleSize);
+            source.open();
+        } catch (IOException e) {
+            // If failed somehow, leave user a chance to change preference.
+            Log.e(TAG, "SamplingLoop::run(): Fail to open audio source: " + e);
+            return;
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "SamplingLoop::run(): Invalid audio source setting: " + e);
+            return;
         }
+        int requestedSampleRate = analyzerParam.sampleRate;
+        analyzerParam.sampleRate = source.getSampleRate();
+        boolean isFloatSource = source instanceof DirectAudioSource && ((DirectAudioSource) source).isFloat();
+        int channels = source.getChannels();
         Log.i(TAG, "SamplingLoop::Run(): Starting recorder... \n" +
-                "  source          : " + analyzerParam.getAudioSourceName() + "\n" +
-                String.format("  sample rate     : %d Hz (request %d Hz)\n", record.getSampleRate(), analyzerParam.sampleRate) +
+                "  source          : " + source.getName() + "\n" +
+                "  sample format   : " + (isFloatSource ? "float" : "16-bit") + ", " + channels + " channel(s)\n" +
+                String.format("  sample rate     : %d Hz (request %d Hz)\n", analyzerParam.sampleRate, requestedSampleRate) +
                 String.format("  min buffer size : %d samples, %d Bytes\n", minBytes / analyzerParam.BYTE_OF_SAMPLE, minBytes) +
                 String.format("  buffer size     : %d samples, %d Bytes\n", bufferSampleSize, analyzerParam.BYTE_OF_SAMPLE*bufferSampleSize) +
                 String.format("  read chunk size : %d samples, %d Bytes\n", readChunkSize, analyzerParam.BYTE_OF_SAMPLE*readChunkSize) +
                 String.format("  FFT length      : %d\n", analyzerParam.fftLen) +
+                String.format("  hop length      : %d\n", hopLen) +
                 String.format("  nFFTAverage     : %d\n", analyzerParam.nFFTAverage));
-        analyzerParam.sampleRate = record.getSampleRate();
 
-        if (record.getState() == AudioRecord.STATE_UNINITIALIZED) {
-            Log.e(TAG, "SamplingLoop::run(): Fail to initialize AudioRecord()");
-            // If failed somehow, leave user a chance to change preference.
-            return;
-        }
+        activity.analyzerViews.setupView(analyzerParam);
 
         short[] audioSamples = new short[readChunkSize];
         int numOfReadShort;
 
-        stft = new STFT(analyzerParam.fftLen, analyzerParam.sampleRate, analyzerParam.wndFuncName);
-        stft.setAWeighting(analyzerParam.isAWeighting);
-        if (spectrumDBcopy == null || spectrumDBcopy.length != analyzerParam.fftLen/2+1) {
-            spectrumDBcopy = new double[analyzerParam.fftLen/2+1];
+        // Each consumer has its own ring, so that they run independently. ~2 sec each.
+        int ringSize = Math.max(bufferSampleSize, analyzerParam.sampleRate) * 2;
+        // Float or multichannel samples only go through the pooled buffers, the rings are 16-bit mono.
+        boolean isDirect = source instanceof DirectAudioSource
+                && (isFloatSource || channels > 1 || analyzerParam.isZeroCopyCapture);
+        boolean bSaveWavLoop = activity.bSaveWav;  // change of bSaveWav during loop will only affect next enter.
+        AudioFileWriter wavWriter;
+        if (analyzerParam.recordSegmentMinutes > 0 || analyzerParam.recordSegmentMB > 0) {
+            SegmentedWriter w = new SegmentedWriter(analyzerParam.sampleRate, channels, analyzerParam.isRecordFlac,
+                    analyzerParam.recordBitsPerSample,
+                    analyzerParam.recordSegmentMinutes * 60, analyzerParam.recordSegmentMB,
+                    analyzerParam.recordRetentionHours, analyzerParam.recordRetentionMB);
+            w.setHeaderCommitInterval(analyzerParam.recordHeaderCommitSeconds);
+            wavWriter = w;
+        } else if (analyzerParam.isRecordFlac) {
+            wavWriter = new FlacWriter(analyzerParam.sampleRate, channels);
+        } else {
+            WavWriter w = new WavWriter(analyzerParam.sampleRate, analyzerParam.recordBitsPerSample, channels);
+            w.setHeaderCommitInterval(analyzerParam.recordHeaderCommitSeconds);
+            wavWriter = w;
+        }
+        recCompressionRatio = 0;
+        recEncodeSpeed = 0;
+        // Write in background, buffer up to ~4 sec of audio.
+        int wavBlockSize = Math.max(readChunkSize, 4096);
+        if (isDirect) {
+            // Blocks only carry the pooled buffers, one per read.
+            asyncWavWriter = new AsyncWavWriter(wavWriter, analyzerParam.sampleRate, channels,
+                    1, (int)Math.ceil(4.0 * analyzerParam.sampleRate / readChunkSize));
+        } else {
+            // The writer thread reads the record ring by itself, the capture thread is the only producer.
+            // Twice the analysis ring, i.e. ~4 sec as in zero-copy mode.
+            recordRing = bSaveWavLoop ? new SampleRing(2 * ringSize) : null;
+            asyncWavWriter = new AsyncWavWriter(wavWriter, analyzerParam.sampleRate, channels,
+                    recordRing, wavBlockSize);
+        }
+        if (bSaveWavLoop) {
+            if (asyncWavWriter.start()) {
+                wavSecRemain = wavWriter.secondsLeft();
+                wavSec = 0;
+                Log.i(TAG, "PCM write to file " + wavWriter.getPath());
+            } else {
+                // e.g. storage not mounted, or the file can not be created.
+                Log.e(TAG, "SamplingLoop::run(): Fail to start recording in " + wavWriter.getRelativeDir());
+                bSaveWavLoop = false;
+                recordRing = null;
+                activity.analyzerViews.notifyRecordFailed(wavWriter.getRelativeDir());
+            }
+        }
+        if (isDirect) {
+            // ~2 sec for analysis and ~4 sec for the wav writer, as with the rings.
+            int nBuffers = (int)Math.ceil((double)ringSize / readChunkSize)
+                    + (bSaveWavLoop ? (int)Math.ceil(4.0 * analyzerParam.sampleRate / readChunkSize) : 0);
+            bufferPool = new AudioBufferPool(nBuffers, readChunkSize * channels, isFloatSource);
+            analysisQueue = new ArrayBlockingQueue<AudioBufferPool.Buffer>(nBuffers);
+            isRecordDirect = bSaveWavLoop;
+            directDroppedSamples = 0;
+        } else {
+            bufferPool = null;
+            analysisQueue = null;
+            analysisRing = new SampleRing(ringSize);
         }
 
+        spectrumAnalyzer = new SpectrumAnalyzer(analyzerParam.fftLen, hopLen, analyzerParam.sampleRate,
+                analyzerParam.wndFuncName, analyzerParam.isSinglePrecision, channels);
+        spectrumAnalyzer.setAWeighting(analyzerParam.isAWeighting);
+        // The views show one channel, the others are in spectrumAnalyzer.getSpectrumDB(channel) etc.
+        int displayChannel = Math.min(analyzerParam.displayChannel, channels - 1);
+        spectrumAnalyzer.selectChannel(displayChannel);
+
         RecorderMonitor recorderMonitor = new RecorderMonitor(analyzerParam.sampleRate, bufferSampleSize, "SamplingLoop::run()");
         recorderMonitor.start();
 
 //      FPSCounter fpsCounter = new FPSCounter("SamplingLoop::run()");
 
-        WavWriter wavWriter = new WavWriter(analyzerParam.sampleRate);
-        boolean bSaveWavLoop = activity.bSaveWav;  // change of bSaveWav during loop will only affect next enter.
-        if (bSaveWavLoop) {
-            wavWriter.start();
-            wavSecRemain = wavWriter.secondsLeft();
-            wavSec = 0;
-            Log.i(TAG, "PCM write to file " + wavWriter.getPath());
+        SpectrogramWriter spectrogramWriter = openSpectrogramWriter(hopLen);
+        long nSamplesRead = 0;   // per channel, including those not analysed (paused)
+        int preTriggerEventsSaved = 0;
+        if (analyzerParam.preTriggerSeconds > 0) {
+            preTriggerRecorder = new PreTriggerRecorder(analyzerParam.sampleRate,
+                    analyzerParam.preTriggerSeconds, analyzerParam.postTriggerSeconds, wavBlockSize);
+            preTriggerRecorder.start();
         }
 
         // Start recording
-        record.startRecording();
+        CaptureThread captureThread = new CaptureThread(source, recorderMonitor, readChunkSize);
+        captureThread.start();
 
         // Main loop
         // When running in this loop (including when paused), you can not change properties
         // related to recorder: e.g. audioSourceId, sampleRate, bufferSampleSize
         // TODO: allow change of FFT length on the fly.
+        long nDropped = 0;
+        int wavSecLastCheck = 0;
+        long benchT0 = System.nanoTime();
+        long benchT1 = benchT0;
+        long benchSamples = 0, benchFrames = 0;      // since start
+        long benchSamples1 = 0, benchFrames1 = 0;    // at benchT1
+        AudioBufferPool.Buffer buffer = null;        // zero-copy: samples in analysis
         while (isRunning) {
-            // Read data
-            if (analyzerParam.audioSourceId >= 1000) {
-                numOfReadShort = readTestData(audioSamples, 0, readChunkSize, analyzerParam.audioSourceId);
+            if (buffer != null) {
+                buffer.release();
+                buffer = null;
+            }
+            // Read data, wait at most 100 ms so that finish() is noticed.
+            if (isDirect) {
+                try {
+                    buffer = analysisQueue.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    buffer = null;
+                }
+                numOfReadShort = buffer == null ? 0 : buffer.size / channels;   // per channel
+                if (buffer != null && preTriggerRecorder != null) {  // pre-trigger recording is 16-bit, displayed channel
+                    if (buffer.isFloat) {
+                        for (int i = 0; i < numOfReadShort; i++) {
+                            audioSamples[i] = WavWriter.toShort(buffer.floats.get(i * channels + displayChannel));
+                        }
+                    } else if (channels > 1) {
+                        for (int i = 0; i < numOfReadShort; i++) {
+                            audioSamples[i] = buffer.shorts.get(i * channels + displayChannel);
+                        }
+                    } else {
+                        buffer.shorts.position(0);
+                        buffer.shorts.get(audioSamples, 0, numOfReadShort);
+                    }
+                }
             } else {
-                numOfReadShort = record.read(audioSamples, 0, readChunkSize);   // pulling
+                numOfReadShort = analysisRing.read(audioSamples, 0, readChunkSize, 100);
             }
-            if ( recorderMonitor.updateState(numOfReadShort) ) {  // performed a check
-                if (recorderMonitor.getLastCheckOverrun())
-                    activity.analyzerViews.notifyOverrun();
-                if (bSaveWavLoop)
-                    wavSecRemain = wavWriter.secondsLeft();
+            nSamplesRead += numOfReadShort;
+            if (preTriggerRecorder != null) {
+                if (numOfReadShort > 0) {
+                    preTriggerRecorder.push(audioSamples, numOfReadShort);
+                }
+                if (preTriggerRecorder.getEventsSaved() != preTriggerEventsSaved) {
+                    preTriggerEventsSaved = preTriggerRecorder.getEventsSaved();
+                    activity.analyzerViews.notifyWAVSaved(preTriggerRecorder.getRelativeDir());
+                }
             }
-            if (bSaveWavLoop) {
-                wavWriter.pushAudioShort(audioSamples, numOfReadShort);  // Maybe move this to another thread?
-                wavSec = wavWriter.secondsWritten();
+            // The writer gets the samples from the capture thread, here only the progress is shown.
+            if (bSaveWavLoop && numOfReadShort > 0) {
+                wavSec = asyncWavWriter.secondsWritten();
                 activity.analyzerViews.updateRec(wavSec);
+                if ((int)wavSec - wavSecLastCheck >= 2) {
+                    wavSecLastCheck = (int)wavSec;
+                    wavSecRemain = asyncWavWriter.secondsLeft();
+                    AudioFileWriter w = wavWriter;
+                    if (w instanceof SegmentedWriter) {
+                        w = ((SegmentedWriter) w).getCurrentWriter();
+                    }
+                    if (w instanceof FlacWriter) {
+                        recCompressionRatio = ((FlacWriter) w).getCompressionRatio();
+                        recEncodeSpeed = ((FlacWriter) w).getEncodeSpeed();
+                    }
+                }
             }
-            if (isPaused1) {
+            long d = (isDirect ? directDroppedSamples : analysisRing.getDroppedSamples()
+                    + (bSaveWavLoop ? recordRing.getDroppedSamples() : 0))
+                    + (bSaveWavLoop ? asyncWavWriter.getDroppedBlocks() : 0);
+            if (d != nDropped) {
+                Log.w(TAG, "SamplingLoop::run(): sample ring overflow or wav writer too slow.");
+                nDropped = d;
+                activity.analyzerViews.notifyOverrun();
+            }
+            if (isPaused1 || numOfReadShort == 0) {
 //          fpsCounter.inc();
-                // keep reading data, for overrun checker and for write wav data
+                // keep reading data, for write wav data
                 continue;
             }
 
-            stft.feedData(audioSamples, numOfReadShort);
-
             // If there is new spectrum data, do plot
-            if (stft.nElemSpectrumAmp() >= analyzerParam.nFFTAverage) {
-                // Update spectrum or spectrogram
-                final double[] spectrumDB = stft.getSpectrumAmpDB();
-                System.arraycopy(spectrumDB, 0, spectrumDBcopy, 0, spectrumDB.length);
-                activity.analyzerViews.update(spectrumDBcopy);
+            benchSamples += numOfReadShort;
+            boolean isNewSpectrum;
+            if (buffer == null) {
+                isNewSpectrum = spectrumAnalyzer.feedData(audioSamples, numOfReadShort, analyzerParam.nFFTAverage);
+            } else if (buffer.isFloat) {
+                isNewSpectrum = spectrumAnalyzer.feedData(buffer.floats, numOfReadShort, analyzerParam.nFFTAverage);
+            } else {
+                isNewSpectrum = spectrumAnalyzer.feedData(buffer.shorts, numOfReadShort, analyzerParam.nFFTAverage);
+            }
+            if (isNewSpectrum) {
+                benchFrames++;
+                // Update spectrum or spectrogram, peak and RMS
+                activity.analyzerViews.update(spectrumAnalyzer);
+                if (spectrogramWriter != null) {
+                    try {
+                        // Position in the stream of the end of the last frame: samples dropped
+                        // before analysis count too, so that pause and overflow show up as gaps.
+                        long samplePos = nSamplesRead
+                                + (isDirect ? directDroppedSamples : analysisRing.getDroppedSamples())
+                                - spectrumAnalyzer.getSTFT().getSamplesAfterLastFrame();
+                        spectrogramWriter.addFrame(spectrumAnalyzer.getSpectrumDB(), samplePos);
+                    } catch (IOException e) {
+                        Log.w(TAG, "SamplingLoop::run(): Error writing spectrogram, stop recording it.", e);
+                        closeSpectrogramWriter(spectrogramWriter);
+                        spectrogramWriter = null;
+                    }
+                }
+                if (preTriggerRecorder != null && analyzerParam.preTriggerAutoDB < 0
+                        && 20 * Math.log10(spectrumAnalyzer.dtRMS) >= analyzerParam.preTriggerAutoDB) {
+                    preTriggerRecorder.trigger();
+                }
 //          fpsCounter.inc();
-
-                stft.calculatePeak();
-                activity.maxAmpFreq = stft.maxAmpFreq;
-                activity.maxAmpDB = stft.maxAmpDB;
-
-                // get RMS
-                activity.dtRMS = stft.getRMS();
-                activity.dtRMSFromFT = stft.getRMSFromFT();
+            }
+            if (isBenchmark) {
+                long t = System.nanoTime();
+                if (t - benchT1 >= 2000000000L) {
+                    Log.i(TAG, "SamplingLoop::run(): Benchmark: " + benchmarkResult(
+                            benchSamples - benchSamples1, benchFrames - benchFrames1, t - benchT1));
+                    benchT1 = t;
+                    benchSamples1 = benchSamples;
+                    benchFrames1 = benchFrames;
+                }
             }
         }
+        if (isBenchmark && benchSamples > 0) {
+            String result = benchmarkResult(benchSamples, benchFrames, System.nanoTime() - benchT0);
+            Log.i(TAG, "SamplingLoop::run(): Benchmark (sustained): " + result);
+            activity.analyzerViews.notifyBenchmark("Benchmark\n" + result);
+        }
+        if (buffer != null) {
+            buffer.release();
+        }
+        captureThread.finish();
+        if (spectrogramWriter != null) {
+            Log.i(TAG, "SamplingLoop::Run(): Spectrogram frames recorded: " + spectrogramWriter.getFrameCount()
+                    + ", dropped " + spectrogramWriter.getDroppedFrameCount());
+            closeSpectrogramWriter(spectrogramWriter);
+        }
+        if (preTriggerRecorder != null) {
+            preTriggerRecorder.stop();
+            if (preTriggerRecorder.getEventsSaved() != preTriggerEventsSaved) {
+                activity.analyzerViews.notifyWAVSaved(preTriggerRecorder.getRelativeDir());
+            }
+        }
+        Thread.interrupted();  // clear the flag set by finish(), so that join() waits
+        try {
+            captureThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
         Log.i(TAG, "SamplingLoop::Run(): Actual sample rate: " + recorderMonitor.getSampleRate());
+        if (isDirect) {
+            Log.i(TAG, "SamplingLoop::Run(): Zero-copy buffers: " + bufferPool.getFreeCount() + " free"
+                    + ", pool exhausted " + bufferPool.getExhaustedCount() + " times"
+                    + ", dropped " + directDroppedSamples);
+        } else {
+            Log.i(TAG, "SamplingLoop::Run(): Analysis ring: capacity " + analysisRing.capacity()
+                    + ", high water mark " + analysisRing.getHighWaterMark()
+                    + ", dropped " + analysisRing.getDroppedSamples());
+        }
         Log.i(TAG, "SamplingLoop::Run(): Stopping and releasing recorder.");
-        record.stop();
-        record.release();
+        source.close();
+        if (bSaveWavLoop && !isDirect) {
+            Log.i(TAG, "SamplingLoop::Run(): Record ring: capacity " + recordRing.capacity()
+                    + ", high water mark " + recordRing.getHighWaterMark()
+                    + ", dropped " + recordRing.getDroppedSamples());
+        }
         if (bSaveWavLoop) {
             Log.i(TAG, "SamplingLoop::Run(): Ending saved wav.");
-            wavWriter.stop();
-            activity.analyzerViews.notifyWAVSaved(wavWriter.relativeDir);
+            asyncWavWriter.stop();
+            activity.analyzerViews.notifyWAVSaved(wavWriter.getRelativeDir());
+        }
+    }
+
+    // Analysis speed, for benchmark mode.
+    private String benchmarkResult(long nSamples, long nFrames, long ns) {
+        double sec = ns * 1e-9;
+        return String.format("%.1f frames/s, %.0f samples/s, %.1fx realtime (fftLen %d, hop %d, average %d)",
+                nFrames / sec, nSamples / sec, nSamples / sec / analyzerParam.sampleRate,
+                analyzerParam.fftLen, analyzerParam.getHopLen(), analyzerParam.nFFTAverage);
+    }
+
+    // Record spectrogram (quantized dB) to file, if enabled. null if disabled or failed.
+    private SpectrogramWriter openSpectrogramWriter(int hopLen) {
+        if (analyzerParam.spectrogramRecordBytes <= 0 || !WavWriter.isExternalStorageWritable()) {
+            return null;
+        }
+        File path = new File(Environment.getExternalStorageDirectory().getPath() + "/Recorder");
+        path.mkdirs();
+        File f = new File(path, WavWriter.timeStampedName(".spg"));
+        try {
+            SpectrogramWriter w = new SpectrogramWriter(f, analyzerParam.sampleRate, analyzerParam.fftLen,
+                    hopLen * analyzerParam.nFFTAverage, analyzerParam.fftLen / 2 + 1,
+                    analyzerParam.spectrogramRecordBytes, AnalyzerGraphic.minDB, AnalyzerGraphic.maxDB, 64, 4);
+            Log.i(TAG, "Spectrogram write to file " + f.getPath());
+            return w;
+        } catch (IOException e) {
+            Log.w(TAG, "openSpectrogramWriter(): Error creating " + f, e);
+            return null;
         }
     }
 
+    private void closeSpectrogramWriter(SpectrogramWriter w) {
+        try {
+            w.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Error closing spectrogram file", e);
+        }
+    }
+
+    // Save the last preTriggerSeconds and the following postTriggerSeconds of audio.
+    // Return false if pre-trigger recording is not enabled.
+    boolean triggerPreRecord() {
+        PreTriggerRecorder r = preTriggerRecorder;
+        if (r == null) {
+            return false;
+        }
+        r.trigger();
+        return true;
+    }
+
+    // Ring between capture and analysis, for occupancy and overflow metrics.
+    SampleRing getAnalysisRing() {
+        return analysisRing;
+    }
+
+    // Ring between capture and wav writer, null if not saving.
+    SampleRing getRecordRing() {
+        return recordRing;
+    }
+
+    // For queue depth, write latency and dropped block counters.
+    AsyncWavWriter getAsyncWavWriter() {
+        return asyncWavWriter;
+    }
+
     void setAWeighting(boolean isAWeighting) {
-        if (stft != null) {
-            stft.setAWeighting(isAWeighting);
+        if (spectrumAnalyzer != null) {
+            spectrumAnalyzer.setAWeighting(isAWeighting);
         }
     }
 
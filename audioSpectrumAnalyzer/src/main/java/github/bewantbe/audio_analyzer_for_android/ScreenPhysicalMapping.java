@@ -120,7 +120,9 @@ class ScreenPhysicalMapping {
 //    }
 
     private float pixelFromVLog(float v, float zoom, float shift) {
-        return ((float)log(v/vLowerBound) / (float)log(vUpperBound /vLowerBound) - shift) * zoom * nCanvasPixel;
+        // called for every frequency point when drawing spectrum in log scale
+        DspMath.Precision prec = DspMath.getPrecision();
+        return ((float)DspMath.ln(v/vLowerBound, prec) / (float)DspMath.ln(vUpperBound /vLowerBound, prec) - shift) * zoom * nCanvasPixel;
     }
 
     private float vLogFromPixel(float pixel, float zoom, float shift) {
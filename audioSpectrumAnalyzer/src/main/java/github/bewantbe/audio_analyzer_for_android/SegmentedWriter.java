@@ -0,0 +1,324 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Locale;
+
+import android.util.Log;
+
+/**
+ * Record to a series of WAV/FLAC files, starting a new one every segmentSeconds
+ * or segmentBytes. Samples are split exactly at the boundary (of sample frames), so none is lost.
+ * Each segment is listed in INDEX_FILE_NAME in the record directory, one line per segment:
+ *   file name, start sample (counted from the start of this recording), sample rate,
+ *   start time of this recording (wall clock, e.g. 2017-01-31T08:30:00.000+0800)
+ * The index is shared by all recordings, the last column tells which one a line belongs to.
+ * After each rollover the oldest listed segments are deleted if older than
+ * retentionSeconds or if all listed segments exceed retentionBytes.
+ * Rollover and pruning happen in pushAudioShort(), i.e. in the writer thread of AsyncWavWriter.
+ */
+
+class SegmentedWriter implements AudioFileWriter {
+  static final String TAG = "SegmentedWriter";
+  static final String INDEX_FILE_NAME = "segments.txt";
+  final String relativeDir = "/Recorder";   // same as WavWriter and FlacWriter
+
+  private final int sampleRate;
+  private final int channels;          // samples are interleaved
+  private final boolean isFlac;
+  private final int bitsPerSample;     // of WAV segments, see WavWriter
+  private final long segmentFrames;    // 0 for no limit
+  private final long segmentBytes;     // 0 for no limit
+  private final long retentionMs;      // 0 for no limit
+  private final long retentionBytes;   // 0 for no limit
+  private double headerCommitSeconds = WavWriter.DEFAULT_HEADER_COMMIT_INTERVAL;
+
+  private volatile AudioFileWriter current;
+  private File currentFile;
+  private File indexFile;
+  private long framesInSegment = 0;
+  private volatile long framesTotal = 0;
+  private String sessionStart;         // wall clock time of start(), for the index
+  private short[] tail = new short[0];  // for the part of a push after the boundary
+  private int nSegments = 0;
+
+  SegmentedWriter(int sampleRate, int channels, boolean isFlac, int bitsPerSample, double segmentSeconds,
+                  double segmentMB, double retentionHours, double retentionMB) {
+    this.sampleRate     = sampleRate;
+    this.channels       = channels;
+    this.isFlac         = isFlac;
+    this.bitsPerSample  = bitsPerSample;
+    this.segmentFrames  = (long) Math.max(0, segmentSeconds * sampleRate);
+    this.segmentBytes   = (long) Math.max(0, segmentMB * 1e6);
+    this.retentionMs    = (long) Math.max(0, retentionHours * 3600e3);
+    this.retentionBytes = (long) Math.max(0, retentionMB * 1e6);
+  }
+
+  private AudioFileWriter newWriter() {
+    if (isFlac) {
+      return new FlacWriter(sampleRate, channels);
+    }
+    WavWriter w = new WavWriter(sampleRate, bitsPerSample, channels);
+    w.setHeaderCommitInterval(headerCommitSeconds);
+    return w;
+  }
+
+  // For WAV segments started after this call, see WavWriter.setHeaderCommitInterval().
+  void setHeaderCommitInterval(double seconds) {
+    headerCommitSeconds = seconds;
+  }
+
+  public boolean start() {
+    framesInSegment = 0;
+    framesTotal = 0;
+    nSegments = 0;
+    sessionStart = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ", Locale.US).format(new Date());
+    return startSegment();
+  }
+
+  private boolean startSegment() {
+    AudioFileWriter w = newWriter();
+    if (!w.start()) {
+      return false;
+    }
+    current = w;
+    currentFile = new File(w.getPath());
+    indexFile = new File(currentFile.getParentFile(), INDEX_FILE_NAME);
+    appendIndex(currentFile.getName() + "\t" + framesTotal + "\t" + sampleRate + "\t" + sessionStart + "\n");
+    nSegments++;
+    return true;
+  }
+
+  public void stop() {
+    if (current == null) {
+      return;
+    }
+    current.stop();
+    prune();
+    Log.i(TAG, "stop(): " + nSegments + " segment(s), " + framesTotal + " samples.");
+  }
+
+  public void pushAudioShort(short[] ss, int numOfReadShort) {
+    if (current == null) {
+      return;
+    }
+    int i = 0;
+    while (i < numOfReadShort) {
+      int n = numOfReadShort - i;
+      if (segmentFrames > 0) {
+        n = (int) Math.min(n, (segmentFrames - framesInSegment) * channels);
+      }
+      if (i == 0) {
+        current.pushAudioShort(ss, n);
+      } else {
+        if (tail.length < n) {
+          tail = new short[ss.length];
+        }
+        System.arraycopy(ss, i, tail, 0, n);
+        current.pushAudioShort(tail, n);
+      }
+      i += n;
+      framesInSegment += n / channels;
+      framesTotal += n / channels;
+      if ((segmentFrames > 0 && framesInSegment >= segmentFrames)
+          || (segmentBytes > 0 && current.bytesWritten() >= segmentBytes)) {
+        rollover();
+        if (current == null) {
+          return;
+        }
+      }
+    }
+  }
+
+  public void pushAudioBuffer(ByteBuffer buf) {
+    pushBuffer(buf, false);
+  }
+
+  public void pushAudioFloat(ByteBuffer buf) {
+    pushBuffer(buf, true);
+  }
+
+  private void pushBuffer(ByteBuffer buf, boolean isFloat) {
+    if (current == null) {
+      return;
+    }
+    int bytesPerSample = isFloat ? 4 : 2;
+    int numOfReadShort = buf.remaining() / bytesPerSample;
+    int i = 0;
+    while (i < numOfReadShort) {
+      int n = numOfReadShort - i;
+      if (segmentFrames > 0) {
+        n = (int) Math.min(n, (segmentFrames - framesInSegment) * channels);
+      }
+      ByteBuffer part = buf;
+      if (n != numOfReadShort) {
+        part = buf.duplicate().order(buf.order());
+        part.position(buf.position() + bytesPerSample * i);
+        part.limit(part.position() + bytesPerSample * n);
+      }
+      if (isFloat) {
+        current.pushAudioFloat(part);
+      } else {
+        current.pushAudioBuffer(part);
+      }
+      i += n;
+      framesInSegment += n / channels;
+      framesTotal += n / channels;
+      if ((segmentFrames > 0 && framesInSegment >= segmentFrames)
+          || (segmentBytes > 0 && current.bytesWritten() >= segmentBytes)) {
+        rollover();
+        if (current == null) {
+          return;
+        }
+      }
+    }
+  }
+
+  private void rollover() {
+    current.stop();
+    framesInSegment = 0;
+    if (!startSegment()) {
+      Log.w(TAG, "rollover(): Fail to start new segment after " + currentFile + ", recording stopped.");
+      current = null;
+      return;
+    }
+    prune();
+  }
+
+  private void appendIndex(String line) {
+    FileWriter fw = null;
+    try {
+      fw = new FileWriter(indexFile, true);
+      fw.write(line);
+    } catch (IOException e) {
+      Log.w(TAG, "appendIndex(): Error writing " + indexFile, e);
+    } finally {
+      closeQuietly(fw);
+    }
+  }
+
+  // Delete old segments according to the retention policy, and drop index
+  // lines of files that no longer exist.
+  private void prune() {
+    if (indexFile == null || !indexFile.exists()) {
+      return;
+    }
+    ArrayList<String> lines = new ArrayList<String>();
+    BufferedReader br = null;
+    try {
+      br = new BufferedReader(new FileReader(indexFile));
+      String line;
+      while ((line = br.readLine()) != null) {
+        lines.add(line);
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "prune(): Error reading " + indexFile, e);
+      return;
+    } finally {
+      closeQuietly(br);
+    }
+    File dir = indexFile.getParentFile();
+    long totalBytes = 0;
+    ArrayList<File> files = new ArrayList<File>(lines.size());
+    for (String line : lines) {
+      File f = new File(dir, line.split("\t")[0]);
+      files.add(f);
+      totalBytes += f.length();
+    }
+    long tOld = System.currentTimeMillis() - retentionMs;
+    boolean changed = false;
+    StringBuilder sb = new StringBuilder();
+    for (int k = 0; k < lines.size(); k++) {  // oldest first
+      File f = files.get(k);
+      boolean isCurrent = f.equals(currentFile);
+      if (!f.exists()) {
+        changed = true;
+        continue;
+      }
+      if (!isCurrent && ((retentionMs > 0 && f.lastModified() < tOld)
+          || (retentionBytes > 0 && totalBytes > retentionBytes))) {
+        long len = f.length();
+        if (f.delete()) {
+          Log.i(TAG, "prune(): Deleted " + f);
+          totalBytes -= len;
+          changed = true;
+          continue;
+        }
+      }
+      sb.append(lines.get(k)).append('\n');
+    }
+    if (!changed) {
+      return;
+    }
+    FileWriter fw = null;
+    try {
+      fw = new FileWriter(indexFile, false);
+      fw.write(sb.toString());
+    } catch (IOException e) {
+      Log.w(TAG, "prune(): Error writing " + indexFile, e);
+    } finally {
+      closeQuietly(fw);
+    }
+  }
+
+  private static void closeQuietly(Closeable c) {
+    if (c == null) return;
+    try {
+      c.close();
+    } catch (IOException e) {
+      Log.w(TAG, "Error closing file", e);
+    }
+  }
+
+  // The segment being written.
+  AudioFileWriter getCurrentWriter() {
+    return current;
+  }
+
+  public double secondsLeft() {
+    AudioFileWriter w = current;
+    return w == null ? 0 : w.secondsLeft();
+  }
+
+  // Total over all segments of this recording.
+  public double secondsWritten() {
+    return (double) framesTotal / sampleRate;
+  }
+
+  // Of the current segment.
+  public long bytesWritten() {
+    AudioFileWriter w = current;
+    return w == null ? 0 : w.bytesWritten();
+  }
+
+  public String getPath() {
+    return currentFile == null ? null : currentFile.getPath();
+  }
+
+  public String getRelativeDir() {
+    return relativeDir;
+  }
+}
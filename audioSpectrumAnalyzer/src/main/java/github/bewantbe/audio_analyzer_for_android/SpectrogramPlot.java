@@ -26,7 +26,6 @@ import android.util.Log;
 
 import java.util.Arrays;
 
-import static java.lang.Math.log10;
 import static java.lang.Math.pow;
 
 /**
@@ -81,6 +80,7 @@ class SpectrogramPlot {
 
     double dBLowerBound = -120;
     double dBUpperBound = 0.0;
+    private DBColorLUT colorLUT = new DBColorLUT(cma, dBLowerBound, dBUpperBound);
 
     SpectrogramPlot(Context _context) {
         DPRatio = _context.getResources().getDisplayMetrics().density;
@@ -185,10 +185,10 @@ class SpectrogramPlot {
         }
     }
 
-    void setupSpectrogram(int sampleRate, int fftLen, double timeDurationE, int nAve) {
+    void setupSpectrogram(int sampleRate, int fftLen, int hopLen, double timeDurationE, int nAve) {
         timeWatch = timeDurationE;
         timeMultiplier = nAve;
-        timeInc = fftLen / 2.0 / sampleRate;  // time of each slice. /2.0 due to overlap window
+        timeInc = (double)hopLen / sampleRate;  // time of each slice
         synchronized (this) {
             boolean bNeedClean = nFreqPoints != fftLen / 2;
             nFreqPoints = fftLen / 2;                    // no direct current term
@@ -217,6 +217,7 @@ class SpectrogramPlot {
         Log.i(TAG, "setupSpectrogram() done" +
                 "\n  sampleRate    = " + sampleRate +
                 "\n  fftLen        = " + fftLen +
+                "\n  hopLen        = " + hopLen +
                 "\n  timeDurationE = " + timeDurationE + " * " + nAve + "  (" + nTimePoints + " points)");
     }
 
@@ -432,14 +433,13 @@ class SpectrogramPlot {
         }
     }
 
+    void setDBLowerBound(double b) {
+        dBLowerBound = b;
+        colorLUT.setRange(dBLowerBound, dBUpperBound);
+    }
+
     private int colorFromDB(double d) {
-        if (d >= dBUpperBound) {
-            return cma[0];
-        }
-        if (d <= dBLowerBound || Double.isInfinite(d) || Double.isNaN(d)) {
-            return cma[cma.length-1];
-        }
-        return cma[(int)(cma.length * (dBUpperBound - d) / (dBUpperBound - dBLowerBound))];
+        return colorLUT.color(d);
     }
 
     private double timeLastSample = 0;
@@ -453,7 +453,7 @@ class SpectrogramPlot {
     }
 
     // Will be called in another thread (SamplingLoop)
-    void saveRowSpectrumAsColor(final double[] db) {
+    void saveRowSpectrumAsColor(final float[] db) {
         double tNow = System.currentTimeMillis()/1000.0;
         updateTimeDiff = true;
         if (Math.abs(timeLastSample - tNow) > 0.5) {
@@ -465,10 +465,8 @@ class SpectrogramPlot {
 
         // db.length == 2^n + 1
         synchronized (this) {  // essentially a lock on spectrogramColors
-            int pRef = spectrogramColorsPt*nFreqPoints - 1;
-            for (int i = 1; i < db.length; i++) {  // no direct current term
-                spectrogramColors[pRef + i] = colorFromDB(db[i]);
-            }
+            // no direct current term
+            colorLUT.fill(db, 1, db.length, spectrogramColors, spectrogramColorsPt*nFreqPoints);
             spectrogramColorsPt++;
             if (spectrogramColorsPt >= nTimePoints) {
                 spectrogramColorsPt = 0;
@@ -692,7 +690,7 @@ class SpectrogramPlot {
             }
         }
 
-        void fill(double[] db) {
+        void fill(float[] db) {
             if (db.length - 1 != nFreq) {
                 Log.e(TAG, "full(): WTF");
                 return;
@@ -815,17 +813,18 @@ class SpectrogramPlot {
             }
         }
 
-        double[] dbPixelMix = new double[0];
+        float[] dbPixelMix = new float[0];
 
-        void fill(double[] db) {
+        void fill(float[] db) {
             if (db.length - 1 != nFreq) {
                 Log.e(TAG, "full(): WTF");
                 return;
             }
             if (dbPixelMix.length != bmpWidth) {
-                dbPixelMix = new double[bmpWidth];
+                dbPixelMix = new float[bmpWidth];
             }
-            Arrays.fill(dbPixelMix, 0.0);
+            Arrays.fill(dbPixelMix, 0f);
+            DspMath.Precision prec = DspMath.getPrecision();
             double b0 = iFreqToPix[0];
             for (int i = 1; i <= nFreq; i++) {
                 // assign color to pixel iFreqToPix[i-1] .. iFreqToPix[i]
@@ -838,7 +837,8 @@ class SpectrogramPlot {
                     //dbPixelMix[(int)b0] += db[i] * (1 - b0 % 1);  // dB mean
                     double db0 = db[i-1];  // i should > 1
                     double db1 = db[i];
-                    dbPixelMix[(int)b0] = 10 * log10(pow(10, db0/10)*(b0 % 1) + pow(10, db1/10)*(1 - b0 % 1));  // energy mean
+                    dbPixelMix[(int)b0] = (float) DspMath.powerToDB(DspMath.dBToPower(db0, prec)*(b0 % 1)
+                            + DspMath.dBToPower(db1, prec)*(1 - b0 % 1), prec);  // energy mean
                 }
                 for (int j = (int)Math.ceil(b0); j < (int)b1; j++) {
                     dbPixelMix[j] = db[i];
@@ -848,10 +848,7 @@ class SpectrogramPlot {
 //                }
                 b0  = b1;
             }
-            int bmP0 = bmPt * bmpWidth;
-            for (int i = 0; i < bmpWidth; i++) {
-                bm[bmP0 + i] = colorFromDB(dbPixelMix[i]);
-            }
+            colorLUT.fill(dbPixelMix, 0, bmpWidth, bm, bmPt * bmpWidth);
             bmPt++;
             if (bmPt >= nTime) bmPt = 0;
         }
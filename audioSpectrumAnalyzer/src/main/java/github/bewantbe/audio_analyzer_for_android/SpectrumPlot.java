@@ -216,27 +216,19 @@ class SpectrumPlot {
 
     private Matrix matrix = new Matrix();
     private float[] tmpLineXY = new float[0];  // cache line data for drawing
-    private double[] db_cache = null;
 
     // Plot the spectrum into the Canvas c
-    private void drawSpectrumOnCanvas(Canvas c, final double[] _db) {
-        if (canvasHeight < 1 || _db == null || _db.length == 0) {
+    // db should not be modified during the call, see SpectrumPublisher.
+    private void drawSpectrumOnCanvas(Canvas c, final float[] db) {
+        if (canvasHeight < 1 || db == null || db.length == 0) {
             return;
         }
         AnalyzerGraphic.setIsBusy(true);
 
-        synchronized (_db) {  // TODO: need lock on savedDBSpectrum, but how?
-            if (db_cache == null || db_cache.length != _db.length) {
-                Log.d(TAG, "drawSpectrumOnCanvas(): new db_cache");
-                db_cache = new double[_db.length];
-            }
-            System.arraycopy(_db, 0, db_cache, 0, _db.length);
-        }
-
         float canvasMinFreq = axisX.vMinInView();
         float canvasMaxFreq = axisX.vMaxInView();
         // There are db.length frequency points, including DC component
-        int nFreqPointsTotal = db_cache.length - 1;
+        int nFreqPointsTotal = db.length - 1;
         float freqDelta = axisX.vUpperBound / nFreqPointsTotal;
         int beginFreqPt = (int)floor(canvasMinFreq / freqDelta);    // pointer to tmpLineXY
         int endFreqPt   = (int)ceil (canvasMaxFreq / freqDelta)+1;
@@ -246,13 +238,13 @@ class SpectrumPlot {
         if (beginFreqPt == 0 && axisX.mapType == ScreenPhysicalMapping.Type.LOG) {
             beginFreqPt++;
         }
-        if (endFreqPt > db_cache.length) {
-            endFreqPt = db_cache.length;  // just in case canvasMaxFreq / freqDelta > nFreqPointsTotal
+        if (endFreqPt > db.length) {
+            endFreqPt = db.length;  // just in case canvasMaxFreq / freqDelta > nFreqPointsTotal
         }
 
-        if (tmpLineXY.length != 4*(db_cache.length)) {
+        if (tmpLineXY.length != 4*(db.length)) {
             Log.d(TAG, "drawSpectrumOnCanvas(): new tmpLineXY");
-            tmpLineXY = new float[4*(db_cache.length)];
+            tmpLineXY = new float[4*(db.length)];
         }
 
         // spectrum bar
@@ -275,7 +267,7 @@ class SpectrumPlot {
                 // plot directly to the canvas
                 for (int i = beginFreqPt; i < endFreqPt; i++) {
                     float x = axisX.pixelFromV(i * freqDelta);
-                    float y = axisY.pixelNoZoomFromV(clampDB((float) db_cache[i]));
+                    float y = axisY.pixelNoZoomFromV(clampDB(db[i]));
                     if (y != canvasHeight) { // ...forgot why
                         tmpLineXY[4 * i] = x;
                         tmpLineXY[4 * i + 1] = minYCanvas;
@@ -303,7 +295,7 @@ class SpectrumPlot {
                 // fill interval same as canvas pixel width.
                 for (int i = beginFreqPt; i < endFreqPt; i++) {
                     float x = i * pixelStep;
-                    float y = axisY.pixelNoZoomFromV(clampDB((float) db_cache[i]));
+                    float y = axisY.pixelNoZoomFromV(clampDB(db[i]));
                     if (y != canvasHeight) {
                         tmpLineXY[4*i  ] = x;
                         tmpLineXY[4*i+1] = minYCanvas;
@@ -323,10 +315,10 @@ class SpectrumPlot {
         matrix.postScale(1, axisY.zoom);
         c.concat(matrix);
         float o_x = axisX.pixelFromV(beginFreqPt * freqDelta);
-        float o_y = axisY.pixelNoZoomFromV(clampDB((float)db_cache[beginFreqPt]));
+        float o_y = axisY.pixelNoZoomFromV(clampDB(db[beginFreqPt]));
         for (int i = beginFreqPt+1; i < endFreqPt; i++) {
             float x = axisX.pixelFromV(i * freqDelta);
-            float y = axisY.pixelNoZoomFromV(clampDB((float)db_cache[i]));
+            float y = axisY.pixelNoZoomFromV(clampDB(db[i]));
             tmpLineXY[4*i  ] = o_x;
             tmpLineXY[4*i+1] = o_y;
             tmpLineXY[4*i+2] = x;
@@ -371,7 +363,7 @@ class SpectrumPlot {
     }
 
     // Plot spectrum with axis and ticks on the whole canvas c
-    void drawSpectrumPlot(Canvas c, double[] savedDBSpectrum) {
+    void drawSpectrumPlot(Canvas c, float[] savedDBSpectrum) {
         fqGridLabel.updateGridLabels(axisX.vMinInView(), axisX.vMaxInView());
         dbGridLabel.updateGridLabels(axisY.vMinInView(), axisY.vMaxInView());
         drawGridLines(c);
@@ -16,95 +16,165 @@
 package github.bewantbe.audio_analyzer_for_android;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
+import java.util.regex.Pattern;
 
 import android.annotation.SuppressLint;
 import android.os.Environment;
 import android.os.StatFs;
 import android.util.Log;
 
-public class WavWriter {
+public class WavWriter implements AudioFileWriter {
   static final String TAG = "WavWriter";
   private File outPath;
-  private OutputStream out;
-  private byte[] header = new byte[44];
+  private FileChannel out;
+  // Header with a 28 bytes JUNK chunk reserved for 'ds64', so that the file can become
+  // RF64 (EBU Tech 3306) in place once it grows over 4 GB. Then 'fmt ':
+  //   16-bit PCM: WAVE_FORMAT_PCM, 16 bytes, header is 80 bytes
+  //   24-bit PCM: WAVE_FORMAT_EXTENSIBLE (KSDATAFORMAT_SUBTYPE_PCM), 40 bytes, header is 104 bytes
+  //   32-bit float: WAVE_FORMAT_IEEE_FLOAT, 18 bytes and a 'fact' chunk, header is 94 bytes
+  static final int DS64_POS       = 12;
+  static final int FORMAT_PCM        = 1;
+  static final int FORMAT_IEEE_FLOAT = 3;
+  static final int FORMAT_EXTENSIBLE = 0xFFFE;
+  // KSDATAFORMAT_SUBTYPE_PCM, 00000001-0000-0010-8000-00aa00389b71
+  private static final byte[] SUBTYPE_PCM = {1, 0, 0, 0, 0, 0, 0x10, 0, (byte) 0x80, 0, 0, (byte) 0xAA, 0, 0x38, (byte) 0x9B, 0x71};
+  private static final long MAX_RIFF_SIZE = 0xFFFFFFFFL;
+  private final int headerLen;
+  private final int dataSizePos;   // of the size field of 'data'
+  private final int factPos;       // of the sample length field of 'fact', -1 if none
+  private final ByteBuffer header;
   final String relativeDir = "/Recorder";
+  static final int WRITE_BATCH_BYTES = 65536;  // write to storage in large sequential chunks
+  // Samples are bulk-put here, then written out in one go when full.
+  private final ByteBuffer byteBuffer = ByteBuffer.allocateDirect(WRITE_BATCH_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+  // View of byteBuffer from its start, shares its byte order. Its position is its own, see pushAudioShort().
+  private final ShortBuffer shortView = byteBuffer.asShortBuffer();
+  private final ByteBuffer lenBuffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+  private short[] shortTmp = new short[0];   // pushAudioBuffer() on big-endian devices
+  private float[] floatTmp = new float[0];   // sample format conversion
 
   private int channels = 1;
   private byte RECORDER_BPP = 16;  // bits per sample
+  private boolean isFloat = false; // 32-bit IEEE float instead of integer PCM
   private int byteRate;            // Average bytes per second
-  private int totalDataLen  = 0;   // (file size) - 8
-  private int totalAudioLen = 0;   // bytes of audio raw data
-  private int framesWrited = 0;
+  private long totalDataLen  = 0;  // (file size) - 8
+  private long totalAudioLen = 0;  // bytes of audio raw data
+  private long framesWrited = 0;
+  private boolean isRF64 = false;
+
+  // Sizes in header are committed to storage every so often, so that a crash
+  // loses at most this much audio. See also recoverFiles().
+  static final double DEFAULT_HEADER_COMMIT_INTERVAL = 10.0;  // seconds
+  private long commitIntervalFrames;
+  private long framesCommitted = 0;
+  private static volatile boolean isRecoveryDone = false;
 
   public WavWriter(int sampleRate) {
+    this(sampleRate, 16);
+  }
+
+  /**
+   * @param bitsPerSample  16 or 24 for PCM, 32 for IEEE float.
+   *                       Samples pushed in another format are converted.
+   */
+  public WavWriter(int sampleRate, int bitsPerSample) {
+    this(sampleRate, bitsPerSample, 1);
+  }
+
+  // channels: samples pushed are interleaved, e.g. L R L R ... for 2 channels.
+  public WavWriter(int sampleRate, int bitsPerSample, int channels) {
+    if (bitsPerSample != 16 && bitsPerSample != 24 && bitsPerSample != 32) {
+      throw new IllegalArgumentException("WavWriter(): bitsPerSample should be 16, 24 or 32.");
+    }
+    if (channels < 1) {
+      throw new IllegalArgumentException("WavWriter(): channels should be >= 1.");
+    }
+    this.channels = channels;
+    RECORDER_BPP = (byte) bitsPerSample;
+    isFloat = bitsPerSample == 32;
     byteRate = sampleRate*RECORDER_BPP/8*channels;
-    
-    header[0] = 'R';  // RIFF/WAVE header
-    header[1] = 'I';
-    header[2] = 'F';
-    header[3] = 'F';
-    header[4] = (byte) (totalDataLen & 0xff);
-    header[5] = (byte) ((totalDataLen >> 8) & 0xff);
-    header[6] = (byte) ((totalDataLen >> 16) & 0xff);
-    header[7] = (byte) ((totalDataLen >> 24) & 0xff);
-    header[8] = 'W';
-    header[9] = 'A';
-    header[10] = 'V';
-    header[11] = 'E';
-    header[12] = 'f';  // 'fmt ' chunk
-    header[13] = 'm';
-    header[14] = 't';
-    header[15] = ' ';
-    header[16] = 16;  // 4 bytes: size of 'fmt ' chunk
-    header[17] = 0;
-    header[18] = 0;
-    header[19] = 0;
-    header[20] = 1;  // format = 1, PCM/uncompressed
-    header[21] = 0;
-    header[22] = (byte) channels;
-    header[23] = 0;
-    header[24] = (byte) (sampleRate & 0xff);
-    header[25] = (byte) ((sampleRate >> 8) & 0xff);
-    header[26] = (byte) ((sampleRate >> 16) & 0xff);
-    header[27] = (byte) ((sampleRate >> 24) & 0xff);
-    header[28] = (byte) (byteRate & 0xff);              // Average bytes per second
-    header[29] = (byte) ((byteRate >> 8) & 0xff);
-    header[30] = (byte) ((byteRate >> 16) & 0xff);
-    header[31] = (byte) ((byteRate >> 24) & 0xff);
-    header[32] = (byte) (channels * RECORDER_BPP / 8);  // Block align (number of bytes per sample slice)
-    header[33] = 0;
-    header[34] = RECORDER_BPP;                          // bits per sample (Significant bits per sample)
-    header[35] = 0;                                     // Extra format bytes
-    header[36] = 'd';
-    header[37] = 'a';
-    header[38] = 't';
-    header[39] = 'a';
-    header[40] = (byte) (totalAudioLen & 0xff);
-    header[41] = (byte) ((totalAudioLen >> 8) & 0xff);
-    header[42] = (byte) ((totalAudioLen >> 16) & 0xff);
-    header[43] = (byte) ((totalAudioLen >> 24) & 0xff);
+
+    int fmtSize = isFloat ? 18 : RECORDER_BPP == 24 ? 40 : 16;
+    headerLen = 12 + 36 + 8 + fmtSize + (isFloat ? 12 : 0) + 8;
+    header = ByteBuffer.allocate(headerLen).order(ByteOrder.LITTLE_ENDIAN);
+    header.put(new byte[]{'R', 'I', 'F', 'F'});  // RIFF/WAVE header
+    header.putInt((int) totalDataLen);
+    header.put(new byte[]{'W', 'A', 'V', 'E'});
+    header.put(new byte[]{'J', 'U', 'N', 'K'});  // place holder of 'ds64' chunk
+    header.putInt(28);
+    header.put(new byte[28]);
+    header.put(new byte[]{'f', 'm', 't', ' '});  // 'fmt ' chunk
+    header.putInt(fmtSize);                      // size of 'fmt ' chunk
+    header.putShort((short) (isFloat ? FORMAT_IEEE_FLOAT : fmtSize == 40 ? FORMAT_EXTENSIBLE : FORMAT_PCM));
+    header.putShort((short) channels);
+    header.putInt(sampleRate);
+    header.putInt(byteRate);                     // Average bytes per second
+    header.putShort((short) (channels * RECORDER_BPP / 8));  // Block align (number of bytes per sample slice)
+    header.putShort(RECORDER_BPP);               // bits per sample (Significant bits per sample)
+    if (fmtSize > 16) {
+      header.putShort((short) (fmtSize - 18));   // cbSize, size of the extension
+    }
+    if (fmtSize == 40) {
+      header.putShort(RECORDER_BPP);             // valid bits per sample
+      header.putInt(channels == 1 ? 0x4 : channels == 2 ? 0x3 : 0);  // channel mask: FC; FL FR
+      header.put(SUBTYPE_PCM);
+    }
+    if (isFloat) {                               // required for non-PCM formats
+      header.put(new byte[]{'f', 'a', 'c', 't'});
+      header.putInt(4);
+      factPos = header.position();
+      header.putInt(0);                          // number of sample frames
+    } else {
+      factPos = -1;
+    }
+    header.put(new byte[]{'d', 'a', 't', 'a'});
+    dataSizePos = header.position();
+    header.putInt((int) totalAudioLen);
+    header.flip();
+    setHeaderCommitInterval(DEFAULT_HEADER_COMMIT_INTERVAL);
+  }
+
+  // Set <= 0 to only write the header at stop().
+  public void setHeaderCommitInterval(double seconds) {
+    commitIntervalFrames = seconds > 0 ? (long) Math.ceil(seconds * byteRate / (RECORDER_BPP / 8 * channels)) : Long.MAX_VALUE;
   }
   
   static final int version = android.os.Build.VERSION.SDK_INT;
   
   @SuppressLint("NewApi")
   @SuppressWarnings("deprecation")
-  public double secondsLeft() {
-    long byteLeft;
+  static long bytesFree(File path) {
     if (version >= 9) {
-      byteLeft = outPath.getFreeSpace();  // Need API level 9
+      return path.getFreeSpace();  // Need API level 9
     } else {
-      StatFs statFs = new StatFs(outPath.getAbsolutePath());
-      byteLeft = (statFs.getAvailableBlocks() * (long)statFs.getBlockSize());
+      StatFs statFs = new StatFs(path.getAbsolutePath());
+      return (statFs.getAvailableBlocks() * (long)statFs.getBlockSize());
     }
+  }
+
+  // e.g. "rec2017-01-31_08h30m00.000s.wav"
+  static String timeStampedName(String extension) {
+    DateFormat df = new SimpleDateFormat("yyyy-MM-dd_HH'h'mm'm'ss.SSS's'", Locale.US);
+    return "rec" + df.format(new Date()) + extension;
+  }
+
+  // Name of a file from timeStampedName(".wav"), i.e. one this class may have written.
+  private static final Pattern RECORDING_NAME =
+      Pattern.compile("rec\\d{4}-\\d{2}-\\d{2}_\\d{2}h\\d{2}m\\d{2}\\.\\d{3}s\\.wav");
+
+  public double secondsLeft() {
+    long byteLeft = bytesFree(outPath);
     if (byteRate == 0 || byteLeft == 0) {
       return 0;
     }
@@ -117,17 +187,30 @@ public class WavWriter {
     }
     File path = new File(Environment.getExternalStorageDirectory().getPath() + relativeDir);
     path.mkdirs();
-    DateFormat df = new SimpleDateFormat("yyyy-MM-dd_HH'h'mm'm'ss.SSS's'", Locale.US);
-    String nowStr = df.format(new Date());
-    outPath = new File(path, "rec" + nowStr + ".wav");
+    // Repair recordings left by a previous crash. Once is enough, e.g. not on every segment.
+    if (!isRecoveryDone) {
+      isRecoveryDone = true;
+      int nRecovered = recoverFiles(path);
+      if (nRecovered > 0) {
+        Log.i(TAG, "start(): Recovered " + nRecovered + " truncated file(s) in " + path);
+      }
+    }
+    outPath = new File(path, timeStampedName(".wav"));
 
     try {
-      out = new FileOutputStream(outPath);
-      out.write(header, 0, 44);
+      out = new RandomAccessFile(outPath, "rw").getChannel();
+      out.truncate(0);
+      header.rewind();
+      writeFully(header);
+      byteBuffer.clear();
+      framesWrited = 0;
+      framesCommitted = 0;
+      isRF64 = false;
       // http://developer.android.com/reference/android/os/Environment.html#getExternalStoragePublicDirectory%28java.lang.String%29
     } catch (IOException e) {
       Log.w(TAG, "start(): Error writing " + outPath, e);
-      out = null;
+      closeQuietly();
+      return false;
     }
     return true;
   }
@@ -138,64 +221,380 @@ public class WavWriter {
       return;
     }
     try {
-      out.close();
-    } catch (IOException e) {
-      Log.w(TAG, "stop(): Error closing " + outPath, e);
-    }
-    out = null;
-    // Modify totalDataLen and totalAudioLen to match data
-    RandomAccessFile raf;
-    try {
-      totalAudioLen = framesWrited * RECORDER_BPP / 8 * channels;
-      totalDataLen = header.length + totalAudioLen - 8;
-      raf = new RandomAccessFile(outPath, "rw");
-      raf.seek(4);
-      raf.write((byte) ((totalDataLen >>  0) & 0xff));
-      raf.write((byte) ((totalDataLen >>  8) & 0xff));
-      raf.write((byte) ((totalDataLen >> 16) & 0xff));
-      raf.write((byte) ((totalDataLen >> 24) & 0xff));
-      raf.seek(40);
-      raf.write((byte) ((totalAudioLen >>  0) & 0xff));
-      raf.write((byte) ((totalAudioLen >>  8) & 0xff));
-      raf.write((byte) ((totalAudioLen >> 16) & 0xff));
-      raf.write((byte) ((totalAudioLen >> 24) & 0xff));
-      raf.close();
+      commitHeader();
     } catch (IOException e) {
       Log.w(TAG, "stop(): Error modifying " + outPath, e);
     }
+    closeQuietly();
   }
 
-  byte[] byteBuffer;
-  
-  // Assume RECORDER_BPP == 16 and channels == 1
+  // numOfReadShort: number of samples, i.e. channels times number of sample frames.
   public void pushAudioShort(short[] ss, int numOfReadShort) {
     if (out == null) {
       Log.w(TAG, "pushAudioShort(): Error writing " + outPath + "  null pointer");
       return;
     }
-    if (byteBuffer == null || byteBuffer.length != ss.length*2) {
-      byteBuffer = new byte[ss.length*2];
-    }
-    for (int i = 0; i < numOfReadShort; i++) {
-      byteBuffer[2*i+0] = (byte)(ss[i] & 0xff);
-      byteBuffer[2*i+1] = (byte)((ss[i]>>8) & 0xff);
+    if (RECORDER_BPP != 16) {
+      if (floatTmp.length < numOfReadShort) {
+        floatTmp = new float[numOfReadShort];
+      }
+      for (int i = 0; i < numOfReadShort; i++) {
+        floatTmp[i] = ss[i] / 32768f;   // exact
+      }
+      pushFloats(FloatBuffer.wrap(floatTmp, 0, numOfReadShort), "pushAudioShort()");
+      return;
     }
-    framesWrited += numOfReadShort;
     try {
-      out.write(byteBuffer, 0, numOfReadShort*2);
-      // if use out.write(byte), then a lot of GC will generated
+      int i = 0;
+      while (i < numOfReadShort) {
+        if (byteBuffer.remaining() < 2) {
+          flushBuffer();
+        }
+        int n = Math.min(numOfReadShort - i, byteBuffer.remaining() / 2);
+        shortView.position(byteBuffer.position() / 2);  // 16-bit only, so position is even
+        shortView.put(ss, i, n);
+        byteBuffer.position(byteBuffer.position() + 2*n);
+        i += n;
+      }
+      framesWrited += numOfReadShort / channels;
+      if (framesWrited - framesCommitted >= commitIntervalFrames) {
+        commitHeader();
+      }
     } catch (IOException e) {
       Log.w(TAG, "pushAudioShort(): Error writing " + outPath, e);
-      out = null;
+      closeQuietly();
+    }
+  }
+
+  // The bytes of buf go to the file as they are (after pending data), no conversion.
+  // Small buffers are staged in byteBuffer first, see stage().
+  public void pushAudioBuffer(ByteBuffer buf) {
+    if (out == null) {
+      Log.w(TAG, "pushAudioBuffer(): Error writing " + outPath + "  null pointer");
+      return;
+    }
+    if (buf.order() != ByteOrder.LITTLE_ENDIAN || RECORDER_BPP != 16) {   // big-endian device or other format, convert
+      ShortBuffer s = buf.asShortBuffer();
+      if (shortTmp.length < s.remaining()) {
+        shortTmp = new short[s.remaining()];
+      }
+      int n = s.remaining();
+      s.get(shortTmp, 0, n);
+      pushAudioShort(shortTmp, n);
+      return;
+    }
+    try {
+      stage(buf.duplicate());
+      framesWrited += buf.remaining() / 2 / channels;
+      if (framesWrited - framesCommitted >= commitIntervalFrames) {
+        commitHeader();
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "pushAudioBuffer(): Error writing " + outPath, e);
+      closeQuietly();
+    }
+  }
+
+  // Float samples in [-1, 1] (native byte order) between position and limit of buf,
+  // written as they are if the file is float, otherwise rounded. buf is not modified.
+  public void pushAudioFloat(ByteBuffer buf) {
+    if (out == null) {
+      Log.w(TAG, "pushAudioFloat(): Error writing " + outPath + "  null pointer");
+      return;
+    }
+    if (isFloat && buf.order() == ByteOrder.LITTLE_ENDIAN) {
+      try {
+        stage(buf.duplicate());
+        framesWrited += buf.remaining() / 4 / channels;
+        if (framesWrited - framesCommitted >= commitIntervalFrames) {
+          commitHeader();
+        }
+      } catch (IOException e) {
+        Log.w(TAG, "pushAudioFloat(): Error writing " + outPath, e);
+        closeQuietly();
+      }
+      return;
+    }
+    pushFloats(buf.asFloatBuffer(), "pushAudioFloat()");
+  }
+
+  // Convert the remaining samples of fs to the format of the file and write.
+  private void pushFloats(FloatBuffer fs, String caller) {
+    int bytesPerSample = RECORDER_BPP / 8;
+    int numOfSamples = fs.remaining();
+    try {
+      while (fs.hasRemaining()) {
+        if (byteBuffer.remaining() < bytesPerSample) {
+          flushBuffer();
+        }
+        int n = Math.min(fs.remaining(), byteBuffer.remaining() / bytesPerSample);
+        if (isFloat) {
+          for (int i = 0; i < n; i++) {
+            byteBuffer.putFloat(fs.get());
+          }
+        } else if (RECORDER_BPP == 24) {
+          for (int i = 0; i < n; i++) {
+            int v = toInt24(fs.get());
+            byteBuffer.put((byte) v).put((byte) (v >> 8)).put((byte) (v >> 16));
+          }
+        } else {
+          for (int i = 0; i < n; i++) {
+            byteBuffer.putShort(toShort(fs.get()));
+          }
+        }
+      }
+      framesWrited += numOfSamples / channels;
+      if (framesWrited - framesCommitted >= commitIntervalFrames) {
+        commitHeader();
+      }
+    } catch (IOException e) {
+      Log.w(TAG, caller + ": Error writing " + outPath, e);
+      closeQuietly();
+    }
+  }
+
+  // Full scale float sample to 16 bits, rounded and clipped.
+  static short toShort(float v) {
+    float x = v * 32768f;
+    return (short) (x >= 32767f ? 32767 : x <= -32768f ? -32768 : Math.round(x));
+  }
+
+  static int toInt24(float v) {
+    float x = v * 8388608f;
+    return x >= 8388607f ? 8388607 : x <= -8388608f ? -8388608 : Math.round(x);
+  }
+
+  // Append the bytes of b (consumed) to byteBuffer, writing it out whenever full, so that
+  // small pushes (e.g. one read chunk each) still go to storage in WRITE_BATCH_BYTES writes.
+  // A push as large as byteBuffer is written directly, without the copy.
+  private void stage(ByteBuffer b) throws IOException {
+    if (b.remaining() >= byteBuffer.capacity()) {
+      flushBuffer();
+      writeFully(b);
+      return;
+    }
+    while (b.hasRemaining()) {
+      if (!byteBuffer.hasRemaining()) {
+        flushBuffer();
+      }
+      int lim = b.limit();
+      b.limit(b.position() + Math.min(b.remaining(), byteBuffer.remaining()));
+      byteBuffer.put(b);
+      b.limit(lim);
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    byteBuffer.flip();
+    writeFully(byteBuffer);
+    byteBuffer.clear();
+  }
+
+  private void writeFully(ByteBuffer b) throws IOException {
+    while (b.hasRemaining()) {
+      out.write(b);
+    }
+  }
+
+  // Write out pending data, modify totalDataLen and totalAudioLen to match data,
+  // then make them durable.
+  private void commitHeader() throws IOException {
+    flushBuffer();
+    totalAudioLen = framesWrited * RECORDER_BPP / 8 * channels;
+    totalDataLen = headerLen + totalAudioLen - 8;
+    isRF64 = writeSizes(out, totalDataLen, totalAudioLen, framesWrited, isRF64, dataSizePos, factPos, lenBuffer);
+    out.force(false);
+    framesCommitted = framesWrited;
+  }
+
+  // Patch size fields of a header written by this class (or one with the same
+  // JUNK/ds64 reservation, needed only for RF64). factPos < 0 if no 'fact' chunk.
+  // Return true if the file is RF64 afterwards.
+  private static boolean writeSizes(FileChannel ch, long riffLen, long audioLen, long nFrames,
+                                    boolean isRF64, long dataSizePos, long factPos,
+                                    ByteBuffer tmp) throws IOException {
+    if (riffLen <= MAX_RIFF_SIZE && !isRF64) {
+      writeIntAt(ch, (int) riffLen, 4, tmp);
+      writeIntAt(ch, (int) audioLen, dataSizePos, tmp);
+      if (factPos >= 0) {
+        writeIntAt(ch, (int) nFrames, factPos, tmp);
+      }
+      return false;
+    }
+    // RF64: real sizes go to 'ds64', the 32-bit ones are set to -1.
+    writeLongAt(ch, riffLen,  DS64_POS + 8,  tmp);
+    writeLongAt(ch, audioLen, DS64_POS + 16, tmp);
+    writeLongAt(ch, nFrames,  DS64_POS + 24, tmp);
+    writeIntAt(ch, 0, DS64_POS + 32, tmp);  // table length
+    writeIntAt(ch, -1, 4, tmp);
+    writeIntAt(ch, -1, dataSizePos, tmp);
+    if (factPos >= 0) {
+      writeIntAt(ch, -1, factPos, tmp);
+    }
+    if (!isRF64) {
+      writeIntAt(ch, fourCC("ds64"), DS64_POS, tmp);
+      writeIntAt(ch, fourCC("RF64"), 0, tmp);
+    }
+    return true;
+  }
+
+  // Positional write, does not move the file pointer.
+  private static void writeIntAt(FileChannel ch, int v, long position, ByteBuffer tmp) throws IOException {
+    tmp.clear();
+    tmp.putInt(v).flip();
+    while (tmp.hasRemaining()) {
+      ch.write(tmp, position + tmp.position());
+    }
+  }
+
+  private static void writeLongAt(FileChannel ch, long v, long position, ByteBuffer tmp) throws IOException {
+    tmp.clear();
+    tmp.putLong(v).flip();
+    while (tmp.hasRemaining()) {
+      ch.write(tmp, position + tmp.position());
+    }
+  }
+
+  // Four-character code as a little-endian int.
+  private static int fourCC(String s) {
+    return (s.charAt(0)) | (s.charAt(1) << 8) | (s.charAt(2) << 16) | (s.charAt(3) << 24);
+  }
+
+  // Repair the size fields of recordings in dir whose header is behind the file
+  // length, e.g. the recording was killed before stop(). Return number repaired.
+  // Other files in dir (e.g. replay.wav) are not touched, see recoverFile().
+  static int recoverFiles(File dir) {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return 0;
+    }
+    int cnt = 0;
+    for (File f : files) {
+      if (f.isFile() && RECORDING_NAME.matcher(f.getName()).matches() && recoverFile(f)) {
+        cnt++;
+      }
     }
+    return cnt;
+  }
+
+  // Return true if the file was modified. Only a header of this class (with the JUNK/ds64
+  // reservation) whose data size is smaller than the audio on disk is repaired. A file
+  // with a valid chunk after its data (e.g. LIST or id3 metadata) is left as it is.
+  static boolean recoverFile(File f) {
+    RandomAccessFile raf = null;
+    try {
+      raf = new RandomAccessFile(f, "rw");
+      FileChannel ch = raf.getChannel();
+      long fileLen = ch.size();
+      ByteBuffer b = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+      while (b.hasRemaining() && ch.read(b, b.position()) > 0) { }
+      b.flip();
+      if (b.limit() < 12) {
+        return false;
+      }
+      int riffId = b.getInt(0);
+      boolean isRF64 = riffId == fourCC("RF64");
+      if ((riffId != fourCC("RIFF") && !isRF64) || b.getInt(8) != fourCC("WAVE")) {
+        return false;
+      }
+      // Walk the chunks to find 'data'.
+      int blockAlign = 0;
+      long dataPos = -1;
+      long factPos = -1;
+      int pos = 12;
+      boolean hasDs64Room = false;
+      while (pos + 8 <= b.limit()) {
+        int id = b.getInt(pos);
+        long size = b.getInt(pos + 4) & 0xFFFFFFFFL;
+        if (id == fourCC("data")) {
+          dataPos = pos + 8;
+          break;
+        }
+        if (pos == DS64_POS && size == 28 && (id == fourCC("JUNK") || id == fourCC("ds64"))) {
+          hasDs64Room = true;
+        }
+        if (id == fourCC("fmt ") && pos + 22 <= b.limit()) {
+          blockAlign = b.getShort(pos + 20) & 0xFFFF;
+        }
+        if (id == fourCC("fact") && size >= 4) {
+          factPos = pos + 8;
+        }
+        long next = pos + 8 + size + (size & 1);
+        if (next > b.limit()) break;
+        pos = (int) next;
+      }
+      if (dataPos < 0 || blockAlign == 0 || !hasDs64Room) {
+        return false;  // not a WAV written by this class
+      }
+      long audioLen = (fileLen - dataPos) / blockAlign * blockAlign;
+      long riffLen  = dataPos + audioLen - 8;
+      long oldAudioLen = isRF64 ? b.getLong(DS64_POS + 16) : (b.getInt((int) dataPos - 4) & 0xFFFFFFFFL);
+      if (oldAudioLen >= audioLen) {
+        return false;
+      }
+      ByteBuffer tmp = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+      if (hasChunkAt(ch, dataPos + oldAudioLen + (oldAudioLen & 1), fileLen, tmp)) {
+        Log.i(TAG, "recoverFile(): Not repairing " + f + ", there is a chunk after 'data'.");
+        return false;
+      }
+      writeSizes(ch, riffLen, audioLen, audioLen / blockAlign, isRF64, dataPos - 4, factPos, tmp);
+      ch.truncate(dataPos + audioLen);  // drop partial sample frame
+      Log.i(TAG, "recoverFile(): Repaired " + f + ", " + audioLen + " bytes of audio.");
+      return true;
+    } catch (IOException e) {
+      Log.w(TAG, "recoverFile(): Error repairing " + f, e);
+      return false;
+    } finally {
+      if (raf != null) {
+        try {
+          raf.close();
+        } catch (IOException e) {
+          Log.w(TAG, "recoverFile(): Error closing " + f, e);
+        }
+      }
+    }
+  }
+
+  // Whether a plausible chunk header (printable ID, size within the file) is at pos.
+  private static boolean hasChunkAt(FileChannel ch, long pos, long fileLen, ByteBuffer tmp) throws IOException {
+    if (pos + 8 > fileLen) {
+      return false;
+    }
+    tmp.clear();
+    while (tmp.hasRemaining() && ch.read(tmp, pos + tmp.position()) > 0) { }
+    if (tmp.hasRemaining()) {
+      return false;
+    }
+    for (int i = 0; i < 4; i++) {
+      int c = tmp.get(i) & 0xFF;
+      if (c < 0x20 || c > 0x7E) {
+        return false;
+      }
+    }
+    long size = tmp.getInt(4) & 0xFFFFFFFFL;
+    return pos + 8 + size <= fileLen;
+  }
+
+  private void closeQuietly() {
+    if (out == null) return;
+    try {
+      out.close();
+    } catch (IOException e) {
+      Log.w(TAG, "Error closing " + outPath, e);
+    }
+    out = null;
   }
   
   public double secondsWritten() {
     return (double)framesWrited/(byteRate*8/RECORDER_BPP/channels);
   }
+
+  public long bytesWritten() {
+    return headerLen + framesWrited * RECORDER_BPP / 8 * channels;
+  }
   
   /* Checks if external storage is available for read and write */
-  public boolean isExternalStorageWritable() {
+  public static boolean isExternalStorageWritable() {
     String state = Environment.getExternalStorageState();  // Need API level 8
     if (Environment.MEDIA_MOUNTED.equals(state)) {
       return true;
@@ -206,5 +605,9 @@ public class WavWriter {
   public String getPath() {
     return outPath.getPath();
   }
+
+  public String getRelativeDir() {
+    return relativeDir;
+  }
   
 }
@@ -0,0 +1,124 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed pool of direct buffers of 16-bit or 32-bit float samples (native byte order), shared
+ * without copy between the capture thread and several consumers, e.g. the
+ * analysis (STFT reads the samples in place) and the recorder (writes the bytes
+ * to the file as they are). Each consumer calls release() when done, the buffer
+ * returns to the pool after the last release.
+ */
+
+public class AudioBufferPool {
+  public static class Buffer {
+    public final ByteBuffer bytes;     // samples 0 ~ size-1 are bytes 0 ~ bytesPerSample*size-1
+    public final ShortBuffer shorts;   // view of bytes, for 16-bit samples
+    public final FloatBuffer floats;   // view of bytes, for float samples
+    public final boolean isFloat;
+    public int size;                   // number of valid samples
+    private final AtomicInteger refCount = new AtomicInteger();
+    private final AudioBufferPool pool;
+
+    Buffer(AudioBufferPool pool, int capacity, boolean isFloat) {
+      this.pool = pool;
+      this.isFloat = isFloat;
+      bytes = ByteBuffer.allocateDirect((isFloat ? 4 : 2) * capacity).order(ByteOrder.nativeOrder());
+      shorts = bytes.asShortBuffer();
+      floats = bytes.asFloatBuffer();
+    }
+
+    // Set size, and make bytes cover exactly the valid samples.
+    public void setSize(int n) {
+      size = n;
+      bytes.limit((isFloat ? 4 : 2) * n).position(0);
+    }
+
+    public void release() {
+      int r = refCount.decrementAndGet();
+      if (r == 0) {
+        pool.freeBuffers.offer(this);
+      } else if (r < 0) {
+        throw new IllegalStateException("AudioBufferPool.Buffer::release(): released too many times.");
+      }
+    }
+  }
+
+  private final ArrayBlockingQueue<Buffer> freeBuffers;
+  private final int bufferCapacity;
+  private final boolean isFloat;
+  private volatile long exhaustedCount = 0;    // obtain() thread only
+
+  public AudioBufferPool(int nBuffers, int capacity) {
+    this(nBuffers, capacity, false);
+  }
+
+  /**
+   * @param nBuffers  number of buffers.
+   * @param capacity  samples per buffer.
+   * @param isFloat   samples are 32-bit float instead of 16-bit.
+   */
+  public AudioBufferPool(int nBuffers, int capacity, boolean isFloat) {
+    if (nBuffers <= 0 || capacity <= 0) {
+      throw new IllegalArgumentException("AudioBufferPool(): nBuffers and capacity must be positive.");
+    }
+    bufferCapacity = capacity;
+    this.isFloat = isFloat;
+    freeBuffers = new ArrayBlockingQueue<Buffer>(nBuffers);
+    for (int i = 0; i < nBuffers; i++) {
+      freeBuffers.add(new Buffer(this, capacity, isFloat));
+    }
+  }
+
+  /**
+   * Get a free buffer that will be released by nUsers consumers.
+   * @return null if all buffers are in use (consumers too slow).
+   */
+  public Buffer obtain(int nUsers) {
+    Buffer b = freeBuffers.poll();
+    if (b == null) {
+      exhaustedCount++;
+      return null;
+    }
+    b.refCount.set(nUsers);
+    b.setSize(0);
+    return b;
+  }
+
+  public int getBufferCapacity() {
+    return bufferCapacity;
+  }
+
+  public int getBytesPerSample() {
+    return isFloat ? 4 : 2;
+  }
+
+  public int getFreeCount() {
+    return freeBuffers.size();
+  }
+
+  // Number of obtain() that failed.
+  public long getExhaustedCount() {
+    return exhaustedCount;
+  }
+}
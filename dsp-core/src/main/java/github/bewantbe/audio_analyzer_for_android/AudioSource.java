@@ -0,0 +1,58 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+import java.io.IOException;
+
+/**
+ * A source of 16-bit audio samples for the analysis pipeline, mono or interleaved (see getChannels()):
+ * the microphone (AudioRecord), test signal generators, a WAV file or a PCM stream.
+ * Used by one thread at a time, except close() which may be called from another
+ * thread to unblock a pending read().
+ */
+
+public interface AudioSource {
+  /**
+   * Start delivering samples.
+   * @throws IOException if the source can not be used, e.g. AudioRecord failed to
+   *         initialize or the file does not exist.
+   */
+  void open() throws IOException;
+
+  /**
+   * Read up to len samples into buf[off..off+len), blocking until some are available.
+   * A paced source (microphone, or test signals in real time) returns at the rate of
+   * its sample rate, an unpaced one as fast as it can.
+   * @return number of samples read, 0 if none for now, negative at end of stream or on error.
+   */
+  int read(short[] buf, int off, int len);
+
+  // Actual sample rate, valid after open().
+  int getSampleRate();
+
+  // Number of interleaved channels, valid after open(). Counts of read() are in samples, not frames.
+  int getChannels();
+
+  // Number of samples delivered by read() so far.
+  long getFramePosition();
+
+  // System.nanoTime() at which the last sample returned by read() was captured (or generated), estimated.
+  long getTimestampNanos();
+
+  String getName();
+
+  void close();
+}
@@ -0,0 +1,76 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+/**
+ * Map dB value to a color of a palette, for drawing spectrogram.
+ * The division in the mapping is replaced by a precomputed scale, and the
+ * palette index is computed by integer truncation.
+ * palette[0] is for the upper bound (loudest), palette[length-1] for the lower bound.
+ */
+
+public class DBColorLUT {
+  private final int[] palette;
+  private final int last;
+  private double dBLower;
+  private double dBUpper;
+  private double scale;    // palette.length / (dBUpper - dBLower)
+
+  public DBColorLUT(int[] palette, double dBLower, double dBUpper) {
+    if (palette.length == 0) {
+      throw new IllegalArgumentException("DBColorLUT: empty palette");
+    }
+    this.palette = palette;
+    last = palette.length - 1;
+    setRange(dBLower, dBUpper);
+  }
+
+  public void setRange(double dBLower, double dBUpper) {
+    this.dBLower = dBLower;
+    this.dBUpper = dBUpper;
+    scale = palette.length / (dBUpper - dBLower);
+  }
+
+  public int color(double d) {
+    if (d >= dBUpper) {
+      return palette[0];
+    }
+    if (!(d > dBLower)) {  // also NaN and -Infinity
+      return palette[last];
+    }
+    int id = (int)((dBUpper - d) * scale);
+    return palette[id < last ? id : last];
+  }
+
+  // out[outOffset + i - from] = color(db[i]), for i in [from, to)
+  public void fill(float[] db, int from, int to, int[] out, int outOffset) {
+    int[] pal = palette;
+    double up = dBUpper, lo = dBLower, sc = scale;
+    for (int i = from; i < to; i++) {
+      double d = db[i];
+      int c;
+      if (d >= up) {
+        c = pal[0];
+      } else if (!(d > lo)) {
+        c = pal[last];
+      } else {
+        int id = (int)((up - d) * sc);
+        c = pal[id < last ? id : last];
+      }
+      out[outOffset + i - from] = c;
+    }
+  }
+}
@@ -0,0 +1,36 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An AudioSource that can deliver samples straight into a direct buffer,
+ * e.g. AudioRecord.read(ByteBuffer, int), so that no short[] copy is needed.
+ */
+
+public interface DirectAudioSource extends AudioSource {
+  /**
+   * Read samples (16-bit, or float if isFloat(), native byte order) to the beginning of buf,
+   * at most sizeInBytes bytes.
+   * Position and limit of buf are not changed.
+   * @return number of bytes read, see AudioSource.read() for 0 and negative values.
+   */
+  int read(ByteBuffer buf, int sizeInBytes);
+
+  // Samples of read(ByteBuffer, int) are 32-bit float in [-1, 1], valid after open().
+  boolean isFloat();
+}
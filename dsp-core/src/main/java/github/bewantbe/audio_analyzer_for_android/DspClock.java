@@ -0,0 +1,45 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+/**
+ * Monotonic clock for the DSP core, replacement of android.os.SystemClock.
+ * Use System.nanoTime() by default; the Android app plugs in SystemClock.uptimeMillis().
+ */
+
+public class DspClock {
+  public interface Source {
+    long uptimeMillis();
+  }
+
+  static class NanoTimeSource implements Source {
+    private final long t0 = System.nanoTime();
+    @Override
+    public long uptimeMillis() {
+      return (System.nanoTime() - t0) / 1000000;
+    }
+  }
+
+  private static volatile Source source = new NanoTimeSource();
+
+  public static void setSource(Source s) {
+    source = s == null ? new NanoTimeSource() : s;
+  }
+
+  public static long uptimeMillis() {
+    return source.uptimeMillis();
+  }
+}
@@ -0,0 +1,53 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+/**
+ * Logging for the DSP core, in the style of android.util.Log.
+ * Print to stderr by default, so that the core runs on a plain JVM.
+ * The Android app routes it to android.util.Log through setBackend().
+ */
+
+public class DspLog {
+  public interface Backend {
+    void d(String tag, String msg);
+    void i(String tag, String msg);
+    void w(String tag, String msg);
+    void e(String tag, String msg);
+  }
+
+  static class StdErrBackend implements Backend {
+    @Override public void d(String tag, String msg) { }  // too verbose for console
+    @Override public void i(String tag, String msg) { print("I", tag, msg); }
+    @Override public void w(String tag, String msg) { print("W", tag, msg); }
+    @Override public void e(String tag, String msg) { print("E", tag, msg); }
+
+    private void print(String level, String tag, String msg) {
+      System.err.println(level + "/" + tag + ": " + msg);
+    }
+  }
+
+  private static volatile Backend backend = new StdErrBackend();
+
+  public static void setBackend(Backend b) {
+    backend = b == null ? new StdErrBackend() : b;
+  }
+
+  public static void d(String tag, String msg) { backend.d(tag, msg); }
+  public static void i(String tag, String msg) { backend.i(tag, msg); }
+  public static void w(String tag, String msg) { backend.w(tag, msg); }
+  public static void e(String tag, String msg) { backend.e(tag, msg); }
+}
@@ -0,0 +1,139 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+/**
+ * Fast log10 and 10^x for dB conversion in hot loops.
+ * Three precision tiers:
+ *   EXACT  : java.lang.Math.
+ *   FAST   : table (1024 segments) with linear interpolation.
+ *            |error| of log10() < 6e-8 (i.e. < 6e-7 dB); relative error of pow10() < 1e-7.
+ *   COARSE : table (256 entries) without interpolation.
+ *            |error| of log10() < 1e-3 (i.e. < 0.01 dB); relative error of pow10() < 2e-3.
+ * Zero, negative, infinite, NaN and subnormal inputs fall back to Math, so the
+ * special values (-Infinity for log10(0) etc.) are the same in all tiers.
+ */
+
+public class DspMath {
+  public enum Precision { EXACT, FAST, COARSE }
+
+  private static volatile Precision precision = Precision.FAST;
+
+  public static void setPrecision(Precision p) {
+    precision = p == null ? Precision.FAST : p;
+  }
+
+  public static Precision getPrecision() {
+    return precision;
+  }
+
+  private static final double LOG10_2 = Math.log10(2);
+  private static final double LOG2_10 = Math.log(10) / Math.log(2);
+
+  private static final int FAST_BITS   = 10;
+  private static final int COARSE_BITS = 8;
+  private static final double[] log2Fast   = new double[(1<<FAST_BITS) + 1];  // log2(1 + i/1024)
+  private static final double[] log2Coarse = new double[1<<COARSE_BITS];      // log2 at centers of segments
+  private static final double[] exp2Fast   = new double[(1<<FAST_BITS) + 1];  // 2^(i/1024)
+  private static final double[] exp2Coarse = new double[1<<COARSE_BITS];      // 2^x at centers of segments
+
+  static {
+    double ln2 = Math.log(2);
+    for (int i = 0; i < log2Fast.length; i++) {
+      log2Fast[i] = Math.log(1 + (double)i / (1<<FAST_BITS)) / ln2;
+      exp2Fast[i] = Math.pow(2, (double)i / (1<<FAST_BITS));
+    }
+    for (int i = 0; i < log2Coarse.length; i++) {
+      log2Coarse[i] = Math.log(1 + (i + 0.5) / (1<<COARSE_BITS)) / ln2;
+      exp2Coarse[i] = Math.pow(2, (i + 0.5) / (1<<COARSE_BITS));
+    }
+  }
+
+  public static double log10(double x) {
+    return log10(x, precision);
+  }
+
+  public static double log10(double x, Precision p) {
+    switch (p) {
+      case FAST:   return log10Fast(x);
+      case COARSE: return log10Coarse(x);
+      default:     return Math.log10(x);
+    }
+  }
+
+  public static double log10Fast(double x) {
+    long bits = Double.doubleToRawLongBits(x);
+    int e = (int)(bits >>> 52);  // also include sign bit, so negative x goes to fallback
+    if (e == 0 || e >= 0x7ff) {
+      return Math.log10(x);
+    }
+    long m = bits & 0xfffffffffffffL;
+    int id = (int)(m >>> (52 - FAST_BITS));
+    double f = (m & ((1L << (52 - FAST_BITS)) - 1)) * (1.0 / (1L << (52 - FAST_BITS)));
+    double l2 = log2Fast[id] + f * (log2Fast[id+1] - log2Fast[id]);
+    return ((e - 1023) + l2) * LOG10_2;
+  }
+
+  public static double log10Coarse(double x) {
+    long bits = Double.doubleToRawLongBits(x);
+    int e = (int)(bits >>> 52);
+    if (e == 0 || e >= 0x7ff) {
+      return Math.log10(x);
+    }
+    int id = (int)((bits & 0xfffffffffffffL) >>> (52 - COARSE_BITS));
+    return ((e - 1023) + log2Coarse[id]) * LOG10_2;
+  }
+
+  // 10^x
+  public static double pow10(double x) {
+    return pow10(x, precision);
+  }
+
+  public static double pow10(double x, Precision p) {
+    if (p == Precision.EXACT) {
+      return Math.pow(10, x);
+    }
+    double y = x * LOG2_10;
+    if (!(y > -1022 && y < 1023)) {  // also catch NaN
+      return Math.pow(10, x);
+    }
+    double fl = Math.floor(y);
+    double scale = Double.longBitsToDouble((long)((int)fl + 1023) << 52);  // 2^fl
+    double f = y - fl;  // [0, 1)
+    if (p == Precision.FAST) {
+      double s = f * (1<<FAST_BITS);
+      int id = (int)s;
+      return scale * (exp2Fast[id] + (s - id) * (exp2Fast[id+1] - exp2Fast[id]));
+    } else {
+      return scale * exp2Coarse[(int)(f * (1<<COARSE_BITS))];
+    }
+  }
+
+  // Power to dB, i.e. 10*log10(p)
+  public static double powerToDB(double power, Precision p) {
+    return 10 * log10(power, p);
+  }
+
+  // dB to power, i.e. 10^(dB/10)
+  public static double dBToPower(double dB, Precision p) {
+    return pow10(0.1 * dB, p);
+  }
+
+  // Natural logarithm
+  public static double ln(double x, Precision p) {
+    return p == Precision.EXACT ? Math.log(x) : log10(x, p) * Math.log(10);
+  }
+}
@@ -0,0 +1,700 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Streaming FLAC encoder, pure Java.
+ * Each channel of a block is coded as CONSTANT, VERBATIM, FIXED (order 0~4)
+ * or LPC (order up to maxLpcOrder) subframe, whichever is shortest, with
+ * partitioned Rice coding of the residual. Channels are coded independently.
+ * All working memory is allocated in the constructor.
+ * Usage: write getHeader(), then bytes of each encodeFrame() from getFrameBuffer(),
+ * at the end call finish() and rewrite getHeader() at the start of the stream.
+ * Reference: https://xiph.org/flac/format.html
+ */
+
+public class FlacEncoder {
+  static final String TAG = "FlacEncoder";
+  public static final int HEADER_SIZE = 42;   // "fLaC" + STREAMINFO block
+
+  private static final int MAX_FIXED_ORDER     = 4;
+  private static final int MAX_PARTITION_ORDER = 8;
+  private static final int QLP_PRECISION       = 12;  // bits of quantized LPC coefficients
+
+  private final int sampleRate;
+  private final int channels;
+  private final int bps;          // bits per sample
+  private final int blockSize;
+  private final int maxLpcOrder;
+
+  private final int[][] chData;   // de-interleaved samples of current block
+  private int[] residual;         // candidate
+  private int[] bestResidual;
+  private final long[] partSum;   // sum of folded residual per partition
+  private final int[] riceParam;
+  private final double[] window;  // for LPC analysis
+  private int windowLen = -1;
+  private final double[] windowed;
+  private final double[] autoc;
+  private final double[] lpcTmp;
+  private final double[][] lpCoeff;
+  private final double[] lpError;
+  private final int[] qlpCoeff;
+  private final int[] bestQlpCoeff;
+
+  // Parameters of the best subframe found for current channel.
+  private int bestType;           // SUBFRAME_*
+  private int bestOrder;
+  private int bestShift;
+  private int bestPartOrder;
+  private static final int SUBFRAME_CONSTANT = 0;
+  private static final int SUBFRAME_VERBATIM = 1;
+  private static final int SUBFRAME_FIXED    = 2;
+  private static final int SUBFRAME_LPC      = 3;
+
+  private final byte[] frameBuf;
+  private int bitPos;             // in frameBuf, for bit writer
+  private long bitAcc;
+  private int bitAccLen;
+
+  private long frameNumber = 0;
+  private long totalSamples = 0;  // per channel
+  private int minFrameSize = Integer.MAX_VALUE;
+  private int maxFrameSize = 0;
+  private final MessageDigest md5;
+  private final byte[] md5Buf;
+  private byte[] md5Sum = new byte[16];
+
+  public FlacEncoder(int sampleRate, int channels, int bitsPerSample, int blockSize, int maxLpcOrder) {
+    if (sampleRate <= 0 || sampleRate >= (1 << 20)) {
+      throw new IllegalArgumentException("FlacEncoder(): invalid sample rate " + sampleRate);
+    }
+    if (channels < 1 || channels > 8) {
+      throw new IllegalArgumentException("FlacEncoder(): invalid number of channels " + channels);
+    }
+    if (bitsPerSample < 4 || bitsPerSample > 24) {
+      throw new IllegalArgumentException("FlacEncoder(): invalid bits per sample " + bitsPerSample);
+    }
+    if (blockSize < 16 || blockSize > 65535) {
+      throw new IllegalArgumentException("FlacEncoder(): invalid block size " + blockSize);
+    }
+    if (maxLpcOrder < 0 || maxLpcOrder > 32) {
+      throw new IllegalArgumentException("FlacEncoder(): invalid LPC order " + maxLpcOrder);
+    }
+    this.sampleRate  = sampleRate;
+    this.channels    = channels;
+    this.bps         = bitsPerSample;
+    this.blockSize   = blockSize;
+    this.maxLpcOrder = maxLpcOrder;
+
+    chData       = new int[channels][blockSize];
+    residual     = new int[blockSize];
+    bestResidual = new int[blockSize];
+    partSum      = new long[1 << MAX_PARTITION_ORDER];
+    riceParam    = new int[1 << MAX_PARTITION_ORDER];
+    window       = new double[blockSize];
+    windowed     = new double[blockSize];
+    autoc        = new double[maxLpcOrder + 1];
+    lpcTmp       = new double[maxLpcOrder + 1];
+    lpCoeff      = new double[maxLpcOrder + 1][maxLpcOrder + 1];
+    lpError      = new double[maxLpcOrder + 1];
+    qlpCoeff     = new int[maxLpcOrder + 1];
+    bestQlpCoeff = new int[maxLpcOrder + 1];
+    // Frame header (<= 16 bytes) + verbatim subframes + CRC, plus slack for alignment.
+    frameBuf = new byte[16 + channels * (2 + blockSize * bps / 8 + 1) + 2 + 8];
+
+    MessageDigest md = null;
+    try {
+      md = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      DspLog.w(TAG, "FlacEncoder(): MD5 not available, leave it blank.");
+    }
+    md5 = md;
+    md5Buf = new byte[blockSize * channels * ((bps + 7) / 8)];
+  }
+
+  public FlacEncoder(int sampleRate, int channels, int bitsPerSample) {
+    this(sampleRate, channels, bitsPerSample, 4096, 8);
+  }
+
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  public int getChannels() {
+    return channels;
+  }
+
+  // Samples per channel encoded so far.
+  public long getTotalSamples() {
+    return totalSamples;
+  }
+
+  public byte[] getFrameBuffer() {
+    return frameBuf;
+  }
+
+  // "fLaC" marker and STREAMINFO, reflecting the data encoded so far.
+  public byte[] getHeader() {
+    byte[] h = new byte[HEADER_SIZE];
+    h[0] = 'f';  h[1] = 'L';  h[2] = 'a';  h[3] = 'C';
+    h[4] = (byte) 0x80;  // last metadata block, type 0 (STREAMINFO)
+    h[5] = 0;  h[6] = 0;  h[7] = 34;
+    putBE(h, 8, blockSize, 2);  // min block size
+    putBE(h, 10, blockSize, 2); // max block size
+    putBE(h, 12, maxFrameSize == 0 ? 0 : minFrameSize, 3);
+    putBE(h, 15, maxFrameSize, 3);
+    long v = ((long) sampleRate << 44) | ((long) (channels - 1) << 41)
+        | ((long) (bps - 1) << 36) | (totalSamples & 0xFFFFFFFFFL);
+    putBE(h, 18, v, 8);
+    System.arraycopy(md5Sum, 0, h, 26, 16);
+    return h;
+  }
+
+  // Compute MD5 of all data encoded, for getHeader(). No more encodeFrame() after this.
+  public void finish() {
+    if (md5 != null) {
+      md5Sum = md5.digest();
+    }
+  }
+
+  /**
+   * Encode nFrames interleaved samples (nFrames <= block size; only the last
+   * block of a stream may be shorter).
+   * @return number of bytes in getFrameBuffer()
+   */
+  public int encodeFrame(short[] pcm, int offset, int nFrames) {
+    checkFrames(nFrames);
+    int k = offset;
+    for (int i = 0; i < nFrames; i++) {
+      for (int c = 0; c < channels; c++) {
+        chData[c][i] = pcm[k++];
+      }
+    }
+    return encodeFrame(nFrames);
+  }
+
+  // Same as above, for samples already right-justified in int (e.g. 24-bit).
+  public int encodeFrame(int[] pcm, int offset, int nFrames) {
+    checkFrames(nFrames);
+    int k = offset;
+    for (int i = 0; i < nFrames; i++) {
+      for (int c = 0; c < channels; c++) {
+        chData[c][i] = pcm[k++];
+      }
+    }
+    return encodeFrame(nFrames);
+  }
+
+  private void checkFrames(int nFrames) {
+    if (nFrames <= 0 || nFrames > blockSize) {
+      throw new IllegalArgumentException("FlacEncoder::encodeFrame(): invalid number of frames " + nFrames);
+    }
+  }
+
+  private int encodeFrame(int n) {
+    updateMD5(n);
+    bitPos = 0;
+    bitAcc = 0;
+    bitAccLen = 0;
+    // Frame header
+    writeBits(0xFFF8, 16);              // sync code, fixed block size
+    writeBits(0x70, 8);                 // block size in 16 bits at end, sample rate from STREAMINFO
+    writeBits(((channels - 1) << 4) | (sampleSizeCode(bps) << 1), 8);
+    writeUTF8(frameNumber);
+    writeBits(n - 1, 16);
+    flushBits();
+    writeBits(crc8(frameBuf, 0, bitPos), 8);
+    for (int c = 0; c < channels; c++) {
+      encodeSubframe(chData[c], n);
+    }
+    flushBits();                        // zero pad to byte
+    writeBits(crc16(frameBuf, 0, bitPos), 16);
+    flushBits();
+
+    frameNumber++;
+    totalSamples += n;
+    minFrameSize = Math.min(minFrameSize, bitPos);
+    maxFrameSize = Math.max(maxFrameSize, bitPos);
+    return bitPos;
+  }
+
+  private static int sampleSizeCode(int bps) {
+    switch (bps) {
+      case 8:  return 1;
+      case 12: return 2;
+      case 16: return 4;
+      case 20: return 5;
+      case 24: return 6;
+      default: return 0;  // from STREAMINFO
+    }
+  }
+
+  private void updateMD5(int n) {
+    if (md5 == null) return;
+    int nBytes = (bps + 7) / 8;
+    int k = 0;
+    for (int i = 0; i < n; i++) {
+      for (int c = 0; c < channels; c++) {
+        int v = chData[c][i];
+        for (int b = 0; b < nBytes; b++) {
+          md5Buf[k++] = (byte) (v >> (8 * b));
+        }
+      }
+    }
+    md5.update(md5Buf, 0, k);
+  }
+
+  /* Subframe */
+
+  private void encodeSubframe(int[] x, int n) {
+    boolean isConstant = true;
+    for (int i = 1; i < n; i++) {
+      if (x[i] != x[0]) {
+        isConstant = false;
+        break;
+      }
+    }
+    if (isConstant) {
+      writeBits(0, 8);   // zero pad, type 000000, no wasted bits
+      writeBits(x[0], bps);
+      return;
+    }
+
+    long bestBits = 8 + (long) n * bps;  // verbatim
+    bestType = SUBFRAME_VERBATIM;
+
+    // FIXED: choose order by sum of absolute residual, then get exact size.
+    int fixedOrder = guessFixedOrder(x, n);
+    computeFixedResidual(x, n, fixedOrder, residual);
+    long bits = 8 + (long) fixedOrder * bps + residualBits(residual, n, fixedOrder);
+    if (bits < bestBits) {
+      bestBits = bits;
+      bestType = SUBFRAME_FIXED;
+      bestOrder = fixedOrder;
+      swapResidual();
+    }
+
+    // LPC
+    int lpcOrder = Math.min(maxLpcOrder, n - 1);
+    if (lpcOrder > 0) {
+      lpcOrder = computeLpc(x, n, lpcOrder);
+      if (lpcOrder > 0) {
+        int shift = quantizeLpc(lpCoeff[lpcOrder - 1], lpcOrder, qlpCoeff);
+        if (shift >= 0) {
+          computeLpcResidual(x, n, qlpCoeff, lpcOrder, shift, residual);
+          bits = 8 + (long) lpcOrder * bps + 4 + 5 + lpcOrder * QLP_PRECISION
+              + residualBits(residual, n, lpcOrder);
+          if (bits < bestBits) {
+            bestBits = bits;
+            bestType = SUBFRAME_LPC;
+            bestOrder = lpcOrder;
+            bestShift = shift;
+            System.arraycopy(qlpCoeff, 0, bestQlpCoeff, 0, lpcOrder);
+            swapResidual();
+          }
+        }
+      }
+    }
+
+    switch (bestType) {
+      case SUBFRAME_FIXED:
+        writeBits(0x10 | (bestOrder << 1), 8);  // 001xxx
+        for (int i = 0; i < bestOrder; i++) {
+          writeBits(x[i], bps);
+        }
+        writeResidual(bestResidual, n, bestOrder);
+        break;
+      case SUBFRAME_LPC:
+        writeBits(0x40 | ((bestOrder - 1) << 1), 8);  // 1xxxxx
+        for (int i = 0; i < bestOrder; i++) {
+          writeBits(x[i], bps);
+        }
+        writeBits(QLP_PRECISION - 1, 4);
+        writeBits(bestShift, 5);
+        for (int i = 0; i < bestOrder; i++) {
+          writeBits(bestQlpCoeff[i], QLP_PRECISION);
+        }
+        writeResidual(bestResidual, n, bestOrder);
+        break;
+      default:
+        writeBits(0x02, 8);  // 000001
+        for (int i = 0; i < n; i++) {
+          writeBits(x[i], bps);
+        }
+    }
+  }
+
+  private void swapResidual() {
+    int[] t = bestResidual;
+    bestResidual = residual;
+    residual = t;
+  }
+
+  private static int guessFixedOrder(int[] x, int n) {
+    if (n <= MAX_FIXED_ORDER) {
+      return 0;
+    }
+    long e0 = 0, e1 = 0, e2 = 0, e3 = 0, e4 = 0;
+    int d0, d1, d2, d3;
+    int p0 = x[3];
+    int p1 = x[3] - x[2];
+    int p2 = p1 - (x[2] - x[1]);
+    int p3 = p2 - (x[2] - x[1] - (x[1] - x[0]));
+    for (int i = MAX_FIXED_ORDER; i < n; i++) {
+      d0 = x[i];
+      d1 = d0 - p0;
+      d2 = d1 - p1;
+      d3 = d2 - p2;
+      e0 += Math.abs(d0);
+      e1 += Math.abs(d1);
+      e2 += Math.abs(d2);
+      e3 += Math.abs(d3);
+      e4 += Math.abs(d3 - p3);
+      p0 = d0;
+      p1 = d1;
+      p2 = d2;
+      p3 = d3;
+    }
+    int order = 0;
+    long e = e0;
+    if (e1 < e) { e = e1; order = 1; }
+    if (e2 < e) { e = e2; order = 2; }
+    if (e3 < e) { e = e3; order = 3; }
+    if (e4 < e) { order = 4; }
+    return order;
+  }
+
+  private static void computeFixedResidual(int[] x, int n, int order, int[] r) {
+    switch (order) {
+      case 0:
+        System.arraycopy(x, 0, r, 0, n);
+        break;
+      case 1:
+        for (int i = 1; i < n; i++) r[i] = x[i] - x[i-1];
+        break;
+      case 2:
+        for (int i = 2; i < n; i++) r[i] = x[i] - 2*x[i-1] + x[i-2];
+        break;
+      case 3:
+        for (int i = 3; i < n; i++) r[i] = x[i] - 3*x[i-1] + 3*x[i-2] - x[i-3];
+        break;
+      default:
+        for (int i = 4; i < n; i++) r[i] = x[i] - 4*x[i-1] + 6*x[i-2] - 4*x[i-3] + x[i-4];
+    }
+  }
+
+  // Welch windowed autocorrelation and Levinson-Durbin recursion.
+  // Return the LPC order that is expected to give the fewest bits, 0 if LPC is useless.
+  private int computeLpc(int[] x, int n, int maxOrder) {
+    if (windowLen != n) {
+      double h = (n - 1) / 2.0;
+      double d = (n + 1) / 2.0;
+      for (int i = 0; i < n; i++) {
+        double t = (i - h) / d;
+        window[i] = 1 - t * t;
+      }
+      windowLen = n;
+    }
+    for (int i = 0; i < n; i++) {
+      windowed[i] = x[i] * window[i];
+    }
+    for (int lag = 0; lag <= maxOrder; lag++) {
+      double s = 0;
+      for (int i = lag; i < n; i++) {
+        s += windowed[i] * windowed[i - lag];
+      }
+      autoc[lag] = s;
+    }
+    if (autoc[0] == 0) {
+      return 0;
+    }
+    double err = autoc[0];
+    int order = maxOrder;
+    for (int i = 0; i < maxOrder; i++) {
+      double r = -autoc[i + 1];
+      for (int j = 0; j < i; j++) {
+        r -= lpcTmp[j] * autoc[i - j];
+      }
+      r /= err;
+      lpcTmp[i] = r;
+      int j;
+      for (j = 0; j < (i >> 1); j++) {
+        double t = lpcTmp[j];
+        lpcTmp[j] += r * lpcTmp[i - 1 - j];
+        lpcTmp[i - 1 - j] += r * t;
+      }
+      if ((i & 1) != 0) {
+        lpcTmp[j] += lpcTmp[j] * r;
+      }
+      err *= (1.0 - r * r);
+      for (j = 0; j <= i; j++) {
+        lpCoeff[i][j] = -lpcTmp[j];  // predictor coefficients
+      }
+      lpError[i] = err;
+      if (err <= 0) {
+        order = i + 1;
+        break;
+      }
+    }
+    // Pick the order with least estimated bits.
+    int bestOrder = 0;
+    double bestBits = Double.MAX_VALUE;
+    for (int i = 0; i < order; i++) {
+      double bitsPerSample = lpError[i] > 0 ? 0.5 * Math.log(lpError[i] * 0.5 / n) / Math.log(2) : 0;
+      double bits = (n - i - 1) * Math.max(bitsPerSample, 0) + (i + 1) * (bps + QLP_PRECISION);
+      if (bits < bestBits) {
+        bestBits = bits;
+        bestOrder = i + 1;
+      }
+    }
+    return bestOrder;
+  }
+
+  // Quantize predictor coefficients to QLP_PRECISION bits. Return the shift, -1 if not representable.
+  private static int quantizeLpc(double[] lp, int order, int[] q) {
+    double cmax = 0;
+    for (int i = 0; i < order; i++) {
+      cmax = Math.max(cmax, Math.abs(lp[i]));
+    }
+    if (cmax <= 0 || Double.isNaN(cmax) || Double.isInfinite(cmax)) {
+      return -1;
+    }
+    // cmax < 2^log2cmax. (Math.getExponent() needs API level 9)
+    int log2cmax = (int) ((Double.doubleToRawLongBits(cmax) >>> 52) & 0x7FF) - 1023 + 1;
+    int shift = Math.min(QLP_PRECISION - 1 - log2cmax, 15);
+    if (shift < 0) {
+      return -1;
+    }
+    int qmax = (1 << (QLP_PRECISION - 1)) - 1;
+    int qmin = -(1 << (QLP_PRECISION - 1));
+    double scale = 1 << shift;
+    double e = 0;
+    for (int i = 0; i < order; i++) {
+      e += lp[i] * scale;
+      long v = Math.round(e);
+      int qi = (int) Math.max(qmin, Math.min(qmax, v));
+      e -= qi;
+      q[i] = qi;
+    }
+    return shift;
+  }
+
+  private static void computeLpcResidual(int[] x, int n, int[] q, int order, int shift, int[] r) {
+    for (int i = order; i < n; i++) {
+      long s = 0;
+      for (int j = 0; j < order; j++) {
+        s += (long) q[j] * x[i - 1 - j];
+      }
+      r[i] = x[i] - (int) (s >> shift);
+    }
+  }
+
+  /* Residual coding */
+
+  private static int fold(int r) {
+    return (r << 1) ^ (r >> 31);
+  }
+
+  private int maxRiceParam() {
+    return bps > 16 ? 30 : 14;
+  }
+
+  // Rice parameter for a partition of n samples with sum s of folded residual.
+  private int riceParamFor(long s, int n) {
+    int k = 0;
+    while (k < maxRiceParam() && ((long) n << (k + 1)) < s) {
+      k++;
+    }
+    return k;
+  }
+
+  private int maxPartitionOrder(int n, int predOrder) {
+    int p = 0;
+    while (p < MAX_PARTITION_ORDER && (n & ((2 << p) - 1)) == 0 && (n >> (p + 1)) > predOrder) {
+      p++;
+    }
+    return p;
+  }
+
+  // Choose partition order and Rice parameters (into bestPartOrder and riceParam),
+  // return exact number of bits of the coded residual.
+  private long residualBits(int[] r, int n, int predOrder) {
+    int maxP = maxPartitionOrder(n, predOrder);
+    int nPart = 1 << maxP;
+    int ps = n >> maxP;
+    for (int p = 0; p < nPart; p++) {
+      long s = 0;
+      int i0 = p == 0 ? predOrder : p * ps;
+      for (int i = i0; i < (p + 1) * ps; i++) {
+        s += fold(r[i]) & 0xFFFFFFFFL;
+      }
+      partSum[p] = s;
+    }
+    int paramLen = bps > 16 ? 5 : 4;
+    int partOrder = maxP;
+    long best = Long.MAX_VALUE;
+    for (int po = maxP; po >= 0; po--) {
+      int np = 1 << po;
+      int psz = n >> po;
+      long est = 0;
+      for (int p = 0; p < np; p++) {
+        int cnt = p == 0 ? psz - predOrder : psz;
+        int k = riceParamFor(partSum[p], cnt);
+        est += paramLen + (long) cnt * (k + 1) + (partSum[p] >> k);
+      }
+      if (est < best) {
+        best = est;
+        partOrder = po;
+      }
+      for (int p = 0; p < np / 2; p++) {  // merge for next order
+        partSum[p] = partSum[2 * p] + partSum[2 * p + 1];
+      }
+    }
+    // Exact size with chosen partitioning.
+    int np = 1 << partOrder;
+    int psz = n >> partOrder;
+    long bits = 2 + 4;
+    for (int p = 0; p < np; p++) {
+      int i0 = p == 0 ? predOrder : p * psz;
+      int i1 = (p + 1) * psz;
+      long s = 0;
+      for (int i = i0; i < i1; i++) {
+        s += fold(r[i]) & 0xFFFFFFFFL;
+      }
+      int k = riceParamFor(s, i1 - i0);
+      riceParam[p] = k;
+      long b = paramLen + (long) (i1 - i0) * (k + 1);
+      for (int i = i0; i < i1; i++) {
+        b += (fold(r[i]) & 0xFFFFFFFFL) >>> k;
+      }
+      bits += b;
+    }
+    bestPartOrder = partOrder;
+    return bits;
+  }
+
+  // Write residual of the best subframe. Partition layout is recomputed, since
+  // residualBits() may have been called for other candidates afterwards.
+  private void writeResidual(int[] r, int n, int predOrder) {
+    residualBits(r, n, predOrder);
+    int paramLen = bps > 16 ? 5 : 4;
+    writeBits(bps > 16 ? 1 : 0, 2);   // RICE or RICE2
+    writeBits(bestPartOrder, 4);
+    int np = 1 << bestPartOrder;
+    int psz = n >> bestPartOrder;
+    for (int p = 0; p < np; p++) {
+      int k = riceParam[p];
+      writeBits(k, paramLen);
+      int i1 = (p + 1) * psz;
+      for (int i = p == 0 ? predOrder : p * psz; i < i1; i++) {
+        int u = fold(r[i]);
+        writeUnary(u >>> k);
+        if (k > 0) {
+          writeBits(u & ((1 << k) - 1), k);
+        }
+      }
+    }
+  }
+
+  /* Bit writer */
+
+  // Write lowest nBits (<= 32) of v, MSB first.
+  private void writeBits(int v, int nBits) {
+    bitAcc = (bitAcc << nBits) | (v & (0xFFFFFFFFL >>> (32 - nBits)));
+    bitAccLen += nBits;
+    while (bitAccLen >= 8) {
+      bitAccLen -= 8;
+      frameBuf[bitPos++] = (byte) (bitAcc >>> bitAccLen);
+    }
+  }
+
+  // q zeros followed by a one.
+  private void writeUnary(int q) {
+    while (q >= 32) {
+      writeBits(0, 32);
+      q -= 32;
+    }
+    writeBits(1, q + 1);
+  }
+
+  // Pad to byte boundary with zeros.
+  private void flushBits() {
+    if (bitAccLen > 0) {
+      writeBits(0, 8 - bitAccLen);
+    }
+  }
+
+  private void writeUTF8(long v) {
+    if (v < 0x80) {
+      writeBits((int) v, 8);
+      return;
+    }
+    int nBytes = v < 0x800 ? 2 : v < 0x10000 ? 3 : v < 0x200000 ? 4
+        : v < 0x4000000 ? 5 : v < 0x80000000L ? 6 : 7;
+    int shift = 6 * (nBytes - 1);
+    int lead = nBytes == 7 ? 0xFE : (0xFF00 >> nBytes) & 0xFF;
+    writeBits(lead | (int) (v >>> shift), 8);
+    for (shift -= 6; shift >= 0; shift -= 6) {
+      writeBits(0x80 | (int) ((v >>> shift) & 0x3F), 8);
+    }
+  }
+
+  private static void putBE(byte[] b, int pos, long v, int nBytes) {
+    for (int i = nBytes - 1; i >= 0; i--) {
+      b[pos + i] = (byte) v;
+      v >>>= 8;
+    }
+  }
+
+  /* CRC */
+
+  private static final int[] CRC8_TABLE  = new int[256];
+  private static final int[] CRC16_TABLE = new int[256];
+  static {
+    for (int i = 0; i < 256; i++) {
+      int c = i;
+      for (int j = 0; j < 8; j++) {
+        c = (c & 0x80) != 0 ? (c << 1) ^ 0x07 : c << 1;
+      }
+      CRC8_TABLE[i] = c & 0xFF;
+      c = i << 8;
+      for (int j = 0; j < 8; j++) {
+        c = (c & 0x8000) != 0 ? (c << 1) ^ 0x8005 : c << 1;
+      }
+      CRC16_TABLE[i] = c & 0xFFFF;
+    }
+  }
+
+  private static int crc8(byte[] b, int from, int to) {
+    int c = 0;
+    for (int i = from; i < to; i++) {
+      c = CRC8_TABLE[(c ^ b[i]) & 0xFF];
+    }
+    return c;
+  }
+
+  private static int crc16(byte[] b, int from, int to) {
+    int c = 0;
+    for (int i = from; i < to; i++) {
+      c = ((c << 8) ^ CRC16_TABLE[((c >> 8) ^ b[i]) & 0xFF]) & 0xFFFF;
+    }
+    return c;
+  }
+}
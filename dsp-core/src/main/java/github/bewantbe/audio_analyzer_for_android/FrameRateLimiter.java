@@ -0,0 +1,41 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+/**
+ * Block the calling thread so that it runs at a given rate on average.
+ * e.g. let a synthetic signal source behave as if read from real device.
+ */
+
+public class FrameRateLimiter {
+    private static final String TAG = "FrameRateLimiter";
+    private double baseTimeMs = DspClock.uptimeMillis();
+
+    // Limit the frame rate by wait `delay' ms.
+    public void limit(double updateMs) {
+        baseTimeMs += updateMs;
+        long delay = (int) (baseTimeMs - DspClock.uptimeMillis());
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                DspLog.i(TAG, "Sleep interrupted");  // seems never reached
+            }
+        } else {
+            baseTimeMs -= delay;  // get current time
+        }
+    }
+}
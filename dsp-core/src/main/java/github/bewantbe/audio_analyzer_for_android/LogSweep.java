@@ -0,0 +1,70 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+/**
+ * Exponential (log) sine sweep from f0 to f1 in a given time, repeated.
+ * Instantaneous frequency f0 * (f1/f0)^(t/T), phase kept in a 64-bit accumulator
+ * as in Nco, and restarted exactly at each sweep so that repeats are identical.
+ */
+
+public class LogSweep implements SignalGenerator {
+  private final double amplitude;
+  private final int sweepLen;       // samples per sweep
+  private final double incStart;    // phase increment at f0, in 1/2^64 cycle
+  private final double ratio;       // increment multiplier per sample
+  private int pos;                  // position in current sweep
+  private long phase;
+  private double inc;
+
+  /**
+   * @param f0        start frequency (Hz), in (0, fs/2)
+   * @param f1        end frequency (Hz), in (0, fs/2)
+   * @param seconds   duration of one sweep
+   * @param fs        sampling rate (Hz)
+   * @param a         amplitude
+   */
+  public LogSweep(double f0, double f1, double seconds, double fs, double a) {
+    if (f0 <= 0 || f1 <= 0 || f0 >= fs / 2 || f1 >= fs / 2 || seconds * fs < 1) {
+      throw new IllegalArgumentException("LogSweep(): should 0 < f0, f1 < fs/2 and at least one sample per sweep.");
+    }
+    amplitude = a;
+    sweepLen = (int) Math.round(seconds * fs);
+    incStart = f0 / fs * 0x1p64;
+    ratio = Math.pow(f1 / f0, 1.0 / sweepLen);
+    restart();
+  }
+
+  private void restart() {
+    pos = 0;
+    phase = 0;
+    inc = incStart;
+  }
+
+  @Override
+  public void addSamples(double[] samples, int start, int count) {
+    double a = amplitude;
+    for (int i = start; i < start + count; i++) {
+      if (pos == sweepLen) {
+        restart();
+      }
+      samples[i] += a * Nco.sin(phase);
+      phase += (long) inc;    // inc < 2^63 since f < fs/2
+      inc *= ratio;
+      pos++;
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+/**
+ * Sum of sine tones of equal amplitude, with Schroeder phases
+ * (phi_k = -pi k (k-1) / N) so that the crest factor stays low.
+ */
+
+public class MultiTone implements SignalGenerator {
+  private final Nco[] tones;
+
+  /**
+   * @param freqs  frequencies of tones (Hz)
+   * @param fs     sampling rate (Hz)
+   * @param a      amplitude of each tone
+   */
+  public MultiTone(double[] freqs, double fs, double a) {
+    int n = freqs.length;
+    tones = new Nco[n];
+    for (int k = 0; k < n; k++) {
+      tones[k] = new Nco(freqs[k], fs, a, -Math.PI * k * (k - 1) / n);
+    }
+  }
+
+  // Tones at f0, f0*step, f0*step^2, ... below fMax. e.g. step = 2 for octaves.
+  public static double[] logSpacedFreqs(double f0, double fMax, double step) {
+    if (f0 <= 0 || step <= 1) {
+      throw new IllegalArgumentException("MultiTone::logSpacedFreqs(): should f0 > 0 and step > 1.");
+    }
+    int n = 0;
+    for (double f = f0; f < fMax; f *= step) {
+      n++;
+    }
+    double[] freqs = new double[n];
+    double f = f0;
+    for (int k = 0; k < n; k++, f *= step) {
+      freqs[k] = f;
+    }
+    return freqs;
+  }
+
+  @Override
+  public void addSamples(double[] samples, int start, int count) {
+    for (Nco t : tones) {
+      t.addSamples(samples, start, count);
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+/**
+ * Numerically controlled oscillator: sine wave from a 64-bit phase accumulator
+ * and a table with linear interpolation.
+ * Unlike the recursion in SineGenerator, the phase is exact integer arithmetic,
+ * so frequency and amplitude do not drift however long it runs.
+ * Spurs of the table lookup are below -130 dB.
+ */
+
+public class Nco implements SignalGenerator {
+  static final int TABLE_BITS = 12;
+  private static final int FRAC_BITS = 64 - TABLE_BITS;
+  private static final double FRAC_SCALE = 1.0 / (1L << FRAC_BITS);
+  private static final double[] SINE_TABLE = new double[(1 << TABLE_BITS) + 1];
+  static {
+    for (int i = 0; i < SINE_TABLE.length; i++) {
+      SINE_TABLE[i] = Math.sin(2 * Math.PI * i / (1 << TABLE_BITS));
+    }
+  }
+
+  private final double fs;
+  private long phase;       // 2^64 is one cycle
+  private long increment;   // phase change per sample
+  private double amplitude;
+
+  /**
+   * @param f      frequency (Hz)
+   * @param fs     sampling rate (Hz)
+   * @param a      amplitude
+   * @param phase  initial phase (radian)
+   */
+  public Nco(double f, double fs, double a, double phase) {
+    this.fs = fs;
+    this.amplitude = a;
+    setF(f);
+    setPhase(phase);
+  }
+
+  public Nco(double f, double fs, double a) {
+    this(f, fs, a, 0);
+  }
+
+  // Phase (in cycles, [-0.5, 0.5)) to the 64-bit representation.
+  static long cyclesToPhase(double cycles) {
+    cycles -= Math.floor(cycles + 0.5);
+    return Math.round(cycles * 0x1p64);  // in [-2^63, 2^63), fits in long
+  }
+
+  // Set the new frequency, maintaining the phase.
+  public void setF(double f) {
+    increment = cyclesToPhase(f / fs);
+  }
+
+  public double getF() {
+    return increment * 0x1p-64 * fs;
+  }
+
+  public void setPhase(double phase) {
+    this.phase = cyclesToPhase(phase / (2 * Math.PI));
+  }
+
+  public void setAmplitude(double a) {
+    amplitude = a;
+  }
+
+  // sin(2 pi p / 2^64), interpolated.
+  static double sin(long p) {
+    int i = (int) (p >>> FRAC_BITS);
+    double frac = (p & ((1L << FRAC_BITS) - 1)) * FRAC_SCALE;
+    double s0 = SINE_TABLE[i];
+    return s0 + (SINE_TABLE[i + 1] - s0) * frac;
+  }
+
+  @Override
+  public void addSamples(double[] samples, int start, int count) {
+    long p = phase;
+    long inc = increment;
+    double a = amplitude;
+    for (int i = start; i < start + count; i++) {
+      samples[i] += a * sin(p);
+      p += inc;
+    }
+    phase = p;
+  }
+
+  public double getFs() {
+    return fs;
+  }
+}
@@ -0,0 +1,95 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+/**
+ * White, pink (-3 dB/octave) or brown (-6 dB/octave) noise from a seeded
+ * xorshift64* generator. The same seed gives the same samples on any device.
+ * White noise is uniform in [-a, a). Pink and brown noise are filtered white
+ * noise scaled to about the same RMS (a/sqrt(3)), with occasional peaks above a.
+ */
+
+public class NoiseGenerator implements SignalGenerator {
+  public static final int WHITE = 0;
+  public static final int PINK  = 1;
+  public static final int BROWN = 2;
+
+  private final int color;
+  private final double amplitude;
+  private long state;
+  // Filter states: Paul Kellet's pink noise filter, and the leaky integrator for brown noise.
+  private double b0, b1, b2, b3, b4, b5, b6;
+  private double brown;
+
+  public NoiseGenerator(int color, double a, long seed) {
+    if (color < WHITE || color > BROWN) {
+      throw new IllegalArgumentException("NoiseGenerator(): No this noise color = " + color);
+    }
+    this.color = color;
+    this.amplitude = a;
+    // xorshift has a zero fixed point, so mix the seed (splitmix64) into a non-zero state.
+    long z = seed + 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    state = z ^ (z >>> 31);
+    if (state == 0) {
+      state = 0x9E3779B97F4A7C15L;
+    }
+  }
+
+  // Next uniform random number in [-1, 1).
+  private double next() {
+    long x = state;
+    x ^= x >>> 12;
+    x ^= x << 25;
+    x ^= x >>> 27;
+    state = x;
+    return ((x * 0x2545F4914F6CDD1DL) >> 11) * 0x1p-52;
+  }
+
+  @Override
+  public void addSamples(double[] samples, int start, int count) {
+    double a = amplitude;
+    int end = start + count;
+    switch (color) {
+      case WHITE:
+        for (int i = start; i < end; i++) {
+          samples[i] += a * next();
+        }
+        break;
+      case PINK:
+        a *= 0.33;  // RMS of the filter output is about 3x of its input
+        for (int i = start; i < end; i++) {
+          double w = next();
+          b0 = 0.99886 * b0 + w * 0.0555179;
+          b1 = 0.99332 * b1 + w * 0.0750759;
+          b2 = 0.96900 * b2 + w * 0.1538520;
+          b3 = 0.86650 * b3 + w * 0.3104856;
+          b4 = 0.55000 * b4 + w * 0.5329522;
+          b5 = -0.7616 * b5 - w * 0.0168980;
+          samples[i] += a * (b0 + b1 + b2 + b3 + b4 + b5 + b6 + w * 0.5362);
+          b6 = w * 0.115926;
+        }
+        break;
+      case BROWN:
+        for (int i = start; i < end; i++) {
+          brown = (brown + 0.02 * next()) * (1 / 1.02);
+          samples[i] += a * 10 * brown;   // RMS of brown is about 0.1x of its input
+        }
+        break;
+    }
+  }
+}
@@ -0,0 +1,265 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parallel version of WavFileAnalyzer.analyse(), for long recordings on multi-core machines.
+ * FFT frames are independent apart from the overlap of their windows, so the frames are
+ * cut into ranges of RANGE_FRAMES, each range reads its own (overlapping) samples and runs
+ * on a ForkJoinPool. Every worker thread has its own workspace (file mapping, STFT, buffer).
+ * Ranges are processed in batches, and the listener is called in frame order on the
+ * calling thread, with values bit-identical to the sequential analyse().
+ * Note: ForkJoinPool is available on Android only since API 21.
+ */
+
+public class ParallelWavAnalyzer {
+  private static final String TAG = "ParallelWavAnalyzer";
+  static final int RANGE_FRAMES = 64;
+  static final int RANGES_PER_THREAD = 4;   // ranges of one batch, per thread
+
+  private final File file;
+  private final WavFileAnalyzer header;
+  private final ForkJoinPool pool;
+  private volatile boolean isCancelled = false;
+  private long elapsedNs;
+  private double audioSeconds;
+
+  // Buffers of one thread, reused for all ranges that thread runs.
+  private static class Workspace {
+    final WavFileAnalyzer reader;
+    final STFT stft;
+    final float[] buf;
+
+    Workspace(File file, int fftLen, int hopLen, String wndName, boolean useFloat) throws IOException {
+      reader = new WavFileAnalyzer(file);
+      stft = new STFT(fftLen, hopLen, reader.getSampleRate(), wndName, useFloat);
+      buf = new float[fftLen];
+    }
+  }
+
+  // Output of one range of frames.
+  private static class RangeResult implements WavFileAnalyzer.Listener {
+    final double[][] spectrumDB;
+    final double[] peakFreq;
+    final double[] peakDB;
+    final double[] rms;
+    long f0;
+    int n;
+
+    RangeResult(int nBins) {
+      spectrumDB = new double[RANGE_FRAMES][nBins];
+      peakFreq = new double[RANGE_FRAMES];
+      peakDB   = new double[RANGE_FRAMES];
+      rms      = new double[RANGE_FRAMES];
+    }
+
+    @Override
+    public void onFrame(long frame, double[] db, double pf, double pdb, double r) {
+      int i = (int) (frame - f0);
+      System.arraycopy(db, 0, spectrumDB[i], 0, db.length);
+      peakFreq[i] = pf;
+      peakDB[i]   = pdb;
+      rms[i]      = r;
+      n = i + 1;
+    }
+  }
+
+  public ParallelWavAnalyzer(File file, int parallelism) throws IOException {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("ParallelWavAnalyzer(): should parallelism >= 1.");
+    }
+    this.file = file;
+    header = new WavFileAnalyzer(file);  // validate the file, and get its format
+    pool = new ForkJoinPool(parallelism);
+  }
+
+  public ParallelWavAnalyzer(File file) throws IOException {
+    this(file, Runtime.getRuntime().availableProcessors());
+  }
+
+  public int getSampleRate() {
+    return header.getSampleRate();
+  }
+
+  public long getFrameCount() {
+    return header.getFrameCount();
+  }
+
+  public void setChannel(int channel) {
+    header.setChannel(channel);
+  }
+
+  // Stop a running analyse() after the current batch. Can be called from any thread.
+  public void cancel() {
+    isCancelled = true;
+  }
+
+  /**
+   * Same as WavFileAnalyzer.analyse(), using all threads of the pool.
+   * @return number of FFT frames produced.
+   */
+  public long analyse(int fftLen, int hopLen, String wndName, boolean useFloat,
+                      WavFileAnalyzer.Listener listener) throws IOException {
+    if (hopLen <= 0 || hopLen > fftLen) {
+      throw new IllegalArgumentException("ParallelWavAnalyzer::analyse(): should 1 <= hopLen <= fftLen.");
+    }
+    long t0 = System.nanoTime();
+    isCancelled = false;
+    Batch batch = new Batch(fftLen, hopLen, wndName, useFloat);
+    long done = 0;
+    try {
+      while (done < batch.nFFT && !isCancelled) {
+        int nBatch = batch.start(done);
+        try {
+          pool.invoke(new RangeTask(batch, 0, nBatch));
+        } catch (RuntimeException e) {
+          // ForkJoinPool may wrap the exception again when it comes from another thread.
+          for (Throwable c = e; c != null; c = c.getCause()) {
+            if (c instanceof IOException) {
+              throw (IOException) c;
+            }
+          }
+          throw e;
+        }
+        // Deliver in order.
+        for (int r = 0; r < nBatch; r++) {
+          RangeResult res = batch.results[r];
+          for (int i = 0; i < res.n; i++) {
+            listener.onFrame(res.f0 + i, res.spectrumDB[i], res.peakFreq[i], res.peakDB[i], res.rms[i]);
+          }
+          done += res.n;
+        }
+      }
+    } finally {
+      batch.close();
+    }
+    elapsedNs = System.nanoTime() - t0;
+    audioSeconds = done == 0 ? 0 : ((done - 1) * hopLen + fftLen) / (double) header.getSampleRate();
+    DspLog.i(TAG, "analyse(): " + done + " frames of " + fftLen + " points on "
+        + pool.getParallelism() + " threads, "
+        + String.format("%.1f", getRealtimeFactor()) + "x realtime");
+    return done;
+  }
+
+  // State of one analyse() call: parameters, results of the current batch and workspaces.
+  private class Batch {
+    final int fftLen, hopLen;
+    final String wndName;
+    final boolean useFloat;
+    final long nFFT;
+    final int channel;
+    final RangeResult[] results;
+    final List<Workspace> workspaces = new ArrayList<Workspace>();
+    final ThreadLocal<Workspace> local = new ThreadLocal<Workspace>();
+    long batchStart;
+
+    Batch(int fftLen, int hopLen, String wndName, boolean useFloat) {
+      this.fftLen   = fftLen;
+      this.hopLen   = hopLen;
+      this.wndName  = wndName;
+      this.useFloat = useFloat;
+      nFFT = WavFileAnalyzer.fftFrameCount(header.getFrameCount(), fftLen, hopLen);
+      channel = header.getChannel();
+      results = new RangeResult[pool.getParallelism() * RANGES_PER_THREAD];
+      for (int i = 0; i < results.length; i++) {
+        results[i] = new RangeResult(fftLen / 2 + 1);
+      }
+    }
+
+    // Set up a batch from frame f0, return the number of ranges in it.
+    int start(long f0) {
+      batchStart = f0;
+      return (int) Math.min(results.length, (nFFT - f0 + RANGE_FRAMES - 1) / RANGE_FRAMES);
+    }
+
+    void run(int r) throws IOException {
+      Workspace ws = local.get();
+      if (ws == null) {
+        ws = new Workspace(file, fftLen, hopLen, wndName, useFloat);
+        if (channel >= 0) {
+          ws.reader.setChannel(channel);
+        }
+        synchronized (workspaces) {
+          workspaces.add(ws);
+        }
+        local.set(ws);
+      }
+      RangeResult res = results[r];
+      res.f0 = batchStart + (long) r * RANGE_FRAMES;
+      res.n = 0;
+      ws.reader.analyseRange(ws.stft, fftLen, ws.buf, res.f0,
+                             Math.min(res.f0 + RANGE_FRAMES, nFFT), res);
+    }
+
+    void close() throws IOException {
+      synchronized (workspaces) {
+        for (Workspace ws : workspaces) {
+          ws.reader.close();
+        }
+      }
+    }
+  }
+
+  // Split ranges [r0, r1) of a batch in halves, down to one range per task.
+  private static class RangeTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    final Batch batch;
+    final int r0, r1;
+
+    RangeTask(Batch batch, int r0, int r1) {
+      this.batch = batch;
+      this.r0 = r0;
+      this.r1 = r1;
+    }
+
+    @Override
+    protected void compute() {
+      if (r1 - r0 == 1) {
+        try {
+          batch.run(r0);
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+        return;
+      }
+      int mid = (r0 + r1) >>> 1;
+      invokeAll(new RangeTask(batch, r0, mid), new RangeTask(batch, mid, r1));
+    }
+  }
+
+  public double getRealtimeFactor() {
+    if (elapsedNs <= 0) {
+      return 0;
+    }
+    return audioSeconds / (elapsedNs * 1e-9);
+  }
+
+  public long getElapsedNanos() {
+    return elapsedNs;
+  }
+
+  public void close() throws IOException {
+    pool.shutdown();
+    header.close();
+  }
+}
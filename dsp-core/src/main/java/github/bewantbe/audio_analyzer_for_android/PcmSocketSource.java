@@ -0,0 +1,149 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * Read raw PCM (16-bit signed little-endian, mono) from a TCP server as an AudioSource,
+ * e.g. audio streamed by another process or computer. Paced by the sender.
+ */
+
+public class PcmSocketSource implements AudioSource {
+  private static final String TAG = "PcmSocketSource";
+  static final int CONNECT_TIMEOUT_MS = 5000;
+  static final int READ_TIMEOUT_MS = 200;     // so that the reading thread can notice a stop
+
+  private final String host;
+  private final int port;
+  private final int sampleRate;
+  private volatile Socket socket;
+  private InputStream in;
+  private byte[] bytes = new byte[0];
+  private int pendingByte = -1;   // first byte of a sample split between two reads
+  private long framePosition;
+  private long timestampNanos;
+
+  public PcmSocketSource(String host, int port, int sampleRate) {
+    this.host = host;
+    this.port = port;
+    this.sampleRate = sampleRate;
+  }
+
+  // address: "host:port"
+  public static PcmSocketSource fromAddress(String address, int sampleRate) {
+    int i = address.lastIndexOf(':');
+    if (i <= 0) {
+      throw new IllegalArgumentException("PcmSocketSource::fromAddress(): should be host:port, got " + address);
+    }
+    return new PcmSocketSource(address.substring(0, i),
+        Integer.parseInt(address.substring(i + 1).trim()), sampleRate);
+  }
+
+  @Override
+  public void open() throws IOException {
+    Socket s = new Socket();
+    try {
+      s.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+      s.setTcpNoDelay(true);
+      s.setSoTimeout(READ_TIMEOUT_MS);
+      in = s.getInputStream();
+    } catch (IOException e) {
+      s.close();
+      throw e;
+    }
+    socket = s;
+    framePosition = 0;
+    pendingByte = -1;
+    DspLog.i(TAG, "open(): connected to " + host + ":" + port);
+  }
+
+  @Override
+  public int read(short[] buf, int off, int len) {
+    if (bytes.length < 2 * len) {
+      bytes = new byte[2 * len];
+    }
+    int nBytes = 0;
+    if (pendingByte >= 0) {
+      bytes[nBytes++] = (byte) pendingByte;
+      pendingByte = -1;
+    }
+    try {
+      int r = in.read(bytes, nBytes, 2 * len - nBytes);
+      if (r < 0) {
+        return -1;  // closed by sender
+      }
+      nBytes += r;
+    } catch (SocketTimeoutException e) {
+      // nothing arrived for now
+    } catch (IOException e) {
+      DspLog.w(TAG, "read(): " + e);
+      return -1;
+    }
+    int n = nBytes / 2;
+    if ((nBytes & 1) != 0) {
+      pendingByte = bytes[nBytes - 1] & 0xFF;
+    }
+    for (int i = 0; i < n; i++) {
+      buf[off + i] = (short) ((bytes[2 * i] & 0xFF) | (bytes[2 * i + 1] << 8));
+    }
+    framePosition += n;
+    timestampNanos = System.nanoTime();
+    return n;
+  }
+
+  @Override
+  public int getSampleRate() {
+    return sampleRate;
+  }
+
+  @Override
+  public int getChannels() {
+    return 1;
+  }
+
+  @Override
+  public long getFramePosition() {
+    return framePosition;
+  }
+
+  @Override
+  public long getTimestampNanos() {
+    return timestampNanos;
+  }
+
+  @Override
+  public String getName() {
+    return "PCM from " + host + ":" + port;
+  }
+
+  @Override
+  public void close() {
+    Socket s = socket;
+    if (s == null) {
+      return;
+    }
+    try {
+      s.close();
+    } catch (IOException e) {
+      DspLog.w(TAG, "close(): " + e);
+    }
+  }
+}
@@ -0,0 +1,564 @@
+/* Copyright 2014 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+import com.google.corp.productivity.specialprojects.android.fft.RealDoubleFFT;
+import com.google.corp.productivity.specialprojects.android.fft.RealFloatFFT;
+
+// Short Time Fourier Transform
+public class STFT {
+  private static final int FEED_CHUNK = 1024;  // samples converted at a time by feedData()
+
+  // data for frequency Analysis
+  private double[] spectrumAmpOutCum;           // accumulated power, already weighted by binWeight
+  private double[] spectrumAmpOut;              // in single precision mode, only allocated if asked for
+  private double[] spectrumAmpOutDB;
+  private float[]  spectrumAmpIn;               // ring buffer of the latest fftLen samples, in 16-bit units
+  private float[]  feedTmp;                     // input converted to 16-bit units, see feedChunk()
+  private double[] spectrumAmpInTmp;
+  private double[] wnd;
+  private double[] wndScaled;                   // wnd / 32768, applied directly to raw samples
+  // FFT output to power, including A-weighting if enabled. Replaced as a whole
+  // (never written in place) by setAWeighting(), which may run on another thread.
+  private volatile double[] binWeight;
+  private double wndEnergyFactor = 1;           // used to keep energy invariant under different window
+  private int sampleRate;
+  private int fftLen;
+  private int hopLen;                           // number of new samples between two FFT windows
+  private int spectrumAmpPt;                    // number of samples in current window
+  private int spectrumAmpInPt = 0;              // write position in ring buffer spectrumAmpIn
+  private int nAnalysed = 0;
+  private boolean hasFrame = false;             // at least one window analysed since clear()
+  private RealDoubleFFT spectrumAmpFFT;
+  private volatile boolean boolAWeighting = false;
+  private double cumRMS = 0;                    // sum of squares of sample values, in 16-bit units
+  private int    cntRMS = 0;
+  private double outRMS = 0;
+  private double inputLSB = 1;                  // resolution of the last input fed, in 16-bit units
+
+  // Single precision mode: FFT, accumulation and output buffers are float.
+  // The double versions of these buffers are not allocated in this mode,
+  // except the outputs, on the first call of getSpectrumAmp() or getSpectrumAmpDB().
+  private boolean useFloat = false;
+  private float[] spectrumAmpInTmpF;
+  private float[] spectrumAmpOutCumF;
+  private float[] spectrumAmpOutF;
+  private float[] spectrumAmpOutDBF;            // both modes, for display
+  private boolean isOutDoubleStale = false;     // spectrumAmpOut(DB) behind spectrumAmpOutF
+  private float[] wndScaledF;
+  private volatile float[] binWeightF;
+  private RealFloatFFT spectrumAmpFFTF;
+  
+  private double[] dBAFactor;    // multiply to power spectrum to get A-weighting
+  
+  private double sqr(double x) { return x*x; }
+  
+  // Generate multiplier for A-weighting
+  private void initDBAFactor(int fftlen, double sampleRate) {
+    dBAFactor = new double[fftlen/2+1];
+    for (int i = 0; i < fftlen/2+1; i++) {
+      double f = (double)i/fftlen * sampleRate;
+      double r = sqr(12200)*sqr(sqr(f)) / ((f*f+sqr(20.6)) * Math.sqrt((f*f+sqr(107.7)) * (f*f+sqr(737.9))) * (f*f+sqr(12200)));
+      dBAFactor[i] = r*r*1.58489319246111;  // 1.58489319246111 = 10^(1/5)
+    }
+  }
+  
+  private void initWindowFunction(int fftlen, String wndName) {
+    wnd = new double[fftlen];
+    if (wndName.equals("Bartlett")) {
+      for (int i=0; i<wnd.length; i++) {  // Bartlett
+        wnd[i] = Math.asin(Math.sin(Math.PI*i/wnd.length))/Math.PI*2;
+      }
+    } else if (wndName.equals("Hanning")) {
+      for (int i=0; i<wnd.length; i++) {  // Hanning, hw=1
+        wnd[i] = 0.5*(1-Math.cos(2*Math.PI*i/(wnd.length-1.))) *2;
+      }
+    } else if (wndName.equals("Blackman")) {
+      for (int i=0; i<wnd.length; i++) {  // Blackman, hw=2
+        wnd[i] = 0.42-0.5*Math.cos(2*Math.PI*i/(wnd.length-1))+0.08*Math.cos(4*Math.PI*i/(wnd.length-1));
+      }
+    } else if (wndName.equals("Blackman Harris")) {
+      for (int i=0; i<wnd.length; i++) {  // Blackman_Harris, hw=3
+        wnd[i] = (0.35875-0.48829*Math.cos(2*Math.PI*i/(wnd.length-1))+0.14128*Math.cos(4*Math.PI*i/(wnd.length-1))-0.01168*Math.cos(6*Math.PI*i/(wnd.length-1))) *2;
+      }
+    } else if (wndName.equals("Kaiser, a=2.0")) {
+      double a = 2.0;
+      double dn = besselCal.i0(Math.PI * a);
+      for (int i=0; i<wnd.length; i++) {  // Kaiser, a=2.0
+        wnd[i] = besselCal.i0(Math.PI*a*Math.sqrt(1-(2.0*i/(wnd.length-1)-1.0)*(2.0*i/(wnd.length-1)-1.0))) / dn;
+      }
+    } else if (wndName.equals("Kaiser, a=3.0")) {
+      double a = 3.0;
+      double dn = besselCal.i0(Math.PI * a);
+      for (int i=0; i<wnd.length; i++) {  // Kaiser, a=3.0
+        wnd[i] = besselCal.i0(Math.PI*a*Math.sqrt(1-(2.0*i/(wnd.length-1)-1.0)*(2.0*i/(wnd.length-1)-1.0))) / dn;
+      }
+    } else if (wndName.equals("Kaiser, a=4.0")) {
+      double a = 4.0;
+      double dn = besselCal.i0(Math.PI * a);
+      for (int i=0; i<wnd.length; i++) {  // Kaiser, a=4.0
+        wnd[i] = besselCal.i0(Math.PI*a*Math.sqrt(1-(2.0*i/(wnd.length-1)-1.0)*(2.0*i/(wnd.length-1)-1.0))) / dn;
+      }
+    } else {
+      for (int i=0; i<wnd.length; i++) {
+        wnd[i] = 1;
+      }
+    }
+    double normalizeFactor = 0;
+    for (int i=0; i<wnd.length; i++) {
+      normalizeFactor += wnd[i];
+    }
+    normalizeFactor = wnd.length / normalizeFactor;
+    wndEnergyFactor = 0;
+    for (int i=0; i<wnd.length; i++) {
+      wnd[i] *= normalizeFactor;
+      wndEnergyFactor += wnd[i]*wnd[i];
+    }
+    wndEnergyFactor = wnd.length / wndEnergyFactor;
+  }
+  
+  public void setAWeighting(boolean e_isAWeighting) {
+    boolAWeighting = e_isAWeighting;
+    initBinWeight();
+  }
+
+  // Multiplier from |FFT output|^2 to the (A-weighted) power of each bin.
+  // Change of A-weighting only affects FFTs after this call. New arrays are made,
+  // so that an FFT in progress (on the sampling thread) uses either the old or the new weight.
+  private void initBinWeight() {
+    int outLen = fftLen/2+1;
+    double[] bw  = new double[outLen];
+    float[]  bwF = new float[outLen];
+    double scaler = 2.0*2.0 / ((double)fftLen * fftLen);  // *2 since there are positive and negative frequency part
+    for (int i = 0; i < outLen; i++) {
+      bw[i] = boolAWeighting ? scaler * dBAFactor[i] : scaler;
+    }
+    bw[0]        /= 4.0;  // direct current and Nyquist terms are not doubled
+    bw[outLen-1] /= 4.0;
+    for (int i = 0; i < outLen; i++) {
+      bwF[i] = (float) bw[i];
+    }
+    binWeight  = bw;
+    binWeightF = bwF;
+  }
+  
+  public boolean getAWeighting() {
+    return boolAWeighting;
+  }
+  
+  private void init(int fftlen, int hoplen, int sampleRate, String wndName, boolean useFloat) {
+    if (hoplen <= 0 || hoplen > fftlen) {
+      throw new IllegalArgumentException("STFT::init(): should 1 <= hopLen <= fftlen.");
+    }
+    if (((-fftlen)&fftlen) != fftlen) {
+      // error: fftlen should be power of 2
+      throw new IllegalArgumentException("STFT::init(): Currently, only power of 2 are supported in fftlen");
+    }
+    this.sampleRate = sampleRate;
+    this.useFloat = useFloat;
+    fftLen = fftlen;
+    hopLen = hoplen;
+    spectrumAmpOutDBF= new float[fftlen/2+1];
+    spectrumAmpIn    = new float[fftlen];
+    feedTmp          = new float[Math.min(fftlen, FEED_CHUNK)];
+    if (useFloat) {
+      spectrumAmpOut    = null;
+      spectrumAmpOutDB  = null;
+      spectrumAmpOutF   = new float[fftlen/2+1];
+      spectrumAmpOutCumF= new float[fftlen/2+1];
+      spectrumAmpInTmpF = new float[fftlen];
+      spectrumAmpFFTF   = new RealFloatFFT(fftlen);
+    } else {
+      spectrumAmpOut   = new double[fftlen/2+1];
+      spectrumAmpOutDB = new double[fftlen/2+1];
+      spectrumAmpOutCum= new double[fftlen/2+1];
+      spectrumAmpInTmp = new double[fftlen];
+      spectrumAmpFFT   = new RealDoubleFFT(fftlen);
+    }
+    
+    initWindowFunction(fftlen, wndName);
+    wndScaled  = new double[fftlen];
+    wndScaledF = new float[fftlen];
+    for (int i = 0; i < fftlen; i++) {
+      wndScaled[i]  = wnd[i] / 32768.0;
+      wndScaledF[i] = (float) wndScaled[i];
+    }
+    initDBAFactor(fftlen, sampleRate);
+    boolAWeighting = false;
+    initBinWeight();
+  }
+  
+  // hoplen: number of samples between starts of consecutive FFT windows,
+  //         e.g. fftlen/2 for 50% overlap, fftlen for no overlap.
+  public STFT(int fftlen, int hoplen, int sampleRate, String wndName, boolean useFloat) {
+    init(fftlen, hoplen, sampleRate, wndName, useFloat);
+  }
+
+  /** @deprecated minFeedSize is ignored, per-FFT spectra are accumulated directly. */
+  @Deprecated
+  public STFT(int fftlen, int sampleRate, int minFeedSize, String wndName) {
+    init(fftlen, fftlen/2, sampleRate, wndName, false);
+  }
+
+  public STFT(int fftlen, int sampleRate, String wndName) {
+    init(fftlen, fftlen/2, sampleRate, wndName, false);
+  }
+
+  public int getHopLen() {
+    return hopLen;
+  }
+
+  public boolean isSinglePrecision() {
+    return useFloat;
+  }
+
+  public void feedData(short[] ds) {
+    feedData(ds, ds.length);
+  }
+  public void feedData(short[] ds, int dsLen) {
+    if (dsLen > ds.length) {
+      DspLog.e("STFT", "dsLen > ds.length !");
+      dsLen = ds.length;
+    }
+    inputLSB = 1;
+    float[] x = feedTmp;
+    for (int dsPt = 0; dsPt < dsLen; ) {
+      int n = Math.min(dsLen - dsPt, x.length);
+      for (int i = 0; i < n; i++) {
+        x[i] = ds[dsPt + i];
+      }
+      feedChunk(x, n);
+      dsPt += n;
+    }
+  }
+
+  // Same as feedData(short[], int), reading samples ds.get(0) ~ ds.get(dsLen-1),
+  // e.g. straight from a direct buffer filled by AudioRecord.
+  public void feedData(ShortBuffer ds, int dsLen) {
+    if (dsLen > ds.limit()) {
+      DspLog.e("STFT", "dsLen > ds.limit() !");
+      dsLen = ds.limit();
+    }
+    inputLSB = 1;
+    float[] x = feedTmp;
+    for (int dsPt = 0; dsPt < dsLen; ) {
+      int n = Math.min(dsLen - dsPt, x.length);
+      for (int i = 0; i < n; i++) {
+        x[i] = ds.get(dsPt + i);
+      }
+      feedChunk(x, n);
+      dsPt += n;
+    }
+  }
+
+  // Samples in full scale, i.e. [-1, 1] (e.g. AudioFormat.ENCODING_PCM_FLOAT), so
+  // that more than 16 bits of precision goes to the FFT.
+  public void feedData(float[] ds, int dsLen) {
+    if (dsLen > ds.length) {
+      DspLog.e("STFT", "dsLen > ds.length !");
+      dsLen = ds.length;
+    }
+    inputLSB = 1.0 / 256;   // assume at least 24 bits
+    float[] x = feedTmp;
+    for (int dsPt = 0; dsPt < dsLen; ) {
+      int n = Math.min(dsLen - dsPt, x.length);
+      for (int i = 0; i < n; i++) {
+        x[i] = ds[dsPt + i] * 32768f;   // exact, to 16-bit units as other samples
+      }
+      feedChunk(x, n);
+      dsPt += n;
+    }
+  }
+
+  // Same as feedData(float[], int), reading samples ds.get(0) ~ ds.get(dsLen-1).
+  public void feedData(FloatBuffer ds, int dsLen) {
+    if (dsLen > ds.limit()) {
+      DspLog.e("STFT", "dsLen > ds.limit() !");
+      dsLen = ds.limit();
+    }
+    inputLSB = 1.0 / 256;   // assume at least 24 bits
+    float[] x = feedTmp;
+    for (int dsPt = 0; dsPt < dsLen; ) {
+      int n = Math.min(dsLen - dsPt, x.length);
+      for (int i = 0; i < n; i++) {
+        x[i] = ds.get(dsPt + i) * 32768f;
+      }
+      feedChunk(x, n);
+      dsPt += n;
+    }
+  }
+
+  // Ring and hop logic shared by all feedData(): put x[0] ~ x[n-1] (in 16-bit units)
+  // into the ring, and analyse every window that becomes complete.
+  private void feedChunk(float[] x, int n) {
+    double sumSqr = 0;
+    for (int i = 0; i < n; i++) {
+      sumSqr += (double) x[i] * x[i];   // exact for 16-bit samples
+    }
+    float[] in = spectrumAmpIn;
+    int inLen = in.length;
+    int xPt = 0;            // input data point to be read
+    int ringPt = spectrumAmpInPt;
+    while (xPt < n) {
+      int m  = Math.min(inLen - spectrumAmpPt, n - xPt);
+      int m1 = Math.min(m, inLen - ringPt);
+      System.arraycopy(x, xPt, in, ringPt, m1);
+      System.arraycopy(x, xPt + m1, in, 0, m - m1);
+      ringPt = (ringPt + m) & (inLen - 1);   // inLen is power of 2
+      xPt += m;
+      spectrumAmpPt += m;
+      if (spectrumAmpPt == inLen) {    // enough data for one FFT
+        if (useFloat) {
+          analyseFrameFloat(ringPt);
+        } else {
+          analyseFrame(ringPt);
+        }
+        nAnalysed++;
+        hasFrame = true;
+        spectrumAmpPt = inLen - hopLen;  // the overlapped part stays in the ring
+      }
+    }
+    spectrumAmpInPt = ringPt;
+    cumRMS += sumSqr;
+    cntRMS += n;
+  }
+
+  // Window, FFT and accumulate power of the window that starts at ringPt.
+  private void analyseFrame(int ringPt) {
+    float[] in = spectrumAmpIn;
+    double[] x = spectrumAmpInTmp;
+    double[] w = wndScaled;
+    int inLen = in.length;
+    // The oldest sample is at ringPt. Unwrap, scale and apply window in one pass.
+    int n1 = inLen - ringPt;
+    for (int i = 0; i < n1; i++) {
+      x[i] = in[ringPt + i] * w[i];
+    }
+    for (int i = n1; i < inLen; i++) {
+      x[i] = in[i - n1] * w[i];
+    }
+    spectrumAmpFFT.ft(x);
+    // FFT output to weighted power, accumulated in one pass.
+    double[] cum = spectrumAmpOutCum;
+    double[] bw = binWeight;
+    int outLen = cum.length;
+    cum[0] += x[0]*x[0] * bw[0];
+    for (int j = 1, i = 1; j < outLen - 1; j++, i += 2) {
+      cum[j] += (x[i]*x[i] + x[i+1]*x[i+1]) * bw[j];
+    }
+    cum[outLen-1] += x[inLen-1]*x[inLen-1] * bw[outLen-1];
+  }
+
+  private void analyseFrameFloat(int ringPt) {
+    float[] in = spectrumAmpIn;
+    float[] x = spectrumAmpInTmpF;
+    float[] w = wndScaledF;
+    int inLen = in.length;
+    int n1 = inLen - ringPt;
+    for (int i = 0; i < n1; i++) {
+      x[i] = in[ringPt + i] * w[i];
+    }
+    for (int i = n1; i < inLen; i++) {
+      x[i] = in[i - n1] * w[i];
+    }
+    spectrumAmpFFTF.ft(x);
+    float[] cum = spectrumAmpOutCumF;
+    float[] bw = binWeightF;
+    int outLen = cum.length;
+    cum[0] += x[0]*x[0] * bw[0];
+    for (int j = 1, i = 1; j < outLen - 1; j++, i += 2) {
+      cum[j] += (x[i]*x[i] + x[i+1]*x[i+1]) * bw[j];
+    }
+    cum[outLen-1] += x[inLen-1]*x[inLen-1] * bw[outLen-1];
+  }
+
+  // Average, convert to dB and reset accumulator in one pass, if there are new FFTs.
+  private void updateOutput() {
+    if (nAnalysed == 0) {    // no new result
+      return;
+    }
+    int outLen = spectrumAmpOutDBF.length;
+    double inv = 1.0 / nAnalysed;
+    DspMath.Precision prec = DspMath.getPrecision();
+    if (useFloat) {
+      float[] sAOC = spectrumAmpOutCumF;
+      float[] sAO  = spectrumAmpOutF;
+      for (int j = 0; j < outLen; j++) {
+        double v = sAOC[j] * inv;
+        sAOC[j] = 0;
+        sAO[j] = (float) v;
+        spectrumAmpOutDBF[j] = (float) (10.0 * DspMath.log10(v, prec));
+      }
+      isOutDoubleStale = true;
+    } else {
+      double[] sAOC = spectrumAmpOutCum;
+      double[] sAO  = spectrumAmpOut;
+      for (int j = 0; j < outLen; j++) {
+        double v = sAOC[j] * inv;
+        sAOC[j] = 0;
+        sAO[j] = v;
+        spectrumAmpOutDB[j] = 10.0 * DspMath.log10(v, prec);
+        spectrumAmpOutDBF[j] = (float) spectrumAmpOutDB[j];
+      }
+    }
+    nAnalysed = 0;
+  }
+
+  // Single precision mode: widen the float outputs for callers of the double getters.
+  private void updateOutputDouble() {
+    updateOutput();
+    if (!useFloat) {
+      return;
+    }
+    if (spectrumAmpOut == null) {
+      spectrumAmpOut   = new double[spectrumAmpOutF.length];
+      spectrumAmpOutDB = new double[spectrumAmpOutF.length];
+      isOutDoubleStale = true;
+    }
+    if (isOutDoubleStale) {
+      for (int j = 0; j < spectrumAmpOutF.length; j++) {
+        spectrumAmpOut[j]   = spectrumAmpOutF[j];
+        spectrumAmpOutDB[j] = spectrumAmpOutDBF[j];
+      }
+      isOutDoubleStale = false;
+    }
+  }
+
+  final public double[] getSpectrumAmp() {
+    updateOutputDouble();
+    return spectrumAmpOut;
+  }
+  
+  final public double[] getSpectrumAmpDB() {
+    updateOutputDouble();
+    return spectrumAmpOutDB;
+  }
+
+  // Same as getSpectrumAmpDB(), in single precision (for display).
+  // Prefer this in single precision mode, no double output is made then.
+  final public float[] getSpectrumAmpDBFloat() {
+    updateOutput();
+    return spectrumAmpOutDBF;
+  }
+
+  public double getRMS() {
+    if (cntRMS > 8000/30) {
+      outRMS = Math.sqrt(cumRMS / cntRMS * 2.0) / 32768.0;  // "* 2.0" normalize to sine wave.
+      cumRMS = 0;
+      cntRMS = 0;
+    }
+    return outRMS;
+  }
+  
+  public double getRMSFromFT() {
+    updateOutput();
+    double s = 0;
+    if (useFloat) {
+      for (int i = 1; i < spectrumAmpOutF.length; i++) {
+        s += spectrumAmpOutF[i];
+      }
+    } else {
+      for (int i = 1; i < spectrumAmpOut.length; i++) {
+        s += spectrumAmpOut[i];
+      }
+    }
+    return Math.sqrt(s * wndEnergyFactor);
+  }
+  
+  public int nElemSpectrumAmp() {
+    return nAnalysed;
+  }
+
+  // Number of samples fed after the end of the last analysed window (0 ~ hopLen-1),
+  // e.g. to locate the last FFT frame in the input stream.
+  // 0 if no window is complete yet, since then there is no frame to locate.
+  public int getSamplesAfterLastFrame() {
+    return hasFrame ? spectrumAmpPt - (fftLen - hopLen) : 0;
+  }
+  
+  public double maxAmpFreq = Double.NaN, maxAmpDB = Double.NaN;
+  
+  // Spectrum in dB of bin i, from the output of the current precision.
+  private double outDB(int i) {
+    return useFloat ? spectrumAmpOutDBF[i] : spectrumAmpOutDB[i];
+  }
+
+  public void calculatePeak() {
+    updateOutput();
+    // Find and show peak amplitude
+    maxAmpDB  = 20 * Math.log10(0.125 * inputLSB / 32768);
+    maxAmpFreq = 0;
+    for (int i = 1; i < spectrumAmpOutDBF.length; i++) {  // skip the direct current term
+      double v = outDB(i);
+      if (v > maxAmpDB) {
+        maxAmpDB  = v;
+        maxAmpFreq = i;
+      }
+    }
+    maxAmpFreq = maxAmpFreq * sampleRate / fftLen;
+    
+    // Slightly better peak finder
+    // The peak around spectrumDB should look like quadratic curve after good window function
+    // a*x^2 + b*x + c = y
+    // a - b + c = x1
+    //         c = x2
+    // a + b + c = x3
+    if (sampleRate / fftLen < maxAmpFreq && maxAmpFreq < sampleRate/2 - sampleRate / fftLen) {
+      int id = (int)(Math.round(maxAmpFreq/sampleRate*fftLen));
+      double x1 = outDB(id-1);
+      double x2 = outDB(id);
+      double x3 = outDB(id+1);
+      double c = x2;
+      double a = (x3+x1)/2 - x2;
+      double b = (x3-x1)/2;
+      if (a < 0) {
+        double xPeak = -b/(2*a);
+        if (Math.abs(xPeak) < 1) {
+          maxAmpFreq += xPeak * sampleRate / fftLen;
+          maxAmpDB = (4*a*c - b*b)/(4*a);
+        }
+      }
+    }
+  }
+
+  public void clear() {
+    spectrumAmpPt = 0;
+    spectrumAmpInPt = 0;
+    nAnalysed = 0;
+    hasFrame = false;
+    cumRMS = 0;
+    cntRMS = 0;
+    outRMS = 0;
+    inputLSB = 1;
+    if (spectrumAmpOut != null) {
+      Arrays.fill(spectrumAmpOut, 0.0);
+      Arrays.fill(spectrumAmpOutDB, Math.log10(0));
+    }
+    Arrays.fill(spectrumAmpOutDBF, Float.NEGATIVE_INFINITY);
+    if (useFloat) {
+      Arrays.fill(spectrumAmpOutF, 0f);
+      Arrays.fill(spectrumAmpOutCumF, 0f);
+      isOutDoubleStale = true;
+    } else {
+      Arrays.fill(spectrumAmpOutCum, 0.0);
+    }
+  }
+
+}
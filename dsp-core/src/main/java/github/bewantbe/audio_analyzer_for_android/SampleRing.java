@@ -0,0 +1,123 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free ring buffer of 16-bit samples, for one producer thread and one consumer thread.
+ * The producer never blocks: when the ring is full, the samples that do not fit are dropped
+ * and counted, so a slow consumer can not stall audio capture.
+ * Give each consumer its own ring if several of them need the same stream.
+ */
+
+public class SampleRing {
+  private final short[] buf;
+  private final int mask;
+  private final AtomicLong head = new AtomicLong(0);  // total samples written, producer only
+  private final AtomicLong tail = new AtomicLong(0);  // total samples read, consumer only
+  private volatile Thread waiter;                     // consumer parked in read()
+  private volatile int highWaterMark = 0;             // producer only
+  private volatile long droppedSamples = 0;           // producer only
+
+  // Capacity is rounded up to power of 2.
+  public SampleRing(int minCapacity) {
+    if (minCapacity <= 0 || minCapacity > (1 << 30)) {
+      throw new IllegalArgumentException("SampleRing(): capacity out of range: " + minCapacity);
+    }
+    int cap = Integer.highestOneBit(minCapacity);
+    if (cap < minCapacity) cap <<= 1;
+    buf  = new short[cap];
+    mask = cap - 1;
+  }
+
+  // Producer: copy len samples into the ring. Return number of samples actually written.
+  public int write(short[] src, int offset, int len) {
+    long h = head.get();
+    int used = (int)(h - tail.get());
+    int n = Math.min(len, buf.length - used);
+    if (n > 0) {
+      int p = (int)h & mask;
+      int n1 = Math.min(n, buf.length - p);
+      System.arraycopy(src, offset, buf, p, n1);
+      System.arraycopy(src, offset + n1, buf, 0, n - n1);
+      head.lazySet(h + n);
+      used += n;
+      if (used > highWaterMark) highWaterMark = used;
+    }
+    if (n < len) {
+      droppedSamples += len - n;
+    }
+    Thread t = waiter;
+    if (t != null) {
+      LockSupport.unpark(t);
+    }
+    return n;
+  }
+
+  // Consumer: read at most len samples, wait up to timeoutMs if the ring is empty.
+  // Return number of samples read, 0 if timeout or interrupted.
+  public int read(short[] dst, int offset, int len, long timeoutMs) {
+    long t = tail.get();
+    long h = head.get();
+    if (h == t && timeoutMs > 0) {
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+      waiter = Thread.currentThread();
+      while ((h = head.get()) == t) {
+        long remain = deadline - System.nanoTime();
+        if (remain <= 0 || Thread.currentThread().isInterrupted()) break;
+        LockSupport.parkNanos(this, remain);
+      }
+      waiter = null;
+    }
+    int n = (int)Math.min(len, h - t);
+    if (n <= 0) {
+      return 0;
+    }
+    int p = (int)t & mask;
+    int n1 = Math.min(n, buf.length - p);
+    System.arraycopy(buf, p, dst, offset, n1);
+    System.arraycopy(buf, 0, dst, offset + n1, n - n1);
+    tail.lazySet(t + n);
+    return n;
+  }
+
+  public int capacity() {
+    return buf.length;
+  }
+
+  // Number of samples written but not yet read.
+  public int occupancy() {
+    return (int)(head.get() - tail.get());
+  }
+
+  // Largest occupancy seen by the producer.
+  public int getHighWaterMark() {
+    return highWaterMark;
+  }
+
+  // Samples thrown away because the ring was full.
+  public long getDroppedSamples() {
+    return droppedSamples;
+  }
+
+  // Total samples written.
+  public long getWriteCount() {
+    return head.get();
+  }
+}
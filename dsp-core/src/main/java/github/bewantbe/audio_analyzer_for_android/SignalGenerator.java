@@ -0,0 +1,29 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+/**
+ * A synthetic signal, generated block by block without allocation.
+ * Output depends only on the construction parameters and the number of
+ * samples generated before, so test signals are bit-reproducible.
+ */
+
+public interface SignalGenerator {
+  /**
+   * Add the next count samples to samples[start..start+count).
+   */
+  void addSamples(double[] samples, int start, int count);
+}
@@ -0,0 +1,179 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read a spectrogram file written by SpectrogramWriter.
+ * The block headers are loaded on open, then any frame is one positional read:
+ * offset = HEADER_SIZE + block * blockSize + BLOCK_HEADER_SIZE + frame * frameSize.
+ * An incomplete block at the end (e.g. after a crash) is ignored.
+ */
+
+public class SpectrogramReader {
+  private final FileChannel in;
+  public final int bytesPerValue;
+  public final int sampleRate;
+  public final int fftLen;
+  public final int frameStep;
+  public final int nBins;
+  public final int framesPerBlock;
+  public final float dbMin;
+  public final float dbMax;
+  public final long startTimeMillis;
+  private final long blockSize;
+  private final long frameSize;
+  private final long[] blockStart;    // sample position of first frame of each block
+  private final int[] blockFrames;    // valid frames in each block
+  private final long nFrames;
+  private final ByteBuffer frameBuf;
+  private final float dbPerQ;
+
+  public SpectrogramReader(File file) throws IOException {
+    in = new RandomAccessFile(file, "r").getChannel();
+    try {
+      ByteBuffer h = ByteBuffer.allocate(SpectrogramWriter.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      readFully(h, 0);
+      if (h.getInt(0) != SpectrogramWriter.MAGIC || h.getInt(4) != SpectrogramWriter.VERSION) {
+        throw new IOException("SpectrogramReader(): not a spectrogram file: " + file);
+      }
+      bytesPerValue   = h.getInt(8);
+      sampleRate      = h.getInt(12);
+      fftLen          = h.getInt(16);
+      frameStep       = h.getInt(20);
+      nBins           = h.getInt(24);
+      framesPerBlock  = h.getInt(28);
+      dbMin           = h.getFloat(32);
+      dbMax           = h.getFloat(36);
+      startTimeMillis = h.getLong(40);
+      if ((bytesPerValue != 1 && bytesPerValue != 2) || nBins <= 0 || framesPerBlock <= 0) {
+        throw new IOException("SpectrogramReader(): corrupted header: " + file);
+      }
+      frameSize = (long) nBins * bytesPerValue;
+      blockSize = SpectrogramWriter.BLOCK_HEADER_SIZE + framesPerBlock * frameSize;
+      int nBlocks = (int) ((in.size() - SpectrogramWriter.HEADER_SIZE) / blockSize);
+      blockStart  = new long[nBlocks];
+      blockFrames = new int[nBlocks];
+      ByteBuffer bh = ByteBuffer.allocate(SpectrogramWriter.BLOCK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      long n = 0;
+      for (int b = 0; b < nBlocks; b++) {
+        bh.clear();
+        readFully(bh, SpectrogramWriter.HEADER_SIZE + b * blockSize);
+        blockStart[b]  = bh.getLong(0);
+        blockFrames[b] = Math.min(bh.getInt(8), framesPerBlock);
+        n += blockFrames[b];
+      }
+      nFrames = n;
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+    frameBuf = ByteBuffer.allocate((int) frameSize).order(ByteOrder.LITTLE_ENDIAN);
+    dbPerQ = (dbMax - dbMin) / (bytesPerValue == 1 ? 0xFF : 0xFFFF);
+  }
+
+  private void readFully(ByteBuffer b, long pos) throws IOException {
+    while (b.hasRemaining()) {
+      if (in.read(b, pos + b.position()) < 0) {
+        throw new IOException("SpectrogramReader: unexpected end of file.");
+      }
+    }
+  }
+
+  public int getBlockCount() {
+    return blockStart.length;
+  }
+
+  public long getFrameCount() {
+    return nFrames;
+  }
+
+  public long getBlockStart(int block) {
+    return blockStart[block];
+  }
+
+  public int getBlockFrames(int block) {
+    return blockFrames[block];
+  }
+
+  // Sample position of the last frame, -1 if empty.
+  public long getEndSample() {
+    for (int b = blockStart.length - 1; b >= 0; b--) {
+      if (blockFrames[b] > 0) {
+        return blockStart[b] + (long) (blockFrames[b] - 1) * frameStep;
+      }
+    }
+    return -1;
+  }
+
+  // The last block starting at or before samplePos, 0 if none.
+  public int findBlock(long samplePos) {
+    int lo = 0, hi = blockStart.length - 1;
+    while (lo < hi) {
+      int mid = (lo + hi + 1) >>> 1;
+      if (blockStart[mid] <= samplePos) {
+        lo = mid;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * Read the frame nearest to samplePos (within its block) into db (nBins values).
+   * @return sample position of the frame read, -1 if the file has no frame.
+   */
+  public long readFrameAt(long samplePos, float[] db) throws IOException {
+    if (blockStart.length == 0) {
+      return -1;
+    }
+    int b = findBlock(samplePos + frameStep / 2);
+    long j = (samplePos - blockStart[b] + frameStep / 2) / frameStep;
+    j = Math.max(0, Math.min(j, blockFrames[b] - 1));
+    readFrame(b, (int) j, db);
+    return blockStart[b] + j * frameStep;
+  }
+
+  // Read frame j of block b into db.
+  public void readFrame(int b, int j, float[] db) throws IOException {
+    if (j < 0 || j >= blockFrames[b]) {
+      throw new IllegalArgumentException("SpectrogramReader::readFrame(): no frame " + j + " in block " + b);
+    }
+    frameBuf.clear();
+    readFully(frameBuf, SpectrogramWriter.HEADER_SIZE + b * blockSize
+        + SpectrogramWriter.BLOCK_HEADER_SIZE + j * frameSize);
+    if (bytesPerValue == 1) {
+      for (int i = 0; i < nBins; i++) {
+        db[i] = dbMin + (frameBuf.get(i) & 0xFF) * dbPerQ;
+      }
+    } else {
+      for (int i = 0; i < nBins; i++) {
+        db[i] = dbMin + (frameBuf.getShort(2 * i) & 0xFFFF) * dbPerQ;
+      }
+    }
+  }
+
+  public void close() throws IOException {
+    in.close();
+  }
+}
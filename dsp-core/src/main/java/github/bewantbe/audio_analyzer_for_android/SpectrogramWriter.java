@@ -0,0 +1,267 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only binary recording of spectrogram, see SpectrogramReader.
+ * File layout (little-endian):
+ *   header, HEADER_SIZE bytes:
+ *     0 "ASPG", 4 version, 8 bytes per value (1 or 2), 12 sample rate, 16 FFT length,
+ *     20 frame step (samples), 24 number of bins, 28 frames per block,
+ *     32 dB of quantized value 0 (float), 36 dB of the max quantized value (float),
+ *     40 start time (ms since epoch, long), the rest reserved
+ *   then fixed-size blocks, each:
+ *     BLOCK_HEADER_SIZE bytes: sample position of first frame (long), number of valid frames (int), reserved
+ *     framesPerBlock frames of quantized dB, nBins values each
+ * Frames within a block are consecutive, frame j at (block start + j * frame step);
+ * a gap of more than half a frame step from that starts a new block.
+ * A block is written when full (or at close(), padded), so a crash loses at most one block.
+ * With nQueuedBlocks > 0, full blocks are written by a background thread, so that a storage
+ * hiccup does not stall the caller of addFrame(). If all queued blocks are still waiting to be
+ * written, new frames are dropped (and counted), the next block then starts after the gap.
+ */
+
+public class SpectrogramWriter {
+  static final int MAGIC             = 0x47505341;  // "ASPG"
+  static final int VERSION           = 1;
+  static final int HEADER_SIZE       = 64;
+  static final int BLOCK_HEADER_SIZE = 16;
+
+  private final FileChannel out;
+  private final int bytesPerValue;
+  private final int frameStep;
+  private final int nBins;
+  private final int framesPerBlock;
+  private final float dbMin;
+  private final float qScale;       // quantized value per dB
+  private final int qMax;
+  private final int blockBytes;
+  private ByteBuffer block;         // being filled, null if none is free
+  private int nFramesInBlock = 0;
+  private long blockStart;          // sample position of first frame in block
+  private long nFrames = 0;
+  private long nBlocks = 0;
+  private long nDroppedFrames = 0;
+
+  // Background writing, null if blocks are written in addFrame().
+  private final ArrayBlockingQueue<ByteBuffer> freeBlocks;
+  private final ArrayBlockingQueue<ByteBuffer> fullBlocks;
+  private Thread writerThread;
+  private volatile boolean isClosing = false;
+  private volatile IOException writeError;   // from the writer thread, thrown by addFrame()
+
+  public SpectrogramWriter(File file, int sampleRate, int fftLen, int frameStep, int nBins,
+                           int bytesPerValue, float dbMin, float dbMax, int framesPerBlock) throws IOException {
+    this(file, sampleRate, fftLen, frameStep, nBins, bytesPerValue, dbMin, dbMax, framesPerBlock, 0);
+  }
+
+  /**
+   * @param nQueuedBlocks number of full blocks that can wait for the writer thread,
+   *                      0 to write in addFrame() without a thread.
+   */
+  public SpectrogramWriter(File file, int sampleRate, int fftLen, int frameStep, int nBins,
+                           int bytesPerValue, float dbMin, float dbMax, int framesPerBlock,
+                           int nQueuedBlocks) throws IOException {
+    if (bytesPerValue != 1 && bytesPerValue != 2) {
+      throw new IllegalArgumentException("SpectrogramWriter(): bytes per value should be 1 or 2.");
+    }
+    if (frameStep <= 0 || nBins <= 0 || framesPerBlock <= 0 || nQueuedBlocks < 0 || !(dbMax > dbMin)) {
+      throw new IllegalArgumentException("SpectrogramWriter(): invalid parameter.");
+    }
+    this.bytesPerValue  = bytesPerValue;
+    this.frameStep      = frameStep;
+    this.nBins          = nBins;
+    this.framesPerBlock = framesPerBlock;
+    this.dbMin          = dbMin;
+    qMax   = bytesPerValue == 1 ? 0xFF : 0xFFFF;
+    qScale = qMax / (dbMax - dbMin);
+    blockBytes = BLOCK_HEADER_SIZE + framesPerBlock * nBins * bytesPerValue;
+    if (nQueuedBlocks == 0) {
+      block = newBlock();
+      freeBlocks = null;
+      fullBlocks = null;
+    } else {
+      // One more block than queued, for the one being filled.
+      freeBlocks = new ArrayBlockingQueue<ByteBuffer>(nQueuedBlocks + 1);
+      fullBlocks = new ArrayBlockingQueue<ByteBuffer>(nQueuedBlocks + 1);
+      for (int i = 0; i < nQueuedBlocks + 1; i++) {
+        freeBlocks.add(newBlock());
+      }
+    }
+
+    ByteBuffer h = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    h.putInt(MAGIC).putInt(VERSION).putInt(bytesPerValue).putInt(sampleRate).putInt(fftLen)
+     .putInt(frameStep).putInt(nBins).putInt(framesPerBlock).putFloat(dbMin).putFloat(dbMax)
+     .putLong(System.currentTimeMillis());
+    h.clear();
+    out = new RandomAccessFile(file, "rw").getChannel();
+    out.truncate(0);
+    writeFully(h);
+    if (fullBlocks != null) {
+      writerThread = new Thread("SpectrogramWriterThread") {
+        @Override
+        public void run() {
+          writeLoop();
+        }
+      };
+      writerThread.start();
+    }
+  }
+
+  private ByteBuffer newBlock() {
+    return ByteBuffer.allocateDirect(blockBytes).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Append a spectrum (nBins values in dB).
+   * @param samplePos sample position of the frame, e.g. number of samples fed to STFT so far.
+   */
+  public void addFrame(float[] db, long samplePos) throws IOException {
+    if (writeError != null) {
+      throw writeError;
+    }
+    if (nFramesInBlock > 0
+        && Math.abs(samplePos - (blockStart + (long) nFramesInBlock * frameStep)) > frameStep / 2) {
+      writeBlock();  // gap (e.g. paused), start a new block
+    }
+    if (nFramesInBlock == 0) {
+      if (freeBlocks != null) {
+        block = freeBlocks.poll();
+        if (block == null) {   // writer behind
+          nDroppedFrames++;
+          return;
+        }
+      }
+      blockStart = samplePos;
+      block.clear();
+      block.position(BLOCK_HEADER_SIZE);
+    }
+    if (bytesPerValue == 1) {
+      for (int i = 0; i < nBins; i++) {
+        block.put((byte) quantize(db[i]));
+      }
+    } else {
+      for (int i = 0; i < nBins; i++) {
+        block.putShort((short) quantize(db[i]));
+      }
+    }
+    nFramesInBlock++;
+    nFrames++;
+    if (nFramesInBlock == framesPerBlock) {
+      writeBlock();
+    }
+  }
+
+  private int quantize(float db) {
+    float q = (db - dbMin) * qScale + 0.5f;
+    if (!(q > 0)) return 0;   // also for NaN and -Inf
+    return q >= qMax ? qMax : (int) q;
+  }
+
+  private void writeBlock() throws IOException {
+    while (block.position() < block.capacity()) {  // pad
+      block.put((byte) 0);
+    }
+    block.putLong(0, blockStart);
+    block.putInt(8, nFramesInBlock);
+    block.putInt(12, 0);
+    block.flip();
+    if (fullBlocks == null) {
+      writeFully(block);
+    } else {
+      fullBlocks.add(block);  // never full, since blocks come from freeBlocks
+      block = null;
+    }
+    nFramesInBlock = 0;
+    nBlocks++;
+  }
+
+  private void writeLoop() {
+    while (true) {
+      boolean lastRound = isClosing;
+      ByteBuffer b;
+      try {
+        b = fullBlocks.poll(100, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        continue;
+      }
+      if (b == null) {
+        if (lastRound) break;
+        continue;
+      }
+      if (writeError == null) {
+        try {
+          writeFully(b);
+        } catch (IOException e) {
+          writeError = e;
+        }
+      }
+      freeBlocks.add(b);
+    }
+  }
+
+  private void writeFully(ByteBuffer b) throws IOException {
+    while (b.hasRemaining()) {
+      out.write(b);
+    }
+  }
+
+  // Write the partial block, if any, wait for the queued blocks, and close the file.
+  public void close() throws IOException {
+    if (nFramesInBlock > 0) {
+      writeBlock();
+    }
+    if (writerThread != null) {
+      isClosing = true;
+      boolean interrupted = Thread.interrupted();  // so that join() really waits
+      try {
+        writerThread.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+      writerThread = null;
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    out.close();
+    if (writeError != null) {
+      throw writeError;
+    }
+  }
+
+  public long getFrameCount() {
+    return nFrames;
+  }
+
+  // Frames not recorded because the writer thread was behind.
+  public long getDroppedFrameCount() {
+    return nDroppedFrames;
+  }
+
+  public long getBytesWritten() {
+    return HEADER_SIZE + nBlocks * blockBytes;
+  }
+}
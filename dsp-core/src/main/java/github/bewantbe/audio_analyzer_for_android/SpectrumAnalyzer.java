@@ -0,0 +1,268 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * The analysis half of the sampling loop: feed audio samples, and get averaged
+ * spectrum (dB), peak and RMS once enough FFTs are accumulated.
+ * Does not depend on Android, so it can be driven by AudioRecord or from a file.
+ * With more than one channel, samples are interleaved (e.g. L R L R ... for stereo),
+ * and each channel has its own STFT. The public fields and getSpectrumDB() are those
+ * of the selected channel, see selectChannel().
+ */
+
+public class SpectrumAnalyzer {
+    private STFT[] stfts;               // one per channel
+    private float[][] spectrumDBs;
+    private double[] chMaxAmpFreq, chMaxAmpDB, chRMS, chRMSFromFT;
+    private final int channels;
+    private int selectedChannel = 0;
+    private short[] chShorts = new short[0];   // samples of one channel, de-interleaved
+    private float[] chFloats = new float[0];
+    private ShortBuffer shortsView;            // wraps the last short[] fed, see wrap()
+    private FloatBuffer floatsView;
+
+    public double maxAmpFreq = Double.NaN, maxAmpDB = Double.NaN;
+    public double dtRMS = 0;
+    public double dtRMSFromFT = 0;
+
+    public SpectrumAnalyzer(int fftLen, int sampleRate, String wndFuncName) {
+        this(fftLen, fftLen/2, sampleRate, wndFuncName, false);
+    }
+
+    // hopLen: samples between consecutive FFT windows, see STFT.
+    // useFloat: do the STFT in single precision.
+    public SpectrumAnalyzer(int fftLen, int hopLen, int sampleRate, String wndFuncName, boolean useFloat) {
+        this(fftLen, hopLen, sampleRate, wndFuncName, useFloat, 1);
+    }
+
+    public SpectrumAnalyzer(int fftLen, int hopLen, int sampleRate, String wndFuncName, boolean useFloat,
+                            int channels) {
+        if (channels < 1) {
+            throw new IllegalArgumentException("SpectrumAnalyzer(): channels should be >= 1.");
+        }
+        this.channels = channels;
+        stfts = new STFT[channels];
+        spectrumDBs = new float[channels][fftLen/2+1];
+        for (int c = 0; c < channels; c++) {
+            stfts[c] = new STFT(fftLen, hopLen, sampleRate, wndFuncName, useFloat);
+        }
+        chMaxAmpFreq = new double[channels];
+        chMaxAmpDB   = new double[channels];
+        chRMS        = new double[channels];
+        chRMSFromFT  = new double[channels];
+        Arrays.fill(chMaxAmpFreq, Double.NaN);
+        Arrays.fill(chMaxAmpDB, Double.NaN);
+    }
+
+    public void setAWeighting(boolean isAWeighting) {
+        for (STFT stft : stfts) {
+            stft.setAWeighting(isAWeighting);
+        }
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    // Channel shown by the public fields, getSpectrumDB() and fillSnapshot().
+    public void selectChannel(int channel) {
+        if (channel < 0 || channel >= channels) {
+            throw new IllegalArgumentException("SpectrumAnalyzer::selectChannel(): no channel " + channel);
+        }
+        selectedChannel = channel;
+        copySelected();
+    }
+
+    /**
+     * Feed audio samples.
+     * @param nSamples     number of samples per channel
+     * @param nFFTAverage  number of FFTs to average for one output spectrum
+     * @return true if a new spectrum is available, see getSpectrumDB().
+     */
+    public boolean feedData(short[] samples, int nSamples, int nFFTAverage) {
+        if (channels == 1) {
+            stfts[0].feedData(samples, nSamples);
+            return update(nFFTAverage);
+        }
+        return feedChannels(wrap(samples), nSamples, nFFTAverage);
+    }
+
+    // Same as above, samples in a (direct) buffer, see STFT.feedData(ShortBuffer, int).
+    public boolean feedData(ShortBuffer samples, int nSamples, int nFFTAverage) {
+        if (channels == 1) {
+            stfts[0].feedData(samples, nSamples);
+            return update(nFFTAverage);
+        }
+        return feedChannels(samples, nSamples, nFFTAverage);
+    }
+
+    // Samples in full scale [-1, 1], e.g. from float capture, see STFT.feedData(float[], int).
+    public boolean feedData(float[] samples, int nSamples, int nFFTAverage) {
+        if (channels == 1) {
+            stfts[0].feedData(samples, nSamples);
+            return update(nFFTAverage);
+        }
+        return feedChannels(wrap(samples), nSamples, nFFTAverage);
+    }
+
+    public boolean feedData(FloatBuffer samples, int nSamples, int nFFTAverage) {
+        if (channels == 1) {
+            stfts[0].feedData(samples, nSamples);
+            return update(nFFTAverage);
+        }
+        return feedChannels(samples, nSamples, nFFTAverage);
+    }
+
+    // De-interleave and feed each channel to its STFT.
+    private boolean feedChannels(ShortBuffer samples, int nSamples, int nFFTAverage) {
+        short[] s = channelShorts(nSamples);
+        for (int c = 0; c < channels; c++) {
+            for (int i = 0, j = c; i < nSamples; i++, j += channels) {
+                s[i] = samples.get(j);
+            }
+            stfts[c].feedData(s, nSamples);
+        }
+        return update(nFFTAverage);
+    }
+
+    private boolean feedChannels(FloatBuffer samples, int nSamples, int nFFTAverage) {
+        float[] s = channelFloats(nSamples);
+        for (int c = 0; c < channels; c++) {
+            for (int i = 0, j = c; i < nSamples; i++, j += channels) {
+                s[i] = samples.get(j);
+            }
+            stfts[c].feedData(s, nSamples);
+        }
+        return update(nFFTAverage);
+    }
+
+    // The caller usually feeds the same array every time, so keep its wrapper.
+    private ShortBuffer wrap(short[] samples) {
+        if (shortsView == null || shortsView.array() != samples) {
+            shortsView = ShortBuffer.wrap(samples);
+        }
+        return shortsView;
+    }
+
+    private FloatBuffer wrap(float[] samples) {
+        if (floatsView == null || floatsView.array() != samples) {
+            floatsView = FloatBuffer.wrap(samples);
+        }
+        return floatsView;
+    }
+
+    private short[] channelShorts(int n) {
+        if (chShorts.length < n) {
+            chShorts = new short[n];
+        }
+        return chShorts;
+    }
+
+    private float[] channelFloats(int n) {
+        if (chFloats.length < n) {
+            chFloats = new float[n];
+        }
+        return chFloats;
+    }
+
+    // All channels are fed the same number of samples, so they have new results together.
+    private boolean update(int nFFTAverage) {
+        int nElem = stfts[0].nElemSpectrumAmp();
+        for (int c = 1; c < channels; c++) {
+            if (stfts[c].nElemSpectrumAmp() != nElem) {
+                throw new IllegalStateException("SpectrumAnalyzer::update(): channel " + c
+                        + " is out of step with channel 0.");
+            }
+        }
+        if (nElem < nFFTAverage) {
+            return false;
+        }
+        for (int c = 0; c < channels; c++) {
+            STFT stft = stfts[c];
+            spectrumDBs[c] = stft.getSpectrumAmpDBFloat();
+
+            stft.calculatePeak();
+            chMaxAmpFreq[c] = stft.maxAmpFreq;
+            chMaxAmpDB[c] = stft.maxAmpDB;
+
+            chRMS[c] = stft.getRMS();
+            chRMSFromFT[c] = stft.getRMSFromFT();
+        }
+        copySelected();
+        return true;
+    }
+
+    private void copySelected() {
+        int c = selectedChannel;
+        maxAmpFreq = chMaxAmpFreq[c];
+        maxAmpDB = chMaxAmpDB[c];
+        dtRMS = chRMS[c];
+        dtRMSFromFT = chRMSFromFT[c];
+    }
+
+    // Latest spectrum in dB, valid after feedData() returned true and until next feedData().
+    public float[] getSpectrumDB() {
+        return spectrumDBs[selectedChannel];
+    }
+
+    public float[] getSpectrumDB(int channel) {
+        return spectrumDBs[channel];
+    }
+
+    public double getMaxAmpFreq(int channel) {
+        return chMaxAmpFreq[channel];
+    }
+
+    public double getMaxAmpDB(int channel) {
+        return chMaxAmpDB[channel];
+    }
+
+    public double getRMS(int channel) {
+        return chRMS[channel];
+    }
+
+    public double getRMSFromFT(int channel) {
+        return chRMSFromFT[channel];
+    }
+
+    // Copy latest result (of the selected channel) to s, e.g. the buffer from SpectrumPublisher.beginWrite().
+    public void fillSnapshot(SpectrumSnapshot s) {
+        float[] spectrumDB = getSpectrumDB();
+        if (s.spectrumDB.length != spectrumDB.length) {
+            s.spectrumDB = new float[spectrumDB.length];
+        }
+        System.arraycopy(spectrumDB, 0, s.spectrumDB, 0, spectrumDB.length);
+        s.maxAmpFreq = maxAmpFreq;
+        s.maxAmpDB = maxAmpDB;
+        s.dtRMS = dtRMS;
+        s.dtRMSFromFT = dtRMSFromFT;
+    }
+
+    // STFT of the first channel only, which is enough for frame timing since all channels
+    // are fed in step. Use getSTFT(int) for the spectrum of another channel.
+    public STFT getSTFT() {
+        return stfts[0];
+    }
+
+    public STFT getSTFT(int channel) {
+        return stfts[channel];
+    }
+}
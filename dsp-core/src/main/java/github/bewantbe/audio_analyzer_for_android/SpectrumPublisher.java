@@ -0,0 +1,57 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free triple buffer of SpectrumSnapshot, for one writer thread and one reader thread.
+ * The writer fills beginWrite() then calls publish(); the reader calls acquire() to get
+ * the latest published frame. Each side owns its buffer until its next call, so data
+ * can be read or written in place without lock or copy, and a frame is always consistent.
+ * If the writer is faster than the reader, intermediate frames are dropped.
+ */
+
+public class SpectrumPublisher {
+  private static final int DIRTY = 4;   // the middle buffer holds a frame not yet acquired
+
+  private final SpectrumSnapshot[] buffers = {
+      new SpectrumSnapshot(), new SpectrumSnapshot(), new SpectrumSnapshot()};
+  private final AtomicInteger middle = new AtomicInteger(1);  // index of middle buffer | DIRTY
+  private int back = 0;          // owned by writer
+  private int front = 2;         // owned by reader
+  private long seq = 0;          // writer only
+
+  // Writer: the buffer to fill, valid until publish().
+  public SpectrumSnapshot beginWrite() {
+    return buffers[back];
+  }
+
+  // Writer: make the buffer from beginWrite() visible to the reader.
+  public void publish() {
+    SpectrumSnapshot s = buffers[back];
+    s.seq = ++seq;
+    back = middle.getAndSet(back | DIRTY) & 3;
+  }
+
+  // Reader: the latest published frame, valid until next acquire().
+  public SpectrumSnapshot acquire() {
+    if ((middle.get() & DIRTY) != 0) {
+      front = middle.getAndSet(front) & 3;
+    }
+    return buffers[front];
+  }
+}
@@ -0,0 +1,29 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+/**
+ * One frame of analysis result: spectrum in dB together with the scalar measurements.
+ * Passed from the sampling thread to the UI by SpectrumPublisher.
+ */
+
+public class SpectrumSnapshot {
+  public float[] spectrumDB = new float[0];
+  public double maxAmpFreq = Double.NaN, maxAmpDB = Double.NaN;
+  public double dtRMS = 0;
+  public double dtRMSFromFT = 0;
+  public long seq = 0;           // 1, 2, 3... in order of publishing, 0 if never published
+}
@@ -0,0 +1,107 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+import java.util.Arrays;
+
+/**
+ * Synthetic test signals as an AudioSource: the sum of some SignalGenerator,
+ * rounded and clipped to 16 bits. No allocation after the first read().
+ * Paced to real time by default, or as fast as possible for benchmarks.
+ */
+
+public class TestSignalSource implements AudioSource {
+  private final int sampleRate;
+  private final SignalGenerator[] generators;
+  private final boolean isPaced;
+  private final String name;
+  private FrameRateLimiter frameRateLimiter;
+  private double[] mdata;
+  private long framePosition;
+  private long timeStarted;
+
+  /**
+   * @param generators  signals to be summed, in 16-bit sample unit.
+   * @param isPaced     false to generate samples as fast as possible.
+   */
+  public TestSignalSource(int sampleRate, SignalGenerator[] generators, boolean isPaced, String name) {
+    this.sampleRate = sampleRate;
+    this.generators = generators;
+    this.isPaced = isPaced;
+    this.name = name;
+  }
+
+  @Override
+  public void open() {
+    framePosition = 0;
+    timeStarted = System.nanoTime();
+    frameRateLimiter = new FrameRateLimiter();
+  }
+
+  // Generate test data.
+  @Override
+  public int read(short[] a, int offsetInShorts, int sizeInShorts) {
+    if (mdata == null || mdata.length < sizeInShorts) {
+      mdata = new double[sizeInShorts];
+    }
+    Arrays.fill(mdata, 0, sizeInShorts, 0.0);
+    for (SignalGenerator g : generators) {
+      g.addSamples(mdata, 0, sizeInShorts);
+    }
+    for (int i = 0; i < sizeInShorts; i++) {
+      double v = Math.rint(mdata[i]);
+      a[offsetInShorts + i] = (short) (v > 32767 ? 32767 : v < -32768 ? -32768 : v);
+    }
+    framePosition += sizeInShorts;
+    // Block this thread, so that behave as if read from real device.
+    if (isPaced) {
+      frameRateLimiter.limit(1000.0*sizeInShorts / sampleRate);
+    }
+    return sizeInShorts;
+  }
+
+  @Override
+  public int getSampleRate() {
+    return sampleRate;
+  }
+
+  @Override
+  public int getChannels() {
+    return 1;
+  }
+
+  @Override
+  public long getFramePosition() {
+    return framePosition;
+  }
+
+  @Override
+  public long getTimestampNanos() {
+    if (isPaced) {
+      return timeStarted + (long) ((framePosition - 1) * 1e9 / sampleRate);
+    }
+    return System.nanoTime();
+  }
+
+  @Override
+  public String getName() {
+    return name + (isPaced ? "" : " (unpaced)");
+  }
+
+  @Override
+  public void close() {
+  }
+}
@@ -0,0 +1,409 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Offline analysis of a WAV file (e.g. a WavWriter recording) through STFT,
+ * with fftLen, window and hop independent of those used at capture time.
+ * The data chunk is memory mapped in windows of MAP_WINDOW_BYTES, so files of
+ * any length (including RF64) are streamed instead of loaded.
+ * Supported: PCM 8/16/24/32 bits, IEEE float 32 bits, and WAVE_FORMAT_EXTENSIBLE of these.
+ * Samples are analysed in full precision (as float); read(short[], ...) rounds them
+ * to 16 bits, e.g. for WavFileSource.
+ */
+
+public class WavFileAnalyzer {
+  private static final String TAG = "WavFileAnalyzer";
+  static final int MAP_WINDOW_BYTES = 1 << 24;
+
+  private static final int FORMAT_PCM        = 1;
+  private static final int FORMAT_FLOAT      = 3;
+  private static final int FORMAT_EXTENSIBLE = 0xFFFE;
+  // KSDATAFORMAT_SUBTYPE_* GUIDs, the first two bytes are the format tag.
+  private static final byte[] GUID_TAIL = {0, 0, 0, 0, 0, 0, 0x10, 0, (byte) 0x80, 0, 0, (byte) 0xAA, 0, 0x38, (byte) 0x9B, 0x71};
+
+  public interface Listener {
+    /**
+     * Called once per FFT frame, in order.
+     * @param frame       frame index, the window covers samples [frame*hopLen, frame*hopLen+fftLen).
+     * @param spectrumDB  power spectrum in dB, fftLen/2+1 values. Reused, copy it if needed.
+     * @param peakFreq    frequency of the spectral peak (Hz), interpolated.
+     * @param peakDB      level of the spectral peak (dB).
+     * @param rms         RMS of the hopLen samples new in this frame, normalized as STFT.getRMS().
+     */
+    void onFrame(long frame, double[] spectrumDB, double peakFreq, double peakDB, double rms);
+  }
+
+  private final FileChannel in;
+  private final int format;
+  private final int channels;
+  private final int sampleRate;
+  private final int bitsPerSample;
+  private final int blockAlign;
+  private final long dataPos;
+  private final long nFrames;     // number of sample frames (one sample per channel) in data
+
+  private int channel = -1;       // channel to analyse, -1 for average of all channels
+  private volatile boolean isCancelled = false;
+
+  private MappedByteBuffer map;
+  private long mapStart;          // frame index of the first frame in map
+  private long framesRead;
+  private long elapsedNs;
+
+  public WavFileAnalyzer(File file) throws IOException {
+    in = new RandomAccessFile(file, "r").getChannel();
+    try {
+      long fileSize = in.size();
+      ByteBuffer b = ByteBuffer.allocate(40).order(ByteOrder.LITTLE_ENDIAN);
+      readFully(b, 0, 12);
+      int riffId = b.getInt(0);
+      boolean isRF64 = riffId == fourCC("RF64");
+      if ((riffId != fourCC("RIFF") && !isRF64) || b.getInt(8) != fourCC("WAVE")) {
+        throw new IOException("WavFileAnalyzer(): not a WAV file: " + file);
+      }
+      long ds64DataSize = -1;
+      long dataSize = -1;
+      long dataStart = 0;
+      long pos = 12;
+      int fmt = 0, ch = 0, sr = 0, bps = 0, align = 0;
+      while (pos + 8 <= fileSize) {
+        readFully(b, pos, 8);
+        int id = b.getInt(0);
+        long size = b.getInt(4) & 0xFFFFFFFFL;
+        if (id == fourCC("ds64")) {
+          readFully(b, pos + 8, 24);
+          ds64DataSize = b.getLong(8);
+        } else if (id == fourCC("fmt ")) {
+          if (size < 16) {
+            throw new IOException("WavFileAnalyzer(): bad 'fmt ' chunk: " + file);
+          }
+          readFully(b, pos + 8, (int) Math.min(size, 40));
+          fmt   = b.getShort(0) & 0xFFFF;
+          ch    = b.getShort(2) & 0xFFFF;
+          sr    = b.getInt(4);
+          align = b.getShort(12) & 0xFFFF;
+          bps   = b.getShort(14) & 0xFFFF;
+          if (fmt == FORMAT_EXTENSIBLE) {
+            fmt = size >= 40 ? extensibleSubFormat(b) : 0;
+          }
+        } else if (id == fourCC("data")) {
+          dataStart = pos + 8;
+          dataSize = (isRF64 && size == 0xFFFFFFFFL && ds64DataSize >= 0) ? ds64DataSize : size;
+          break;
+        }
+        pos += 8 + size + (size & 1);
+      }
+      if (dataSize < 0 || ch == 0) {
+        throw new IOException("WavFileAnalyzer(): no 'fmt ' or 'data' chunk: " + file);
+      }
+      if (!(fmt == FORMAT_PCM && (bps == 8 || bps == 16 || bps == 24 || bps == 32))
+          && !(fmt == FORMAT_FLOAT && bps == 32)) {
+        throw new IOException("WavFileAnalyzer(): unsupported format " + fmt + ", " + bps + " bits: " + file);
+      }
+      if (align != ch * bps / 8) {
+        throw new IOException("WavFileAnalyzer(): inconsistent block align: " + file);
+      }
+      // The size in header may be stale, e.g. a recording interrupted before its header commit.
+      dataSize = Math.min(dataSize, fileSize - dataStart);
+      if (dataSize == 0 && fileSize > dataStart) {
+        dataSize = fileSize - dataStart;
+      }
+      dataPos       = dataStart;
+      format        = fmt;
+      channels      = ch;
+      sampleRate    = sr;
+      bitsPerSample = bps;
+      blockAlign    = align;
+      nFrames       = dataSize / align;
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+  }
+
+  // Format tag from the SubFormat GUID of WAVE_FORMAT_EXTENSIBLE 'fmt ' in b,
+  // i.e. xxxxxxxx-0000-0010-8000-00aa00389b71 (KSDATAFORMAT_SUBTYPE_*), 0 if not one of those.
+  private static int extensibleSubFormat(ByteBuffer b) {
+    for (int i = 2; i < 16; i++) {
+      if (b.get(24 + i) != GUID_TAIL[i]) {
+        return 0;
+      }
+    }
+    return b.getShort(24) & 0xFFFF;
+  }
+
+  private static int fourCC(String s) {
+    return (s.charAt(0)) | (s.charAt(1) << 8) | (s.charAt(2) << 16) | (s.charAt(3) << 24);
+  }
+
+  private void readFully(ByteBuffer b, long pos, int len) throws IOException {
+    b.clear();
+    b.limit(len);
+    while (b.hasRemaining()) {
+      if (in.read(b, pos + b.position()) < 0) {
+        throw new IOException("WavFileAnalyzer: unexpected end of file.");
+      }
+    }
+  }
+
+  public int getSampleRate() {
+    return sampleRate;
+  }
+
+  public int getChannels() {
+    return channels;
+  }
+
+  public int getBitsPerSample() {
+    return bitsPerSample;
+  }
+
+  public boolean isFloat() {
+    return format == FORMAT_FLOAT;
+  }
+
+  // Number of samples per channel.
+  public long getFrameCount() {
+    return nFrames;
+  }
+
+  public double getDurationSeconds() {
+    return (double) nFrames / sampleRate;
+  }
+
+  // Number of FFT frames analyse() will produce.
+  public static long fftFrameCount(long nSamples, int fftLen, int hopLen) {
+    return nSamples < fftLen ? 0 : (nSamples - fftLen) / hopLen + 1;
+  }
+
+  // Channel to analyse, -1 (default) for the average of all channels.
+  public void setChannel(int channel) {
+    if (channel < -1 || channel >= channels) {
+      throw new IllegalArgumentException("WavFileAnalyzer::setChannel(): no channel " + channel);
+    }
+    this.channel = channel;
+  }
+
+  public int getChannel() {
+    return channel;
+  }
+
+  // Stop a running analyse() after the current frame. Can be called from any thread.
+  public void cancel() {
+    isCancelled = true;
+  }
+
+  /**
+   * Analyse the whole file as fast as possible, calling listener for each FFT frame.
+   * @return number of FFT frames produced.
+   */
+  public long analyse(int fftLen, int hopLen, String wndName, boolean useFloat,
+                      Listener listener) throws IOException {
+    STFT stft = new STFT(fftLen, hopLen, sampleRate, wndName, useFloat);
+    long t0 = System.nanoTime();
+    isCancelled = false;
+    long nFFT = analyseRange(stft, fftLen, new float[fftLen], 0,
+                             fftFrameCount(nFrames, fftLen, hopLen), listener);
+    map = null;
+    elapsedNs = System.nanoTime() - t0;
+    DspLog.i(TAG, "analyse(): " + nFFT + " frames of " + fftLen + " points, "
+        + String.format("%.1f", getRealtimeFactor()) + "x realtime");
+    return nFFT;
+  }
+
+  /**
+   * Produce FFT frames [f0, f1) with a cleared stft. A frame depends only on the
+   * samples in its window, so the result does not depend on what stft did before.
+   * @return number of frames produced, less than f1-f0 if cancelled.
+   */
+  long analyseRange(STFT stft, int fftLen, float[] buf, long f0, long f1,
+                    Listener listener) throws IOException {
+    int hopLen = stft.getHopLen();
+    stft.clear();
+    seek(f0 * hopLen);
+    long f = f0;
+    // The first FFT frame needs fftLen samples, each of the following hopLen.
+    // So each feedData() below produces exactly one frame.
+    int n = fftLen;
+    while (f < f1 && !isCancelled && read(buf, n) == n) {
+      stft.feedData(buf, n);
+      double[] db = stft.getSpectrumAmpDB();
+      stft.calculatePeak();
+      double rms = rms(buf, n - hopLen, hopLen);
+      listener.onFrame(f++, db, stft.maxAmpFreq, stft.maxAmpDB, rms);
+      n = hopLen;
+    }
+    return f - f0;
+  }
+
+  private static double rms(float[] s, int off, int len) {
+    double sumSqr = 0;
+    for (int i = off; i < off + len; i++) {
+      sumSqr += s[i] * s[i];
+    }
+    return Math.sqrt(sumSqr / len * 2.0);  // "* 2.0" normalize to sine wave.
+  }
+
+  // Audio duration analysed by the last analyse() divided by the time it took.
+  public double getRealtimeFactor() {
+    if (elapsedNs <= 0) {
+      return 0;
+    }
+    return (double) framesRead / sampleRate / (elapsedNs * 1e-9);
+  }
+
+  public long getElapsedNanos() {
+    return elapsedNs;
+  }
+
+  /**
+   * Read the next n samples (of the selected channel) into s[off..off+n), converted to 16 bits.
+   * @return number of samples read, less than n only at the end of data.
+   */
+  int read(short[] s, int off, int n) throws IOException {
+    return readFrames(s, null, off, n);
+  }
+
+  int read(short[] s, int n) throws IOException {
+    return read(s, 0, n);
+  }
+
+  // Same as read(short[], int, int), samples in full scale [-1, 1] without rounding to 16 bits.
+  int read(float[] s, int off, int n) throws IOException {
+    return readFrames(null, s, off, n);
+  }
+
+  int read(float[] s, int n) throws IOException {
+    return read(s, 0, n);
+  }
+
+  // Decode to either s or fs.
+  private int readFrames(short[] s, float[] fs, int off, int n) throws IOException {
+    int got = 0;
+    while (got < n && framesRead < nFrames) {
+      long mapEnd = map == null ? 0 : mapStart + map.capacity() / blockAlign;
+      if (map == null || framesRead >= mapEnd || framesRead < mapStart) {
+        mapWindow(framesRead);
+        mapEnd = mapStart + map.capacity() / blockAlign;
+      }
+      int k = (int) Math.min(n - got, mapEnd - framesRead);
+      if (s != null) {
+        decode(map, (int) (framesRead - mapStart) * blockAlign, s, off + got, k);
+      } else {
+        decode(map, (int) (framesRead - mapStart) * blockAlign, fs, off + got, k);
+      }
+      got += k;
+      framesRead += k;
+    }
+    return got;
+  }
+
+  // Start reading (read()) from sample frame.
+  void seek(long frame) {
+    framesRead = Math.max(0, Math.min(frame, nFrames));
+  }
+
+  private void mapWindow(long frame) throws IOException {
+    long framesPerWindow = MAP_WINDOW_BYTES / blockAlign;
+    mapStart = frame;
+    long len = Math.min(framesPerWindow, nFrames - frame) * blockAlign;
+    map = in.map(FileChannel.MapMode.READ_ONLY, dataPos + frame * blockAlign, len);
+    map.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  // Decode k sample frames starting at byte p of b into s[off..off+k).
+  private void decode(ByteBuffer b, int p, short[] s, int off, int k) {
+    int bytes = bitsPerSample / 8;
+    int c0 = channel < 0 ? 0 : channel;
+    int c1 = channel < 0 ? channels : channel + 1;
+    int nc = c1 - c0;
+    if (bytes == 2 && nc == 1) {  // the common case, e.g. a WavWriter recording
+      for (int i = off, q = p + c0 * 2; i < off + k; i++, q += blockAlign) {
+        s[i] = b.getShort(q);
+      }
+      return;
+    }
+    for (int i = off; i < off + k; i++, p += blockAlign) {
+      double sum = 0;
+      for (int c = c0, q = p + c0 * bytes; c < c1; c++, q += bytes) {
+        switch (bytes) {
+          case 1:
+            sum += ((b.get(q) & 0xFF) - 128) << 8;
+            break;
+          case 2:
+            sum += b.getShort(q);
+            break;
+          case 3:
+            sum += ((b.get(q) & 0xFF) | ((b.get(q + 1) & 0xFF) << 8) | (b.get(q + 2) << 16)) / 256.0;
+            break;
+          default:
+            if (format == FORMAT_FLOAT) {
+              sum += b.getFloat(q) * 32768.0;
+            } else {
+              sum += b.getInt(q) / 65536.0;
+            }
+        }
+      }
+      double v = Math.rint(sum / nc);
+      s[i] = (short) (v > 32767 ? 32767 : v < -32768 ? -32768 : v);
+    }
+  }
+
+  // Decode k sample frames starting at byte p of b into s[off..off+k), in full scale.
+  private void decode(ByteBuffer b, int p, float[] s, int off, int k) {
+    int bytes = bitsPerSample / 8;
+    int c0 = channel < 0 ? 0 : channel;
+    int c1 = channel < 0 ? channels : channel + 1;
+    int nc = c1 - c0;
+    for (int i = off; i < off + k; i++, p += blockAlign) {
+      double sum = 0;
+      for (int c = c0, q = p + c0 * bytes; c < c1; c++, q += bytes) {
+        switch (bytes) {
+          case 1:
+            sum += ((b.get(q) & 0xFF) - 128) / 128.0;
+            break;
+          case 2:
+            sum += b.getShort(q) / 32768.0;
+            break;
+          case 3:
+            sum += ((b.get(q) & 0xFF) | ((b.get(q + 1) & 0xFF) << 8) | (b.get(q + 2) << 16)) / 8388608.0;
+            break;
+          default:
+            if (format == FORMAT_FLOAT) {
+              sum += b.getFloat(q);
+            } else {
+              sum += b.getInt(q) / 2147483648.0;
+            }
+        }
+      }
+      s[i] = (float) (sum / nc);
+    }
+  }
+
+  public void close() throws IOException {
+    map = null;
+    in.close();
+  }
+}
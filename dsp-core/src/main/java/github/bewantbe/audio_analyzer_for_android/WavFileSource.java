@@ -0,0 +1,120 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Replay a WAV file as an AudioSource, at real time or as fast as possible.
+ * Decoding (16/24/32-bit, float, channel average) is done by WavFileAnalyzer.
+ */
+
+public class WavFileSource implements AudioSource {
+  private static final String TAG = "WavFileSource";
+  private final File file;
+  private final boolean isPaced;
+  private final boolean isLoop;
+  private WavFileAnalyzer wav;
+  private FrameRateLimiter frameRateLimiter;
+  private long framePosition;
+  private long timestampNanos;
+
+  /**
+   * @param isPaced  deliver samples at the sample rate of the file, otherwise as fast as possible.
+   * @param isLoop   start over at the end of file, otherwise read() returns -1 there.
+   */
+  public WavFileSource(File file, boolean isPaced, boolean isLoop) {
+    this.file = file;
+    this.isPaced = isPaced;
+    this.isLoop = isLoop;
+  }
+
+  @Override
+  public void open() throws IOException {
+    wav = new WavFileAnalyzer(file);
+    if (wav.getFrameCount() == 0) {
+      wav.close();
+      wav = null;
+      throw new IOException("WavFileSource::open(): no audio in " + file);
+    }
+    framePosition = 0;
+    frameRateLimiter = new FrameRateLimiter();
+    DspLog.i(TAG, "open(): " + file + ", " + wav.getSampleRate() + " Hz, " + wav.getChannels()
+        + " channels, " + wav.getBitsPerSample() + " bits, " + wav.getDurationSeconds() + " s");
+  }
+
+  @Override
+  public int read(short[] buf, int off, int len) {
+    int n;
+    try {
+      n = wav.read(buf, off, len);
+      if (n == 0 && isLoop) {
+        wav.seek(0);
+        n = wav.read(buf, off, len);
+      }
+    } catch (IOException e) {
+      DspLog.w(TAG, "read(): " + e);
+      return -1;
+    }
+    if (n == 0) {
+      return -1;  // end of file
+    }
+    framePosition += n;
+    if (isPaced) {
+      frameRateLimiter.limit(1000.0 * n / wav.getSampleRate());
+    }
+    timestampNanos = System.nanoTime();
+    return n;
+  }
+
+  @Override
+  public int getSampleRate() {
+    return wav.getSampleRate();
+  }
+
+  @Override
+  public int getChannels() {
+    return 1;
+  }
+
+  @Override
+  public long getFramePosition() {
+    return framePosition;
+  }
+
+  @Override
+  public long getTimestampNanos() {
+    return timestampNanos;
+  }
+
+  @Override
+  public String getName() {
+    return file.getName();
+  }
+
+  @Override
+  public void close() {
+    if (wav == null) {
+      return;
+    }
+    try {
+      wav.close();
+    } catch (IOException e) {
+      DspLog.w(TAG, "close(): " + e);
+    }
+  }
+}
@@ -0,0 +1,374 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Encode, then decode with the minimal decoder below (written from the format
+ * specification, independent of FlacEncoder): samples, CRCs, MD5 and STREAMINFO must match.
+ */
+public class FlacEncoderTest {
+
+  // Interleaved samples of a sine plus noise on channel 0, then noise, silence, ... on the others.
+  private static int[] testSignal(int nFrames, int channels, int bps, long seed) {
+    Random rnd = new Random(seed);
+    int full = (1 << (bps - 1)) - 1;
+    int[] x = new int[nFrames * channels];
+    for (int i = 0; i < nFrames; i++) {
+      for (int c = 0; c < channels; c++) {
+        double v;
+        switch (c % 3) {
+          case 0:  v = 0.6 * full * Math.sin(0.031 * i) + 0.001 * full * rnd.nextGaussian(); break;
+          case 1:  v = (2 * rnd.nextDouble() - 1) * full; break;   // white, full scale
+          default: v = i < nFrames / 2 ? 0 : -17;                   // constant
+        }
+        x[i * channels + c] = (int) Math.max(-full - 1, Math.min(full, Math.round(v)));
+      }
+    }
+    return x;
+  }
+
+  private static byte[] encode(FlacEncoder enc, int[] x, boolean asShort) {
+    int ch = enc.getChannels();
+    int bs = enc.getBlockSize();
+    int nFrames = x.length / ch;
+    short[] xs = new short[x.length];
+    for (int i = 0; i < x.length; i++) {
+      xs[i] = (short) x[i];
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(enc.getHeader(), 0, FlacEncoder.HEADER_SIZE);
+    for (int i = 0; i < nFrames; i += bs) {
+      int n = Math.min(bs, nFrames - i);
+      int len = asShort ? enc.encodeFrame(xs, i * ch, n) : enc.encodeFrame(x, i * ch, n);
+      out.write(enc.getFrameBuffer(), 0, len);
+    }
+    enc.finish();
+    byte[] b = out.toByteArray();
+    System.arraycopy(enc.getHeader(), 0, b, 0, FlacEncoder.HEADER_SIZE);
+    return b;
+  }
+
+  private static void roundTrip(int sampleRate, int channels, int bps, int blockSize, int lpcOrder,
+                                int nFrames, boolean asShort) throws Exception {
+    String msg = channels + " ch, " + bps + " bits, block " + blockSize + ", lpc " + lpcOrder;
+    int[] x = testSignal(nFrames, channels, bps, nFrames + bps);
+    FlacEncoder enc = new FlacEncoder(sampleRate, channels, bps, blockSize, lpcOrder);
+    byte[] flac = encode(enc, x, asShort);
+    Decoder d = new Decoder(flac);
+    assertEquals(msg, sampleRate, d.sampleRate);
+    assertEquals(msg, channels, d.channels);
+    assertEquals(msg, bps, d.bps);
+    assertEquals(msg, nFrames, d.totalSamples);
+    assertEquals(msg, nFrames, enc.getTotalSamples());
+    assertArrayEquals(msg, x, d.samples);
+    assertArrayEquals(msg, md5(x, bps), d.md5);
+    assertEquals(msg, d.minFrameSizeSeen, d.minFrameSize);
+    assertEquals(msg, d.maxFrameSizeSeen, d.maxFrameSize);
+    assertTrue(msg, d.nFrames == (nFrames + blockSize - 1) / blockSize);
+  }
+
+  private static byte[] md5(int[] x, int bps) throws Exception {
+    int nBytes = (bps + 7) / 8;
+    byte[] b = new byte[x.length * nBytes];
+    for (int i = 0, k = 0; i < x.length; i++) {
+      for (int j = 0; j < nBytes; j++) {
+        b[k++] = (byte) (x[i] >> (8 * j));
+      }
+    }
+    return MessageDigest.getInstance("MD5").digest(b);
+  }
+
+  @Test
+  public void mono16() throws Exception {
+    roundTrip(44100, 1, 16, 4096, 8, 4096 * 10 + 1234, true);
+  }
+
+  @Test
+  public void stereo16() throws Exception {
+    roundTrip(48000, 2, 16, 4096, 8, 4096 * 5 + 17, true);
+  }
+
+  @Test
+  public void mono24() throws Exception {
+    roundTrip(96000, 1, 24, 4096, 8, 4096 * 4 + 100, false);
+  }
+
+  @Test
+  public void threeChannels24() throws Exception {
+    roundTrip(48000, 3, 24, 1152, 12, 1152 * 6 + 1, false);
+  }
+
+  @Test
+  public void otherBlockSizesAndOrders() throws Exception {
+    roundTrip(8000, 1, 16, 16, 8, 1000, true);
+    roundTrip(8000, 2, 16, 1000, 0, 5000, true);    // no LPC
+    roundTrip(8000, 1, 16, 4608, 32, 10000, true);
+    roundTrip(22050, 1, 12, 576, 4, 3000, false);
+  }
+
+  @Test
+  public void compressesPredictableSignal() throws Exception {
+    int n = 48000;
+    int[] x = new int[n];
+    for (int i = 0; i < n; i++) {
+      x[i] = (int) Math.round(10000 * Math.sin(2 * Math.PI * 440 * i / 48000.0));
+    }
+    byte[] flac = encode(new FlacEncoder(48000, 1, 16), x, false);
+    assertTrue("size " + flac.length, flac.length < n * 2 / 3);
+    assertArrayEquals(x, new Decoder(flac).samples);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void tooLongFrameIsRejected() {
+    FlacEncoder enc = new FlacEncoder(48000, 1, 16, 256, 8);
+    enc.encodeFrame(new short[257], 0, 257);
+  }
+
+  /** Decoder for what FlacEncoder produces: fixed block size, independent channels. */
+  static class Decoder {
+    int sampleRate, channels, bps, minFrameSize, maxFrameSize;
+    long totalSamples;
+    byte[] md5 = new byte[16];
+    int[] samples;
+    int nFrames = 0;
+    int minFrameSizeSeen = Integer.MAX_VALUE, maxFrameSizeSeen = 0;
+
+    private final byte[] b;
+    private long bitPos;
+
+    Decoder(byte[] flac) {
+      b = flac;
+      assertEquals('f', b[0]);
+      assertEquals('L', b[1]);
+      assertEquals('a', b[2]);
+      assertEquals('C', b[3]);
+      bitPos = 32;
+      assertEquals(1, bits(1));           // last metadata block
+      assertEquals(0, bits(7));           // STREAMINFO
+      assertEquals(34, bits(24));
+      int minBlock = bits(16);
+      int maxBlock = bits(16);
+      assertEquals(minBlock, maxBlock);
+      minFrameSize = bits(24);
+      maxFrameSize = bits(24);
+      sampleRate   = bits(20);
+      channels     = bits(3) + 1;
+      bps          = bits(5) + 1;
+      totalSamples = ((long) bits(4) << 32) | (bits(32) & 0xFFFFFFFFL);
+      System.arraycopy(b, 26, md5, 0, 16);
+      bitPos = 42 * 8;
+
+      samples = new int[(int) totalSamples * channels];
+      int done = 0;
+      while (bitPos < b.length * 8L) {
+        done += frame(done);
+      }
+      assertEquals(totalSamples, done);
+    }
+
+    // Return number of samples per channel in the frame.
+    private int frame(int offset) {
+      int start = (int) (bitPos / 8);
+      assertEquals(0x3FFE, bits(14));     // sync
+      assertEquals(0, bits(1));
+      assertEquals(0, bits(1));           // fixed block size
+      int bsCode = bits(4);
+      int srCode = bits(4);
+      int chCode = bits(4);
+      int ssCode = bits(3);
+      assertEquals(0, bits(1));
+      assertTrue("independent channels only", chCode < 8);
+      assertEquals(channels, chCode + 1);
+      int[] ssBits = {0, 8, 12, 0, 16, 20, 24, 0};
+      assertEquals(bps, ssCode == 0 ? bps : ssBits[ssCode]);
+      assertEquals(nFrames, utf8());
+      int n;
+      if (bsCode == 6) {
+        n = bits(8) + 1;
+      } else if (bsCode == 7) {
+        n = bits(16) + 1;
+      } else {
+        throw new AssertionError("block size code " + bsCode);
+      }
+      assertEquals(0, srCode);            // from STREAMINFO
+      int crc8 = crc((int) (bitPos / 8), start, 8, 0x07);
+      assertEquals("CRC-8 of frame " + nFrames, crc8, bits(8));
+
+      int[] x = new int[n];
+      for (int c = 0; c < channels; c++) {
+        subframe(x, n);
+        for (int i = 0; i < n; i++) {
+          samples[(offset + i) * channels + c] = x[i];
+        }
+      }
+      bitPos = (bitPos + 7) / 8 * 8;      // zero padding
+      int crc16 = crc((int) (bitPos / 8), start, 16, 0x8005);
+      assertEquals("CRC-16 of frame " + nFrames, crc16, bits(16));
+      int size = (int) (bitPos / 8) - start;
+      minFrameSizeSeen = Math.min(minFrameSizeSeen, size);
+      maxFrameSizeSeen = Math.max(maxFrameSizeSeen, size);
+      nFrames++;
+      return n;
+    }
+
+    private void subframe(int[] x, int n) {
+      assertEquals(0, bits(1));
+      int type = bits(6);
+      assertEquals("wasted bits", 0, bits(1));
+      if (type == 0) {
+        int v = signed(bps);
+        for (int i = 0; i < n; i++) {
+          x[i] = v;
+        }
+      } else if (type == 1) {
+        for (int i = 0; i < n; i++) {
+          x[i] = signed(bps);
+        }
+      } else if (type >= 8 && type <= 12) {
+        int order = type & 7;
+        for (int i = 0; i < order; i++) {
+          x[i] = signed(bps);
+        }
+        residual(x, n, order);
+        for (int i = order; i < n; i++) {
+          long p;
+          switch (order) {
+            case 0:  p = 0; break;
+            case 1:  p = x[i-1]; break;
+            case 2:  p = 2L*x[i-1] - x[i-2]; break;
+            case 3:  p = 3L*x[i-1] - 3L*x[i-2] + x[i-3]; break;
+            default: p = 4L*x[i-1] - 6L*x[i-2] + 4L*x[i-3] - x[i-4];
+          }
+          x[i] += (int) p;
+        }
+      } else if (type >= 32) {
+        int order = (type & 31) + 1;
+        for (int i = 0; i < order; i++) {
+          x[i] = signed(bps);
+        }
+        int precision = bits(4) + 1;
+        assertTrue(precision <= 15);
+        int shift = signed(5);
+        assertTrue(shift >= 0);
+        int[] q = new int[order];
+        for (int j = 0; j < order; j++) {
+          q[j] = signed(precision);
+        }
+        residual(x, n, order);
+        for (int i = order; i < n; i++) {
+          long s = 0;
+          for (int j = 0; j < order; j++) {
+            s += (long) q[j] * x[i - 1 - j];
+          }
+          x[i] += (int) (s >> shift);
+        }
+      } else {
+        throw new AssertionError("reserved subframe type " + type);
+      }
+    }
+
+    // Partitioned Rice coded residual into x[order ~ n-1].
+    private void residual(int[] x, int n, int order) {
+      int method = bits(2);
+      assertTrue(method <= 1);
+      int paramLen = method == 0 ? 4 : 5;
+      int escape = (1 << paramLen) - 1;
+      int partOrder = bits(4);
+      int psz = n >> partOrder;
+      int i = order;
+      for (int p = 0; p < (1 << partOrder); p++) {
+        int k = bits(paramLen);
+        int end = (p + 1) * psz;
+        if (k == escape) {
+          int nb = bits(5);
+          for (; i < end; i++) {
+            x[i] = nb == 0 ? 0 : signed(nb);
+          }
+          continue;
+        }
+        for (; i < end; i++) {
+          int q = 0;
+          while (bits(1) == 0) {
+            q++;
+          }
+          int u = (q << k) | (k > 0 ? bits(k) : 0);
+          x[i] = (u >>> 1) ^ -(u & 1);
+        }
+      }
+      assertEquals(n, i);
+    }
+
+    private long utf8() {
+      int c = bits(8);
+      if (c < 0x80) {
+        return c;
+      }
+      int nMore = 0;
+      int mask = 0x40;
+      while ((c & mask) != 0) {
+        nMore++;
+        mask >>= 1;
+      }
+      long v = c & (mask - 1);
+      for (int i = 0; i < nMore; i++) {
+        int d = bits(8);
+        assertEquals(0x80, d & 0xC0);
+        v = (v << 6) | (d & 0x3F);
+      }
+      return v;
+    }
+
+    // Next n (<= 32) bits, MSB first.
+    private int bits(int n) {
+      long v = 0;
+      for (int i = 0; i < n; i++) {
+        int bit = (b[(int) (bitPos >>> 3)] >> (7 - (int) (bitPos & 7))) & 1;
+        v = (v << 1) | bit;
+        bitPos++;
+      }
+      return (int) v;
+    }
+
+    private int signed(int n) {
+      int v = bits(n);
+      return n == 32 ? v : (v << (32 - n)) >> (32 - n);
+    }
+
+    // Bitwise CRC (MSB first, zero init) of b[from ~ to-1].
+    private int crc(int to, int from, int width, int poly) {
+      int top = 1 << (width - 1);
+      int mask = (1 << width) - 1;
+      int c = 0;
+      for (int i = from; i < to; i++) {
+        c ^= (b[i] & 0xFF) << (width - 8);
+        for (int j = 0; j < 8; j++) {
+          c = (c & top) != 0 ? ((c << 1) ^ poly) & mask : (c << 1) & mask;
+        }
+      }
+      return c;
+    }
+  }
+}
@@ -0,0 +1,189 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * ParallelWavAnalyzer gives exactly the frames of WavFileAnalyzer, in the same order.
+ */
+public class ParallelWavAnalyzerTest {
+  private static final int SAMPLE_RATE = 16000;
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static class Frames implements WavFileAnalyzer.Listener {
+    final List<double[]> values = new ArrayList<double[]>();
+    long nextFrame = 0;
+
+    @Override
+    public void onFrame(long frame, double[] spectrumDB, double peakFreq, double peakDB, double rms) {
+      assertEquals(nextFrame++, frame);
+      double[] v = new double[spectrumDB.length + 3];
+      System.arraycopy(spectrumDB, 0, v, 0, spectrumDB.length);
+      v[spectrumDB.length]     = peakFreq;
+      v[spectrumDB.length + 1] = peakDB;
+      v[spectrumDB.length + 2] = rms;
+      values.add(v);
+    }
+  }
+
+  // Interleaved samples in [-1, 1): a chirp on channel 0, noise on the others.
+  private static double[] signal(int nFrames, int channels) {
+    Random rnd = new Random(nFrames);
+    double[] x = new double[nFrames * channels];
+    for (int i = 0; i < nFrames; i++) {
+      double t = (double) i / SAMPLE_RATE;
+      x[i * channels] = 0.7 * Math.sin(2 * Math.PI * (200 + 1000 * t) * t);
+      for (int c = 1; c < channels; c++) {
+        x[i * channels + c] = 0.1 * rnd.nextGaussian();
+      }
+    }
+    return x;
+  }
+
+  // Plain WAV: PCM 16 or 24 bits, or IEEE float 32 bits.
+  private File writeWav(String name, double[] x, int channels, int bits, boolean isFloat) throws IOException {
+    int bytes = bits / 8;
+    ByteBuffer b = ByteBuffer.allocate(44 + x.length * bytes).order(ByteOrder.LITTLE_ENDIAN);
+    b.put("RIFF".getBytes("US-ASCII")).putInt(36 + x.length * bytes).put("WAVE".getBytes("US-ASCII"));
+    b.put("fmt ".getBytes("US-ASCII")).putInt(16).putShort((short) (isFloat ? 3 : 1))
+     .putShort((short) channels).putInt(SAMPLE_RATE).putInt(SAMPLE_RATE * channels * bytes)
+     .putShort((short) (channels * bytes)).putShort((short) bits);
+    b.put("data".getBytes("US-ASCII")).putInt(x.length * bytes);
+    for (double v : x) {
+      if (isFloat) {
+        b.putFloat((float) v);
+      } else if (bits == 16) {
+        b.putShort((short) Math.round(v * 32767));
+      } else {
+        int s = (int) Math.round(v * 8388607);
+        b.put((byte) s).put((byte) (s >> 8)).put((byte) (s >> 16));
+      }
+    }
+    File f = tmp.newFile(name);
+    Files.write(f.toPath(), b.array());
+    return f;
+  }
+
+  private static Frames sequential(File f, int channel, int fftLen, int hopLen, String wnd,
+                                   boolean useFloat) throws IOException {
+    WavFileAnalyzer a = new WavFileAnalyzer(f);
+    try {
+      a.setChannel(channel);
+      Frames fr = new Frames();
+      long n = a.analyse(fftLen, hopLen, wnd, useFloat, fr);
+      assertEquals(WavFileAnalyzer.fftFrameCount(a.getFrameCount(), fftLen, hopLen), n);
+      assertEquals(n, fr.values.size());
+      return fr;
+    } finally {
+      a.close();
+    }
+  }
+
+  private static Frames parallel(File f, int channel, int fftLen, int hopLen, String wnd,
+                                 boolean useFloat, int nThreads) throws IOException {
+    ParallelWavAnalyzer a = new ParallelWavAnalyzer(f, nThreads);
+    try {
+      a.setChannel(channel);
+      Frames fr = new Frames();
+      long n = a.analyse(fftLen, hopLen, wnd, useFloat, fr);
+      assertEquals(n, fr.values.size());
+      return fr;
+    } finally {
+      a.close();
+    }
+  }
+
+  private static void assertSameFrames(String msg, Frames expected, Frames actual) {
+    assertEquals(msg, expected.values.size(), actual.values.size());
+    for (int i = 0; i < expected.values.size(); i++) {
+      assertArrayEquals(msg + ", frame " + i, expected.values.get(i), actual.values.get(i), 0);
+    }
+  }
+
+  @Test
+  public void parallelEqualsSequential() throws IOException {
+    File mono   = writeWav("mono.wav",   signal(50000, 1), 1, 16, false);
+    File stereo = writeWav("stereo.wav", signal(40000, 2), 2, 24, false);
+    File flt    = writeWav("float.wav",  signal(30001, 1), 1, 32, true);
+    int[][] fftHop = {{1024, 512}, {1024, 1024}, {2048, 300}, {256, 64}};
+    for (File f : new File[] {mono, stereo, flt}) {
+      for (int[] fh : fftHop) {
+        for (boolean useFloat : new boolean[] {false, true}) {
+          int[] chs = f == stereo ? new int[] {-1, 0, 1} : new int[] {-1};
+          for (int ch : chs) {
+            String msg = f.getName() + ", fft " + fh[0] + ", hop " + fh[1]
+                + ", float " + useFloat + ", channel " + ch;
+            Frames s = sequential(f, ch, fh[0], fh[1], "Hanning", useFloat);
+            assertSameFrames(msg, s, parallel(f, ch, fh[0], fh[1], "Hanning", useFloat, 4));
+          }
+        }
+      }
+    }
+  }
+
+  // One thread, or more threads than ranges, give the same result too.
+  @Test
+  public void resultDoesNotDependOnThreadCount() throws IOException {
+    File f = writeWav("a.wav", signal(20000, 1), 1, 16, false);
+    Frames s = sequential(f, -1, 512, 256, "Blackman Harris", false);
+    for (int nThreads : new int[] {1, 2, 3, 16}) {
+      assertSameFrames(nThreads + " threads", s, parallel(f, -1, 512, 256, "Blackman Harris", false, nThreads));
+    }
+  }
+
+  // Frames are those of STFT fed with the samples of each window.
+  @Test
+  public void framesMatchSTFT() throws IOException {
+    int fftLen = 512;
+    int hopLen = 200;
+    double[] x = signal(8000, 1);
+    File f = writeWav("b.wav", x, 1, 16, false);
+    Frames fr = parallel(f, -1, fftLen, hopLen, "Hanning", false, 2);
+    short[] s = new short[x.length];
+    for (int i = 0; i < x.length; i++) {
+      s[i] = (short) Math.round(x[i] * 32767);
+    }
+    STFT stft = new STFT(fftLen, hopLen, SAMPLE_RATE, "Hanning", false);
+    int nBins = fftLen / 2 + 1;
+    for (int k = 0; k < fr.values.size(); k++) {
+      stft.clear();
+      short[] w = new short[fftLen];
+      System.arraycopy(s, k * hopLen, w, 0, fftLen);
+      stft.feedData(w);
+      double[] expected = stft.getSpectrumAmpDB();
+      double[] actual = new double[nBins];
+      System.arraycopy(fr.values.get(k), 0, actual, 0, nBins);
+      assertArrayEquals("frame " + k, expected, actual, 0);
+    }
+  }
+}
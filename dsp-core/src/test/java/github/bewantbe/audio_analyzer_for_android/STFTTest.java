@@ -0,0 +1,264 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ShortBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.corp.productivity.specialprojects.android.fft.RealDoubleFFT;
+import com.google.corp.productivity.specialprojects.android.fft.RealDoubleFFTPlan;
+
+/**
+ * Hop and ring buffer handling of STFT, against a direct per-frame computation.
+ */
+public class STFTTest {
+  private static final int SAMPLE_RATE = 32000;
+
+  // Sine at freq (Hz) plus some noise, in 16-bit units.
+  private static short[] testSignal(int n, double freq, double amp, long seed) {
+    Random rnd = new Random(seed);
+    short[] x = new short[n];
+    for (int i = 0; i < n; i++) {
+      double v = amp * 32767 * Math.sin(2 * Math.PI * freq * i / SAMPLE_RATE) + 100 * rnd.nextGaussian();
+      x[i] = (short) Math.max(-32768, Math.min(32767, Math.round(v)));
+    }
+    return x;
+  }
+
+  // Power spectrum of x[start ~ start+fftLen-1] with rectangular window, scaled as STFT.
+  private static double[] framePower(short[] x, int start, int fftLen) {
+    double[] y = new double[fftLen];
+    for (int i = 0; i < fftLen; i++) {
+      y[i] = x[start + i] / 32768.0;
+    }
+    new RealDoubleFFT(RealDoubleFFTPlan.get(fftLen, false)).ft(y);
+    double scaler = 4.0 / ((double) fftLen * fftLen);
+    double[] p = new double[fftLen / 2 + 1];
+    p[0] = y[0] * y[0] * scaler / 4;
+    for (int j = 1; j < fftLen / 2; j++) {
+      p[j] = (y[2*j-1] * y[2*j-1] + y[2*j] * y[2*j]) * scaler;
+    }
+    p[fftLen / 2] = y[fftLen-1] * y[fftLen-1] * scaler / 4;
+    return p;
+  }
+
+  private static void assertClose(String msg, double[] expected, double[] actual, double relTol) {
+    assertEquals(msg, expected.length, actual.length);
+    double m = 0;
+    for (double v : expected) {
+      m = Math.max(m, Math.abs(v));
+    }
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(msg + ", bin " + i, expected[i], actual[i], relTol * m);
+    }
+  }
+
+  @Test
+  public void framesMatchDirectComputation() {
+    int fftLen = 256;
+    for (int hopLen : new int[] {256, 128, 64, 100, 1}) {
+      short[] x = testSignal(fftLen + 40 * hopLen, 1234.5, 0.5, hopLen);
+      STFT stft = new STFT(fftLen, hopLen, SAMPLE_RATE, "Rectangular", false);
+      stft.feedData(x, fftLen);
+      int start = 0;
+      for (int k = 0; k < 40; k++) {
+        assertEquals(1, stft.nElemSpectrumAmp());
+        assertClose("hop " + hopLen + ", frame " + k, framePower(x, start, fftLen), stft.getSpectrumAmp(), 1e-12);
+        assertEquals(0, stft.nElemSpectrumAmp());
+        start += hopLen;
+        stft.feedData(ShortBuffer.wrap(x, start + fftLen - hopLen, hopLen).slice(), hopLen);
+      }
+    }
+  }
+
+  @Test
+  public void outputIsAverageOfFrames() {
+    int fftLen = 512;
+    int hopLen = 128;
+    int nFrames = 9;
+    short[] x = testSignal(fftLen + (nFrames - 1) * hopLen, 3000, 0.3, 1);
+    STFT stft = new STFT(fftLen, hopLen, SAMPLE_RATE, "Rectangular", false);
+    stft.feedData(x);
+    assertEquals(nFrames, stft.nElemSpectrumAmp());
+    double[] avg = new double[fftLen / 2 + 1];
+    for (int k = 0; k < nFrames; k++) {
+      double[] p = framePower(x, k * hopLen, fftLen);
+      for (int j = 0; j < avg.length; j++) {
+        avg[j] += p[j] / nFrames;
+      }
+    }
+    assertClose("average", avg, stft.getSpectrumAmp(), 1e-12);
+  }
+
+  // Feeding the same samples in any chunk sizes gives exactly the same result.
+  @Test
+  public void resultDoesNotDependOnChunkSize() {
+    int fftLen = 1024;
+    int hopLen = 256;
+    short[] x = testSignal(20000, 440, 0.8, 2);
+    for (boolean useFloat : new boolean[] {false, true}) {
+      STFT ref = new STFT(fftLen, hopLen, SAMPLE_RATE, "Hanning", useFloat);
+      ref.feedData(x);
+      double[] expected = ref.getSpectrumAmpDB().clone();
+      for (int chunk : new int[] {1, 7, 255, 256, 257, 1024, 1500, 5000}) {
+        STFT stft = new STFT(fftLen, hopLen, SAMPLE_RATE, "Hanning", useFloat);
+        for (int i = 0; i < x.length; i += chunk) {
+          int n = Math.min(chunk, x.length - i);
+          short[] c = new short[n];
+          System.arraycopy(x, i, c, 0, n);
+          stft.feedData(c, n);
+        }
+        assertArrayEquals("float " + useFloat + ", chunk " + chunk, expected, stft.getSpectrumAmpDB(), 0);
+      }
+    }
+  }
+
+  @Test
+  public void samplesAfterLastFrame() {
+    int fftLen = 256;
+    int hopLen = 96;
+    STFT stft = new STFT(fftLen, hopLen, SAMPLE_RATE, "Hanning", false);
+    short[] one = new short[1];
+    for (int n = 1; n <= 2000; n++) {
+      stft.feedData(one, 1);
+      int expected = n < fftLen ? 0 : (n - fftLen) % hopLen;
+      assertEquals("after " + n + " samples", expected, stft.getSamplesAfterLastFrame());
+    }
+    stft.clear();
+    assertEquals(0, stft.getSamplesAfterLastFrame());
+  }
+
+  @Test
+  public void clearForgetsPreviousInput() {
+    int fftLen = 512;
+    short[] x1 = testSignal(3000, 5000, 0.9, 3);
+    short[] x2 = testSignal(3000, 700, 0.1, 4);
+    STFT fresh = new STFT(fftLen, fftLen / 2, SAMPLE_RATE, "Hanning", false);
+    fresh.feedData(x2);
+    STFT stft = new STFT(fftLen, fftLen / 2, SAMPLE_RATE, "Hanning", false);
+    stft.feedData(x1);
+    stft.clear();
+    stft.feedData(x2);
+    assertArrayEquals(fresh.getSpectrumAmpDB(), stft.getSpectrumAmpDB(), 0);
+    assertEquals(fresh.getRMS(), stft.getRMS(), 0);
+  }
+
+  // Float samples are full scale; x/32768 in float gives exactly the 16-bit result.
+  @Test
+  public void floatInputMatchesShortInput() {
+    int fftLen = 1024;
+    short[] x = testSignal(8192, 2500, 0.5, 5);
+    float[] xf = new float[x.length];
+    for (int i = 0; i < x.length; i++) {
+      xf[i] = x[i] / 32768f;
+    }
+    STFT s = new STFT(fftLen, fftLen / 2, SAMPLE_RATE, "Hanning", false);
+    STFT f = new STFT(fftLen, fftLen / 2, SAMPLE_RATE, "Hanning", false);
+    s.feedData(x);
+    f.feedData(xf, xf.length);
+    assertArrayEquals(s.getSpectrumAmpDB(), f.getSpectrumAmpDB(), 0);
+    assertEquals(s.getRMS(), f.getRMS(), 0);
+  }
+
+  // The noise floor of calculatePeak() follows the resolution of the last input.
+  @Test
+  public void peakFloorFollowsInputFormat() {
+    int fftLen = 256;
+    STFT stft = new STFT(fftLen, fftLen, SAMPLE_RATE, "Hanning", false);
+    double floor16 = 20 * Math.log10(0.125 / 32768);
+    double floor24 = 20 * Math.log10(0.125 / 256 / 32768);
+    stft.feedData(new float[fftLen], fftLen);
+    stft.calculatePeak();
+    assertEquals(floor24, stft.maxAmpDB, 1e-9);
+    stft.feedData(new short[fftLen], fftLen);
+    stft.calculatePeak();
+    assertEquals(floor16, stft.maxAmpDB, 1e-9);
+    stft.feedData(new float[fftLen], fftLen);
+    stft.clear();
+    stft.calculatePeak();
+    assertEquals(floor16, stft.maxAmpDB, 1e-9);
+  }
+
+  @Test
+  public void peakAndRMSOfSine() {
+    int fftLen = 4096;
+    double freq = 1000.3;
+    short[] x = new short[fftLen * 4];
+    for (int i = 0; i < x.length; i++) {
+      x[i] = (short) Math.round(0.5 * 32767 * Math.sin(2 * Math.PI * freq * i / SAMPLE_RATE));
+    }
+    for (boolean useFloat : new boolean[] {false, true}) {
+      STFT stft = new STFT(fftLen, fftLen / 2, SAMPLE_RATE, "Blackman Harris", useFloat);
+      stft.feedData(x);
+      stft.calculatePeak();
+      assertEquals(freq, stft.maxAmpFreq, 0.1);
+      assertEquals(20 * Math.log10(0.5), stft.maxAmpDB, 0.1);
+      assertEquals(0.5, stft.getRMS(), 1e-3);
+      assertEquals(0.5, stft.getRMSFromFT(), 1e-2);
+    }
+  }
+
+  @Test
+  public void singlePrecisionIsCloseToDouble() {
+    int fftLen = 4096;
+    short[] x = testSignal(fftLen * 3, 1500, 0.5, 6);
+    STFT d = new STFT(fftLen, fftLen / 2, SAMPLE_RATE, "Hanning", false);
+    STFT f = new STFT(fftLen, fftLen / 2, SAMPLE_RATE, "Hanning", true);
+    d.feedData(x);
+    f.feedData(x);
+    double[] dbD = d.getSpectrumAmpDB();
+    float[] dbF = f.getSpectrumAmpDBFloat();
+    for (int i = 0; i < dbD.length; i++) {
+      assertEquals("bin " + i, dbD[i], dbF[i], 0.04);
+    }
+    // The double getters widen the float output.
+    double[] dbFD = f.getSpectrumAmpDB();
+    for (int i = 0; i < dbD.length; i++) {
+      assertEquals(dbF[i], dbFD[i], 0);
+    }
+  }
+
+  // A-weighting is about 0 dB at 1 kHz and applies from the next FFT frame.
+  @Test
+  public void aWeighting() {
+    int fftLen = 1024;                // bin 32 is 1000 Hz, bin 2 is 62.5 Hz
+    short[] x = testSignal(fftLen, 1000, 0.5, 7);
+    STFT plain    = new STFT(fftLen, fftLen, SAMPLE_RATE, "Hanning", false);
+    STFT weighted = new STFT(fftLen, fftLen, SAMPLE_RATE, "Hanning", false);
+    weighted.setAWeighting(true);
+    assertTrue(weighted.getAWeighting());
+    plain.feedData(x);
+    weighted.feedData(x);
+    double[] p = plain.getSpectrumAmpDB().clone();
+    double[] w = weighted.getSpectrumAmpDB();
+    assertEquals(0, w[32] - p[32], 0.01);
+    assertEquals(-26.2, w[2] - p[2], 0.5);
+    weighted.setAWeighting(false);
+    weighted.feedData(x);
+    assertArrayEquals(p, weighted.getSpectrumAmpDB(), 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void hopLongerThanFFTIsRejected() {
+    new STFT(256, 257, SAMPLE_RATE, "Hanning", false);
+  }
+}
@@ -0,0 +1,136 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SampleRingTest {
+
+  @Test
+  public void capacityIsRoundedUpToPowerOf2() {
+    assertEquals(1, new SampleRing(1).capacity());
+    assertEquals(1024, new SampleRing(1000).capacity());
+    assertEquals(1024, new SampleRing(1024).capacity());
+    assertEquals(2048, new SampleRing(1025).capacity());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void zeroCapacityIsRejected() {
+    new SampleRing(0);
+  }
+
+  // Samples come out in order across many wrap-arounds, for odd write and read sizes.
+  @Test
+  public void wrapAround() {
+    SampleRing ring = new SampleRing(64);
+    short[] src = new short[50];
+    short[] dst = new short[50];
+    short next = 0, expected = 0;
+    for (int round = 0; round < 1000; round++) {
+      int nw = 1 + round % 37;
+      for (int i = 0; i < nw; i++) {
+        src[i] = next++;
+      }
+      assertEquals(nw, ring.write(src, 0, nw));
+      int nr = ring.read(dst, 3, nw, 0);
+      assertEquals(nw, nr);
+      for (int i = 0; i < nr; i++) {
+        assertEquals(expected++, dst[3 + i]);
+      }
+      assertEquals(0, ring.occupancy());
+    }
+    assertEquals(0, ring.getDroppedSamples());
+    assertEquals(next & 0xFFFF, ring.getWriteCount() & 0xFFFF);
+  }
+
+  @Test
+  public void overflowIsDroppedAndCounted() {
+    SampleRing ring = new SampleRing(16);
+    short[] src = new short[10];
+    for (int i = 0; i < src.length; i++) {
+      src[i] = (short) i;
+    }
+    assertEquals(10, ring.write(src, 0, 10));
+    assertEquals(6, ring.write(src, 0, 10));
+    assertEquals(0, ring.write(src, 0, 10));
+    assertEquals(14, ring.getDroppedSamples());
+    assertEquals(16, ring.occupancy());
+    assertEquals(16, ring.getHighWaterMark());
+    assertEquals(16, ring.getWriteCount());
+
+    // What was kept is the oldest samples, in order.
+    short[] dst = new short[16];
+    assertEquals(16, ring.read(dst, 0, 16, 0));
+    for (int i = 0; i < 10; i++) {
+      assertEquals(i, dst[i]);
+    }
+    for (int i = 0; i < 6; i++) {
+      assertEquals(i, dst[10 + i]);
+    }
+    assertEquals(16, ring.getHighWaterMark());
+  }
+
+  @Test
+  public void readTimesOutWhenEmpty() {
+    SampleRing ring = new SampleRing(16);
+    long t0 = System.nanoTime();
+    assertEquals(0, ring.read(new short[4], 0, 4, 20));
+    assertTrue(System.nanoTime() - t0 >= 15000000L);
+    assertEquals(0, ring.read(new short[4], 0, 4, 0));
+  }
+
+  // One producer and one consumer thread: every sample is delivered once, in order,
+  // when the producer waits for space instead of dropping.
+  @Test(timeout = 20000)
+  public void concurrentProducerAndConsumer() throws InterruptedException {
+    final SampleRing ring = new SampleRing(256);
+    final int total = 2000000;
+    Thread producer = new Thread() {
+      @Override
+      public void run() {
+        short[] src = new short[97];
+        int v = 0;
+        while (v < total) {
+          int n = Math.min(src.length, total - v);
+          while (ring.capacity() - ring.occupancy() < n) {
+            Thread.yield();
+          }
+          for (int i = 0; i < n; i++) {
+            src[i] = (short) (v + i);
+          }
+          ring.write(src, 0, n);
+          v += n;
+        }
+      }
+    };
+    producer.start();
+    short[] dst = new short[61];
+    int expected = 0;
+    while (expected < total) {
+      int n = ring.read(dst, 0, dst.length, 100);
+      for (int i = 0; i < n; i++) {
+        assertEquals((short) expected++, dst[i]);
+      }
+    }
+    producer.join();
+    assertEquals(0, ring.getDroppedSamples());
+    assertEquals(total, ring.getWriteCount());
+    assertTrue(ring.getHighWaterMark() <= ring.capacity());
+  }
+}
@@ -0,0 +1,187 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * SpectrogramWriter output read back by SpectrogramReader: values, block index and seek.
+ */
+public class SpectrogramWriterTest {
+  private static final int SAMPLE_RATE = 48000;
+  private static final int FFT_LEN     = 1024;
+  private static final int STEP        = 512;
+  private static final int N_BINS      = FFT_LEN / 2 + 1;
+  private static final int PER_BLOCK   = 16;
+  private static final float DB_MIN    = -144;
+  private static final float DB_MAX    = 0;
+  private static final long GAP_START  = 1000000;   // second run of frames, after a pause
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  // 100 consecutive frames, a pause, then 50 more. Frames after the first of a block
+  // jitter a little, which does not start a new block.
+  private static long framePos(int k) {
+    int j = k < 100 ? k : k - 100;
+    long jitter = j % PER_BLOCK == 0 ? 0 : (k % 3 - 1) * (STEP / 8);
+    return nominalPos(k) + jitter;
+  }
+
+  // Nominal position, as the reader computes it from the block start.
+  private static long nominalPos(int k) {
+    return k < 100 ? (long) k * STEP : GAP_START + (long) (k - 100) * STEP;
+  }
+
+  private static float[] frame(int k) {
+    float[] db = new float[N_BINS];
+    for (int i = 0; i < N_BINS; i++) {
+      db[i] = -((k * 7 + i * 3) % 140) - 0.3f;
+    }
+    return db;
+  }
+
+  private File write(String name, int bytesPerValue, int nQueuedBlocks) throws IOException {
+    File f = tmp.newFile(name);
+    SpectrogramWriter w = new SpectrogramWriter(f, SAMPLE_RATE, FFT_LEN, STEP, N_BINS,
+        bytesPerValue, DB_MIN, DB_MAX, PER_BLOCK, nQueuedBlocks);
+    for (int k = 0; k < 150; k++) {
+      w.addFrame(frame(k), framePos(k));
+    }
+    w.close();
+    assertEquals(150, w.getFrameCount());
+    assertEquals(0, w.getDroppedFrameCount());
+    assertEquals(f.length(), w.getBytesWritten());
+    return f;
+  }
+
+  private void checkContent(File f, int bytesPerValue) throws IOException {
+    SpectrogramReader r = new SpectrogramReader(f);
+    try {
+      assertEquals(bytesPerValue, r.bytesPerValue);
+      assertEquals(SAMPLE_RATE, r.sampleRate);
+      assertEquals(FFT_LEN, r.fftLen);
+      assertEquals(STEP, r.frameStep);
+      assertEquals(N_BINS, r.nBins);
+      assertEquals(PER_BLOCK, r.framesPerBlock);
+      assertEquals(150, r.getFrameCount());
+      // 100 frames: 6 full blocks and 4 frames; 50 frames: 3 full blocks and 2 frames.
+      assertEquals(11, r.getBlockCount());
+      assertEquals(4, r.getBlockFrames(6));
+      assertEquals(GAP_START, r.getBlockStart(7));
+      assertEquals(2, r.getBlockFrames(10));
+      assertEquals(nominalPos(149), r.getEndSample());
+
+      float tol = (DB_MAX - DB_MIN) / (bytesPerValue == 1 ? 0xFF : 0xFFFF) / 2 + 1e-4f;
+      float[] db = new float[N_BINS];
+      int k = 0;
+      for (int b = 0; b < r.getBlockCount(); b++) {
+        for (int j = 0; j < r.getBlockFrames(b); j++, k++) {
+          assertEquals(nominalPos(k), r.getBlockStart(b) + (long) j * STEP);
+          r.readFrame(b, j, db);
+          assertArrayEquals("frame " + k, frame(k), db, tol);
+        }
+      }
+
+      // Seek: the nearest frame, in the right block.
+      for (k = 0; k < 150; k++) {
+        for (long d : new long[] {0, STEP / 3, -STEP / 3}) {
+          long pos = nominalPos(k) + d;
+          if (pos < 0) continue;
+          assertEquals("seek " + pos, nominalPos(k), r.readFrameAt(pos, db));
+          assertArrayEquals(frame(k), db, tol);
+        }
+      }
+      assertEquals(0, r.findBlock(-5));
+      assertEquals(6, r.findBlock(GAP_START - 1));
+      assertEquals(7, r.findBlock(GAP_START));
+      assertEquals(10, r.findBlock(Long.MAX_VALUE));
+      // In the pause, the last frame before it.
+      assertEquals(nominalPos(99), r.readFrameAt(GAP_START / 2, db));
+      assertEquals(nominalPos(149), r.readFrameAt(GAP_START * 10, db));
+    } finally {
+      r.close();
+    }
+  }
+
+  @Test
+  public void roundTrip16Bit() throws IOException {
+    checkContent(write("a.spg", 2, 0), 2);
+  }
+
+  @Test
+  public void roundTrip8Bit() throws IOException {
+    checkContent(write("b.spg", 1, 0), 1);
+  }
+
+  // With enough queued blocks nothing is dropped, and the file is the same
+  // as the one written without the thread (except the start time in the header).
+  @Test
+  public void backgroundWriterGivesSameFile() throws IOException {
+    File sync  = write("sync.spg", 2, 0);
+    File async = write("async.spg", 2, 16);
+    checkContent(async, 2);
+    byte[] a = Files.readAllBytes(sync.toPath());
+    byte[] b = Files.readAllBytes(async.toPath());
+    Arrays.fill(a, 40, 48, (byte) 0);
+    Arrays.fill(b, 40, 48, (byte) 0);
+    assertArrayEquals(a, b);
+  }
+
+  @Test
+  public void valuesOutOfRangeAreClamped() throws IOException {
+    File f = tmp.newFile("c.spg");
+    SpectrogramWriter w = new SpectrogramWriter(f, SAMPLE_RATE, 8, 4, 5, 1, DB_MIN, DB_MAX, 4);
+    w.addFrame(new float[] {-1000, Float.NEGATIVE_INFINITY, Float.NaN, 10, Float.POSITIVE_INFINITY}, 0);
+    w.close();
+    SpectrogramReader r = new SpectrogramReader(f);
+    float[] db = new float[5];
+    r.readFrame(0, 0, db);
+    r.close();
+    assertArrayEquals(new float[] {DB_MIN, DB_MIN, DB_MIN, DB_MAX, DB_MAX}, db, 1e-4f);
+  }
+
+  // A block cut short (e.g. by a crash while writing it) is ignored.
+  @Test
+  public void incompleteLastBlockIsIgnored() throws IOException {
+    File f = write("d.spg", 2, 0);
+    RandomAccessFile raf = new RandomAccessFile(f, "rw");
+    raf.setLength(raf.length() - 100);
+    raf.close();
+    SpectrogramReader r = new SpectrogramReader(f);
+    assertEquals(10, r.getBlockCount());
+    assertEquals(148, r.getFrameCount());
+    r.close();
+  }
+
+  @Test(expected = IOException.class)
+  public void otherFileIsRejected() throws IOException {
+    File f = tmp.newFile("e.spg");
+    Files.write(f.toPath(), new byte[SpectrogramWriter.HEADER_SIZE]);
+    new SpectrogramReader(f);
+  }
+}
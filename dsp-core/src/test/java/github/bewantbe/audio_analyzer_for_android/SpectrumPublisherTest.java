@@ -0,0 +1,118 @@
+/* Copyright 2017 Eddy Xiao <bewantbe@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package github.bewantbe.audio_analyzer_for_android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class SpectrumPublisherTest {
+
+  private static void fill(SpectrumSnapshot s, float v) {
+    if (s.spectrumDB.length != 64) {
+      s.spectrumDB = new float[64];
+    }
+    for (int i = 0; i < s.spectrumDB.length; i++) {
+      s.spectrumDB[i] = v;
+    }
+    s.maxAmpDB = v;
+  }
+
+  @Test
+  public void nothingPublished() {
+    SpectrumPublisher p = new SpectrumPublisher();
+    assertEquals(0, p.acquire().seq);
+  }
+
+  @Test
+  public void readerGetsLatestFrame() {
+    SpectrumPublisher p = new SpectrumPublisher();
+    for (int i = 1; i <= 3; i++) {
+      fill(p.beginWrite(), i);
+      p.publish();
+    }
+    SpectrumSnapshot s = p.acquire();
+    assertEquals(3, s.seq);
+    assertEquals(3f, s.spectrumDB[0], 0);
+    // No new frame: the same one again.
+    assertSame(s, p.acquire());
+    assertEquals(3, p.acquire().seq);
+  }
+
+  // The frame held by the reader is not written until the reader asks for another one.
+  @Test
+  public void writerDoesNotTouchReaderFrame() {
+    SpectrumPublisher p = new SpectrumPublisher();
+    fill(p.beginWrite(), 1);
+    p.publish();
+    SpectrumSnapshot held = p.acquire();
+    for (int i = 2; i <= 10; i++) {
+      SpectrumSnapshot w = p.beginWrite();
+      assertNotSame(held, w);
+      fill(w, i);
+      p.publish();
+      assertEquals(1, held.seq);
+      assertEquals(1f, held.spectrumDB[63], 0);
+    }
+    assertEquals(10, p.acquire().seq);
+  }
+
+  // Concurrent writer and reader: frames are never torn and never go back in time.
+  @Test(timeout = 20000)
+  public void concurrentFramesAreConsistent() throws InterruptedException {
+    final SpectrumPublisher p = new SpectrumPublisher();
+    final int nFrames = 200000;
+    final AtomicBoolean done = new AtomicBoolean(false);
+    Thread writer = new Thread() {
+      @Override
+      public void run() {
+        for (int i = 1; i <= nFrames; i++) {
+          fill(p.beginWrite(), i);
+          p.publish();
+        }
+        done.set(true);
+      }
+    };
+    writer.start();
+    long lastSeq = 0;
+    int nSeen = 0;
+    while (!done.get() || lastSeq < nFrames) {
+      SpectrumSnapshot s = p.acquire();
+      if (s.seq == 0) {
+        continue;
+      }
+      assertTrue(s.seq >= lastSeq);
+      float v = s.spectrumDB[0];
+      assertEquals(s.seq, (long) v);
+      for (int i = 1; i < s.spectrumDB.length; i++) {
+        assertEquals(v, s.spectrumDB[i], 0);
+      }
+      assertEquals(v, s.maxAmpDB, 0);
+      if (s.seq != lastSeq) {
+        nSeen++;
+      }
+      lastSeq = s.seq;
+    }
+    writer.join();
+    assertEquals(nFrames, lastSeq);
+    assertTrue(nSeen > 0);
+  }
+}